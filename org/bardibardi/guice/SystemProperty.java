@@ -34,4 +34,22 @@ public class SystemProperty {
     	}
 		b.bindConstant().annotatedWith(Names.named(name)).to(property);
     }
+	/**
+	 * Bind a @Named annotation with java property,
+	 * using a default value when the java property
+	 * is null or "", the empty String.
+	 * Useful for numeric settings which Guice can
+	 * not convert from "".
+	 *  
+	 * @param b, Binder, a Guice Binder
+	 * @param name, String, property name
+	 * @param defaultValue, String, value used when the property is not set
+	 */
+    public static void bind(Binder b, String name, String defaultValue) {
+    	String property = System.getProperty(name);
+    	if (null == property || "".equals(property)) {
+    		property = defaultValue;
+    	}
+		b.bindConstant().annotatedWith(Names.named(name)).to(property);
+    }
 }
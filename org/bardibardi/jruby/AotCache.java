@@ -0,0 +1,294 @@
+package org.bardibardi.jruby;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jruby.Ruby;
+import org.jruby.ast.Node;
+import org.jruby.ast.executable.Script;
+import org.jruby.compiler.ASTCompiler;
+import org.jruby.compiler.ASTInspector;
+import org.jruby.compiler.impl.StandardASMCompiler;
+import org.jruby.javasupport.JavaEmbedUtils;
+import org.jruby.runtime.Constants;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+/**
+ * Cache of ruby source files compiled to JVM class files
+ * by the JRuby compiler (as jrubyc does), in the directory
+ * "ruby.app.aot.cache.directory" ("" turns it off).
+ * <p>
+ * A compiled file is named for the SHA-1 of the source
+ * bytes and the JRuby version, so it is fresh exactly when
+ * it exists. A changed source file simply has no compiled
+ * file yet. Stale class files are never used; delete the
+ * directory to reclaim them.
+ * <p>
+ * With "ruby.app.aot.compile.stale" (default true) a source
+ * file with no fresh class file is compiled the first time
+ * it is required, so the next boot loads it compiled.
+ * A file which fails to compile, or whose class file fails
+ * to load, is loaded from source (counted by fallbacks()).
+ * Otherwise it is loaded from source, and the class files are
+ * made ahead of time, at build time, by main:
+ * <code>
+ * java org.bardibardi.jruby.AotCache cachedir srcdir ...
+ * </code>
+ * Used by RequireHook, which sends ruby's require of the
+ * files under "ruby.app.file.directory" and
+ * "ruby.app.load.path.additions" here.
+ * <p>
+ * Thread safe, class files are written to a temporary
+ * directory and then renamed.
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+@Singleton
+public class AotCache {
+	File directory;
+	boolean isCompileStale;
+	AtomicLong compiled = new AtomicLong();
+	AtomicLong loaded = new AtomicLong();
+	AtomicLong fallbacks = new AtomicLong();
+
+	/**
+	 * constructor used by Guice Injector
+	 *
+	 * @param dir, String, cache directory, "" for no cache
+	 * @param compileStale, boolean, compile a source file which
+	 * has no fresh class file when it is required
+	 */
+    @Inject
+    public AotCache(@Named("ruby.app.aot.cache.directory") String dir,
+    	@Named("ruby.app.aot.compile.stale") boolean compileStale) {
+    	if (!"".equals(dir)) {
+    		directory = new File(dir);
+    		directory.mkdirs();
+    	}
+    	isCompileStale = compileStale;
+    }
+    /**
+     * @return A boolean, true when there is a cache directory
+     */
+    public boolean isEnabled() {
+    	return null != directory;
+    }
+    static byte[] read(File f) throws IOException {
+    	byte[] b = new byte[(int)f.length()];
+    	InputStream in = new FileInputStream(f);
+    	try {
+    		int n = 0;
+    		while (n < b.length) {
+    			int r = in.read(b, n, b.length - n);
+    			if (r < 0) {
+    				throw new IOException("short read of " + f);
+    			}
+    			n += r;
+    		}
+    	}
+    	finally {
+    		in.close();
+    	}
+    	return b;
+    }
+    /**
+     * @param source, ByteBuffer, ruby source code, not changed
+     * @return String, java class name for the compiled source
+     */
+    static String className(ByteBuffer source) {
+    	MessageDigest md;
+    	try {
+    		md = MessageDigest.getInstance("SHA-1");
+    	}
+    	catch (NoSuchAlgorithmException e) {
+    		throw new IllegalStateException(e);
+    	}
+    	md.update(Constants.VERSION.getBytes());
+    	md.update(source.duplicate());
+    	byte[] digest = md.digest();
+    	StringBuilder sb = new StringBuilder("RubyAot");
+    	for (byte b : digest) {
+    		sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+    		sb.append(Character.forDigit(b & 0xf, 16));
+    	}
+    	return sb.toString();
+    }
+    /**
+     * @return A ClassLoader for the class files, one per JRuby
+     * engine, so compiled scripts are not shared between engines
+     */
+    ClassLoader classLoader(Ruby ruby) {
+    	try {
+    		return new URLClassLoader(new URL[] {directory.toURI().toURL()},
+    		    ruby.getJRubyClassLoader());
+    	}
+    	catch (IOException e) {
+    		throw new IllegalStateException(e);
+    	}
+    }
+    /**
+     * compile source into the cache directory, unless it
+     * is already there
+     *
+     * @param ruby, Ruby, a JRuby engine used to parse
+     * @param path, String, source file name, for ruby backtraces
+     * @param source, ByteBuffer, ruby source code, not changed
+     * @return String, the class name
+     */
+    String compile(Ruby ruby, String path, ByteBuffer source) throws IOException {
+    	String name = className(source);
+    	if (new File(directory, name + ".class").exists()) {
+    		return name;
+    	}
+    	Node node = ruby.parseFile(new ByteBufferInputStream(source.duplicate()), path, null);
+    	ASTInspector inspector = new ASTInspector();
+    	inspector.inspect(node);
+    	StandardASMCompiler asm = new StandardASMCompiler(name, path);
+    	new ASTCompiler().compileRoot(node, asm, inspector);
+    	File tmp = new File(directory, name + "." + Thread.currentThread().getId() + ".tmp");
+    	tmp.mkdirs();
+    	try {
+    		asm.writeClass(tmp);
+    		// another engine may have won the race, its file is as good
+    		File target = new File(directory, name + ".class");
+    		if (!target.exists() && new File(tmp, name + ".class").renameTo(target)) {
+    			compiled.incrementAndGet();
+    		}
+    	}
+    	finally {
+    		File[] files = tmp.listFiles();
+    		for (int i = 0; null != files && i < files.length; ++i) {
+    			files[i].delete();
+    		}
+    		tmp.delete();
+    	}
+    	return name;
+    }
+    /**
+     * load a ruby source file compiled, if it can be
+     *
+     * @param ruby, Ruby, the JRuby engine to load into
+     * @param loader, ClassLoader, from classLoader(ruby)
+     * @param path, String, ruby source file name
+     * @param source, ByteBuffer, ruby source code (see SourceCache)
+     * @return boolean, true if loaded, false if the caller
+     * has to load path from source
+     */
+    boolean load(Ruby ruby, ClassLoader loader, String path, ByteBuffer source) throws IOException {
+    	String name = className(source);
+    	if (!new File(directory, name + ".class").exists()) {
+    		if (!isCompileStale) {
+    			fallbacks.incrementAndGet();
+    			return false;
+    		}
+    		try {
+    			compile(ruby, path, source);
+    		}
+    		catch (Exception e) {
+    			// not parsable or not compilable, loading the source
+    			// raises ruby's error, if there is one
+    			fallbacks.incrementAndGet();
+    			return false;
+    		}
+    	}
+    	Script script;
+    	try {
+    		script = (Script)loader.loadClass(name).newInstance();
+    	}
+    	catch (Exception e) {
+    		// a broken class file, load the source
+    		fallbacks.incrementAndGet();
+    		return false;
+    	}
+    	// as ruby's load, top level def's are private methods of Object
+    	ruby.loadScript(script);
+    	loaded.incrementAndGet();
+    	return true;
+    }
+    /**
+     * compile every .rb file under dirs, recursively
+     *
+     * @param ruby, Ruby, a JRuby engine used to parse
+     * @param dirs, List (of File's)
+     * @return int, number of files newly compiled
+     */
+    public int compileAll(Ruby ruby, List dirs) throws IOException {
+    	long before = compiled.get();
+    	for (Object o : dirs) {
+    		compileAll(ruby, (File)o);
+    	}
+    	return (int)(compiled.get() - before);
+    }
+    void compileAll(Ruby ruby, File f) throws IOException {
+    	if (f.isDirectory()) {
+    		File[] files = f.listFiles();
+    		for (int i = 0; null != files && i < files.length; ++i) {
+    			compileAll(ruby, files[i]);
+    		}
+    	}
+    	else if (f.getName().endsWith(".rb")) {
+    		compile(ruby, f.getPath(), ByteBuffer.wrap(read(f)));
+    	}
+    }
+    /**
+     * @return A long, source files compiled by this cache
+     */
+    public long compiled() {
+    	return compiled.get();
+    }
+    /**
+     * @return A long, source files loaded from class files
+     */
+    public long loaded() {
+    	return loaded.get();
+    }
+    /**
+     * @return A long, source files loaded from source because
+     * there was no usable class file
+     */
+    public long fallbacks() {
+    	return fallbacks.get();
+    }
+    public String toString() {
+    	return "AotCache " + directory + " compiled: " + compiled() +
+    	    " loaded: " + loaded() + " fallbacks: " + fallbacks();
+    }
+    /**
+     * ahead of time compile
+     *
+     * @param args, String[], cache directory followed by
+     * source directories
+     */
+    public static void main(String[] args) throws IOException {
+    	if (args.length < 2) {
+    		System.err.println("usage: AotCache cachedir srcdir ...");
+    		System.exit(1);
+    	}
+    	AotCache aot = new AotCache(args[0], true);
+    	List dirs = new ArrayList();
+    	for (int i = 1; i < args.length; ++i) {
+    		dirs.add(new File(args[i]));
+    	}
+    	Ruby ruby = JavaEmbedUtils.initialize(new ArrayList());
+    	try {
+    		System.out.println("compiled " + aot.compileAll(ruby, dirs) + " files into " + args[0]);
+    	}
+    	finally {
+    		JavaEmbedUtils.terminate(ruby);
+    	}
+    }
+} // AotCache
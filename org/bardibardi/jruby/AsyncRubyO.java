@@ -0,0 +1,234 @@
+package org.bardibardi.jruby;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jruby.runtime.builtin.IRubyObject;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+/**
+ * Main implementation of IAsyncRubyO. The calls on one
+ * IRubyO (one JRuby engine, or one ThreadAffineRubyApp) are
+ * run by a fixed number of threads taking them from a
+ * bounded queue.
+ * <p>
+ * "ruby.async.threads" is the number of threads.
+ * <p>
+ * "ruby.async.queue.capacity" is the maximum number of
+ * queued calls.
+ * <p>
+ * "ruby.async.backpressure" is what happens to a call when
+ * the queue is full:
+ * REJECT ("reject"), a RejectedExecutionException is thrown;
+ * BLOCK ("block"), the caller waits for room in the queue;
+ * CALLER_RUNS ("caller-runs"), the caller runs the call itself.
+ * <p>
+ * The threads are daemon threads from a ThreadFactory.
+ * Since the threads mostly wait on ruby, a ThreadFactory of
+ * light weight (virtual) threads can be given to the
+ * constructor where the java runtime has them.
+ * <p>
+ * The queueing and completion latency of every call is
+ * kept in its RubyFuture and summed here.
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+public class AsyncRubyO implements IAsyncRubyO {
+	public static final String REJECT = "reject";
+	public static final String BLOCK = "block";
+	public static final String CALLER_RUNS = "caller-runs";
+	IRubyO rubyO;
+	ThreadPoolExecutor executor;
+	AtomicLong completed = new AtomicLong();
+	AtomicLong rejected = new AtomicLong();
+	AtomicLong queueNanos = new AtomicLong();
+	AtomicLong completionNanos = new AtomicLong();
+	AtomicLong maxCompletionNanos = new AtomicLong();
+
+	/**
+	 * Wait for room in the queue
+	 */
+	static class BlockPolicy implements RejectedExecutionHandler {
+		public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+			if (e.isShutdown()) {
+				throw new RejectedExecutionException("AsyncRubyO is shut down");
+			}
+			try {
+				e.getQueue().put(r);
+			}
+			catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new RejectedExecutionException(ie);
+			}
+		}
+	}
+
+	/**
+	 * Daemon threads named "AsyncRubyO-n"
+	 */
+	static class DaemonThreadFactory implements ThreadFactory {
+		AtomicInteger count = new AtomicInteger();
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "AsyncRubyO-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+
+	/**
+	 * constructor used by Guice Injector
+	 *
+	 * @param iro, IRubyO, the IRubyO the calls are made on
+	 * @param threads, int, number of threads
+	 * @param capacity, int, maximum number of queued calls
+	 * @param backpressure, String, REJECT, BLOCK or CALLER_RUNS
+	 */
+    @Inject
+    public AsyncRubyO(IRubyO iro,
+    		@Named("ruby.async.threads") int threads,
+    		@Named("ruby.async.queue.capacity") int capacity,
+    		@Named("ruby.async.backpressure") String backpressure) {
+    	this(iro, threads, capacity, backpressure, new DaemonThreadFactory());
+    }
+	/**
+	 * @param iro, IRubyO, the IRubyO the calls are made on
+	 * @param threads, int, number of threads
+	 * @param capacity, int, maximum number of queued calls
+	 * @param backpressure, String, REJECT, BLOCK or CALLER_RUNS
+	 * @param tf, ThreadFactory, makes the threads
+	 */
+    public AsyncRubyO(IRubyO iro, int threads, int capacity, String backpressure,
+    		ThreadFactory tf) {
+    	rubyO = iro;
+    	RejectedExecutionHandler handler;
+    	if (REJECT.equals(backpressure)) {
+    		handler = new ThreadPoolExecutor.AbortPolicy();
+    	}
+    	else if (BLOCK.equals(backpressure)) {
+    		handler = new BlockPolicy();
+    	}
+    	else if (CALLER_RUNS.equals(backpressure)) {
+    		handler = new ThreadPoolExecutor.CallerRunsPolicy();
+    	}
+    	else {
+    		throw new IllegalArgumentException("unknown ruby.async.backpressure: " + backpressure);
+    	}
+    	executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+    	    new ArrayBlockingQueue<Runnable>(capacity), tf, handler);
+    }
+    <V> RubyFuture<V> submit(Callable<V> c) {
+    	RubyFuture<V> f = new RubyFuture<V>(this, c);
+    	try {
+    		executor.execute(f);
+    	}
+    	catch (RejectedExecutionException e) {
+    		rejected.incrementAndGet();
+    		throw e;
+    	}
+    	return f;
+    }
+    /**
+     * add the latencies of a finished call to the totals
+     */
+    void record(RubyFuture f) {
+    	long completion = f.completionNanos();
+    	completed.incrementAndGet();
+    	queueNanos.addAndGet(f.queueNanos());
+    	completionNanos.addAndGet(completion);
+    	long max = maxCompletionNanos.get();
+    	while (completion > max && !maxCompletionNanos.compareAndSet(max, completion)) {
+    		max = maxCompletionNanos.get();
+    	}
+    }
+    public IRubyO rubyO() {
+    	return rubyO;
+    }
+    public RubyFuture<Object> sendAsync(final Class clazz, final String method, final Object... params) {
+    	return submit(new Callable<Object>() {
+    		public Object call() {
+    			return rubyO.send(clazz, method, params);
+    		}
+    	});
+    }
+    public RubyFuture<IRubyObject> sendAsync(final String method, final Object... params) {
+    	return submit(new Callable<IRubyObject>() {
+    		public IRubyObject call() {
+    			return rubyO.send(method, params);
+    		}
+    	});
+    }
+    public RubyFuture<Object> scriptAsync(final Class clazz, final String script) {
+    	return submit(new Callable<Object>() {
+    		public Object call() {
+    			return rubyO.script(clazz, script);
+    		}
+    	});
+    }
+    public RubyFuture<IRubyObject> scriptAsync(final String script) {
+    	return submit(new Callable<IRubyObject>() {
+    		public IRubyObject call() {
+    			return rubyO.script(script);
+    		}
+    	});
+    }
+    /**
+     * stop the threads once the queued calls are done
+     */
+    public void shutdown() {
+    	executor.shutdown();
+    }
+    /**
+     * @return An int, the number of queued calls
+     */
+    public int queued() {
+    	return executor.getQueue().size();
+    }
+    /**
+     * @return A long, the number of calls done
+     */
+    public long completed() {
+    	return completed.get();
+    }
+    /**
+     * @return A long, the number of calls rejected
+     */
+    public long rejected() {
+    	return rejected.get();
+    }
+    /**
+     * @return A double, mean milliseconds from submission to start
+     */
+    public double meanQueueMillis() {
+    	long c = completed();
+    	return 0 == c ? 0.0 : queueNanos.get() / 1e6 / c;
+    }
+    /**
+     * @return A double, mean milliseconds from submission to done
+     */
+    public double meanCompletionMillis() {
+    	long c = completed();
+    	return 0 == c ? 0.0 : completionNanos.get() / 1e6 / c;
+    }
+    /**
+     * @return A double, maximum milliseconds from submission to done
+     */
+    public double maxCompletionMillis() {
+    	return maxCompletionNanos.get() / 1e6;
+    }
+    public String toString() {
+    	return "AsyncRubyO queued: " + queued() + " completed: " + completed() +
+    	    " rejected: " + rejected() + " mean queue ms: " + meanQueueMillis() +
+    	    " mean completion ms: " + meanCompletionMillis() +
+    	    " max completion ms: " + maxCompletionMillis();
+    }
+} // AsyncRubyO
@@ -0,0 +1,113 @@
+package org.bardibardi.jruby;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+
+/**
+ * An IRubyO whose RubyApp is booted on a background thread,
+ * so constructing it (and so the Guice Injector getInstance
+ * of IRubyO) returns immediately instead of waiting for
+ * JavaEmbedUtils.initialize and the ruby app script.
+ * <p>
+ * Every method waits until the RubyApp is booted and then
+ * forwards to it. ready() is the boot as a Future, for
+ * callers who would rather check or wait on their own terms.
+ * <p>
+ * If the boot fails, every call (from any thread, however
+ * often) throws an IllegalStateException whose cause is
+ * what the boot threw. There is no retry.
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+public class BackgroundRubyApp extends DelegatingRubyO {
+	FutureTask<RubyApp> boot;
+	volatile RubyApp app;
+	long bootStart;
+	volatile long bootMillis = -1;
+
+	/**
+	 * constructor used by Guice Injector, starts the boot
+	 *
+	 * @param rap, Provider of RubyApp, called once on the boot thread
+	 */
+    @Inject
+    public BackgroundRubyApp(final Provider<RubyApp> rap) {
+    	bootStart = System.currentTimeMillis();
+    	boot = new FutureTask<RubyApp>(new Callable<RubyApp>() {
+    		public RubyApp call() {
+    			try {
+    				return rap.get();
+    			}
+    			finally {
+    				bootMillis = System.currentTimeMillis() - bootStart;
+    			}
+    		}
+    	});
+    	Thread t = new Thread(boot, "BackgroundRubyApp boot");
+    	t.setDaemon(true);
+    	t.start();
+    }
+    /**
+     * @return A Future of the booted RubyApp, get() throws
+     * ExecutionException if the boot failed.
+     * NB: do not cancel it, that abandons the boot.
+     */
+    public Future<RubyApp> ready() {
+    	return boot;
+    }
+    /**
+     * @return A boolean, true when the boot is done, successful or not
+     */
+    public boolean isReady() {
+    	return boot.isDone();
+    }
+    /**
+     * @return A long, milliseconds the boot took, -1 until it is done
+     */
+    public long bootMillis() {
+    	return bootMillis;
+    }
+    /**
+     * @return An IRubyO, the booted RubyApp, after waiting for the boot
+     * @throws IllegalStateException if the boot failed or the
+     * wait was interrupted
+     */
+    protected IRubyO delegate() {
+    	RubyApp ra = app;
+    	if (null != ra) {
+    		return ra;
+    	}
+    	try {
+    		ra = boot.get();
+    	}
+    	catch (ExecutionException e) {
+    		throw new IllegalStateException("RubyApp boot failed", e.getCause());
+    	}
+    	catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    		throw new IllegalStateException("interrupted waiting for RubyApp boot", e);
+    	}
+    	app = ra;
+    	return ra;
+    }
+    /**
+     * Shut down the RubyApp's JRuby engine, after waiting
+     * for the boot. Nothing is done if the boot failed.
+     */
+    public void terminate() {
+    	try {
+    		boot.get().terminate();
+    	}
+    	catch (ExecutionException e) {
+    	}
+    	catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    	}
+    }
+} // BackgroundRubyApp
@@ -0,0 +1,63 @@
+package org.bardibardi.jruby;
+
+/**
+ * The results of IRubyO.sendBatch, one per parameter tuple,
+ * in the order of the tuples. A tuple whose call raised a
+ * ruby exception has no result, but an error, a JRuby
+ * RaiseException wrapping the ruby exception.
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+public class BatchResult {
+	Object[] results;
+	Throwable[] errors;
+	int failures = 0;
+
+	/**
+	 * @param size, int, number of tuples
+	 */
+    BatchResult(int size) {
+    	results = new Object[size];
+    	errors = new Throwable[size];
+    }
+    void fail(int i, Throwable t) {
+    	errors[i] = t;
+    	++failures;
+    }
+    /**
+     * @return An int, the number of tuples
+     */
+    public int size() {
+    	return results.length;
+    }
+    /**
+     * @return An int, the number of tuples whose call failed
+     */
+    public int failures() {
+    	return failures;
+    }
+    /**
+     * @param i An int, tuple index
+     * @return A boolean, true if the call for tuple i failed
+     */
+    public boolean isFailure(int i) {
+    	return null != errors[i];
+    }
+    /**
+     * @param i An int, tuple index
+     * @return An Object, the converted result for tuple i
+     * (null if the call failed)
+     */
+    public Object result(int i) {
+    	return results[i];
+    }
+    /**
+     * @param i An int, tuple index
+     * @return A Throwable, the error for tuple i
+     * (null if the call succeeded)
+     */
+    public Throwable error(int i) {
+    	return errors[i];
+    }
+} // BatchResult
@@ -0,0 +1,41 @@
+package org.bardibardi.jruby;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * InputStream reading a ByteBuffer, used to hand mapped ruby
+ * source (see SourceCache) to the JRuby parser without first
+ * copying it into a byte[].
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+class ByteBufferInputStream extends InputStream {
+	ByteBuffer bb;
+
+	/**
+	 * @param b, ByteBuffer, read from its position to its limit,
+	 * the stream changes the position
+	 */
+    ByteBufferInputStream(ByteBuffer b) {
+    	bb = b;
+    }
+    public int read() {
+    	return bb.hasRemaining() ? bb.get() & 0xff : -1;
+    }
+    public int read(byte[] b, int off, int len) {
+    	if (0 == len) {
+    		return 0;
+    	}
+    	if (!bb.hasRemaining()) {
+    		return -1;
+    	}
+    	int n = Math.min(len, bb.remaining());
+    	bb.get(b, off, n);
+    	return n;
+    }
+    public int available() {
+    	return bb.remaining();
+    }
+} // ByteBufferInputStream
@@ -0,0 +1,284 @@
+package org.bardibardi.jruby;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jruby.Ruby;
+import org.jruby.RubyClass;
+import org.jruby.RubyModule;
+import org.jruby.internal.runtime.methods.DynamicMethod;
+import org.jruby.runtime.Block;
+import org.jruby.runtime.CacheMap;
+import org.jruby.runtime.ThreadContext;
+import org.jruby.runtime.builtin.IRubyObject;
+
+/**
+ * Inline caches for RubyO.invokeMethod and the sendN
+ * methods, one per (receiver metaclass, method name) pair,
+ * holding the resolved DynamicMethod so that the method is
+ * not looked up by name for every send.
+ * <p>
+ * There is one CallSite per method name. A CallSite holds
+ * the resolved methods for at most MAX_METACLASSES
+ * metaclasses, compared by identity, so a cache hit does
+ * not allocate anything.
+ * <p>
+ * Each cached method is registered with the JRuby engine's
+ * CacheMap, the same mechanism JRuby uses for its own call
+ * sites. When a method is redefined or removed (a class is
+ * reopened, a module is included, ...) JRuby calls
+ * removeCachedMethod and the entry is dropped, so the
+ * next call resolves the method again.
+ * <p>
+ * JRuby does not do that when a class between the receiver's
+ * metaclass and the class defining the method (a subclass, a
+ * singleton class) gets a method of the same name, which
+ * shadows the cached one. So an entry keeps those classes and
+ * a hit checks that none of them has the name, one method
+ * table lookup per class, (none for a method of the receiver's
+ * own metaclass).
+ * <p>
+ * Methods which can not be resolved (undefined, handled by
+ * method_missing) are not cached. Those calls go through
+ * IRubyObject.callMethod just like JavaEmbedUtils.invokeMethod.
+ * <p>
+ * Thread safe.
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+public class CallSiteCache {
+	static int MAX_METACLASSES = 8;
+	static Site[] NO_SITES = new Site[0];
+	static RubyModule[] NO_MODULES = new RubyModule[0];
+	Ruby ruby;
+	ConcurrentHashMap<String, CallSite> callSites = new ConcurrentHashMap<String, CallSite>();
+	AtomicLong hits = new AtomicLong();
+	AtomicLong misses = new AtomicLong();
+	AtomicLong invalidations = new AtomicLong();
+
+	/**
+	 * The resolved methods for one method name.
+	 * sites is copied on write, so it is read without locking.
+	 */
+	class CallSite {
+		volatile Site[] sites = NO_SITES;
+
+		DynamicMethod method(RubyClass metaClass, String name) {
+			Site[] ss = sites;
+			for (int i = 0; i < ss.length; ++i) {
+				if (ss[i].metaClass == metaClass) {
+					if (ss[i].isShadowed(name)) {
+						ss[i].removeCachedMethod();
+						return null;
+					}
+					return ss[i].method;
+				}
+			}
+			return null;
+		}
+		synchronized void add(Site site) {
+			Site[] ss = sites;
+			int keep = Math.min(ss.length, MAX_METACLASSES - 1);
+			// the oldest sites are dropped, they are at the front
+			Site[] result = new Site[keep + 1];
+			System.arraycopy(ss, ss.length - keep, result, 0, keep);
+			result[keep] = site;
+			sites = result;
+		}
+		synchronized boolean remove(Site site) {
+			Site[] ss = sites;
+			for (int i = 0; i < ss.length; ++i) {
+				if (ss[i] == site) {
+					Site[] result = new Site[ss.length - 1];
+					System.arraycopy(ss, 0, result, 0, i);
+					System.arraycopy(ss, i + 1, result, i, ss.length - i - 1);
+					sites = result;
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * A resolved method, removed from its CallSite when JRuby
+	 * invalidates it
+	 */
+	class Site implements CacheMap.CacheSite {
+		CallSite callSite;
+		RubyClass metaClass;
+		DynamicMethod method;
+		// searched before the class defining method
+		RubyModule[] shadows;
+		Site(CallSite cs, RubyClass mc, DynamicMethod m, RubyModule[] s) {
+			callSite = cs;
+			metaClass = mc;
+			method = m;
+			shadows = s;
+		}
+		/**
+		 * @return boolean, true if a class searched before the
+		 * class defining method now has a method name
+		 */
+		boolean isShadowed(String name) {
+			for (int i = 0; i < shadows.length; ++i) {
+				if (null != shadows[i].getMethods().get(name)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		public void removeCachedMethod() {
+			if (callSite.remove(this)) {
+				invalidations.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * @param r, Ruby, the JRuby engine whose methods are cached
+	 */
+    public CallSiteCache(Ruby r) {
+    	ruby = r;
+    }
+    /**
+     * get the method metaClass resolves name to
+     *
+     * @param metaClass A RubyClass, receiver's metaclass
+     * @param name A String, ruby method name
+     * @return A DynamicMethod or null if name can not be
+     * resolved (method_missing)
+     */
+    public DynamicMethod method(RubyClass metaClass, String name) {
+    	CallSite cs = callSites.get(name);
+    	if (null == cs) {
+    		cs = new CallSite();
+    		CallSite existing = callSites.putIfAbsent(name, cs);
+    		if (null != existing) {
+    			cs = existing;
+    		}
+    	}
+    	DynamicMethod method = cs.method(metaClass, name);
+    	if (null != method) {
+    		hits.incrementAndGet();
+    		return method;
+    	}
+    	misses.incrementAndGet();
+    	// as metaClass.searchMethod, keeping the classes searched
+    	ArrayList<RubyModule> shadows = new ArrayList<RubyModule>();
+    	for (RubyModule m = metaClass; null != m; m = m.getSuperClass()) {
+    		method = m.getMethods().get(name);
+    		if (null != method) {
+    			break;
+    		}
+    		shadows.add(m);
+    	}
+    	if (null == method || method.isUndefined()) {
+    		return null;
+    	}
+    	Site site = new Site(cs, metaClass, method,
+    	    shadows.isEmpty() ? NO_MODULES : shadows.toArray(new RubyModule[shadows.size()]));
+    	// register before publishing, so a redefinition is never missed
+    	ruby.getCacheMap().add(method, site);
+    	cs.add(site);
+    	return method;
+    }
+    /**
+     * call ruby method name on receiver using the cached method
+     *
+     * @param context A ThreadContext, the current thread's context
+     * @param receiver An IRubyObject, self for the call
+     * @param name A String, ruby method name
+     * @param args An IRubyObject[], converted parameters
+     * @return An IRubyObject, the result of the call
+     */
+    public IRubyObject call(ThreadContext context, IRubyObject receiver, String name, IRubyObject[] args) {
+    	RubyClass metaClass = receiver.getMetaClass();
+    	DynamicMethod method = method(metaClass, name);
+    	if (null == method) {
+    		return receiver.callMethod(context, name, args);
+    	}
+    	return method.call(context, receiver, metaClass, name, args, Block.NULL_BLOCK);
+    }
+    /**
+     * call, no parameters, no IRubyObject[] is allocated
+     */
+    public IRubyObject call0(ThreadContext context, IRubyObject receiver, String name) {
+    	RubyClass metaClass = receiver.getMetaClass();
+    	DynamicMethod method = method(metaClass, name);
+    	if (null == method) {
+    		return receiver.callMethod(context, name, IRubyObject.NULL_ARRAY);
+    	}
+    	return method.call(context, receiver, metaClass, name);
+    }
+    /**
+     * call, one parameter, no IRubyObject[] is allocated
+     * (unless the call goes to method_missing)
+     */
+    public IRubyObject call1(ThreadContext context, IRubyObject receiver, String name,
+    		IRubyObject arg) {
+    	RubyClass metaClass = receiver.getMetaClass();
+    	DynamicMethod method = method(metaClass, name);
+    	if (null == method) {
+    		return receiver.callMethod(context, name, new IRubyObject[] {arg});
+    	}
+    	return method.call(context, receiver, metaClass, name, arg);
+    }
+    /**
+     * call, two parameters, no IRubyObject[] is allocated
+     * (unless the call goes to method_missing)
+     */
+    public IRubyObject call2(ThreadContext context, IRubyObject receiver, String name,
+    		IRubyObject arg1, IRubyObject arg2) {
+    	RubyClass metaClass = receiver.getMetaClass();
+    	DynamicMethod method = method(metaClass, name);
+    	if (null == method) {
+    		return receiver.callMethod(context, name, new IRubyObject[] {arg1, arg2});
+    	}
+    	return method.call(context, receiver, metaClass, name, arg1, arg2);
+    }
+    /**
+     * call, three parameters, no IRubyObject[] is allocated
+     * (unless the call goes to method_missing)
+     */
+    public IRubyObject call3(ThreadContext context, IRubyObject receiver, String name,
+    		IRubyObject arg1, IRubyObject arg2, IRubyObject arg3) {
+    	RubyClass metaClass = receiver.getMetaClass();
+    	DynamicMethod method = method(metaClass, name);
+    	if (null == method) {
+    		return receiver.callMethod(context, name, new IRubyObject[] {arg1, arg2, arg3});
+    	}
+    	return method.call(context, receiver, metaClass, name, arg1, arg2, arg3);
+    }
+    /**
+     * drop all cached methods, counters are not reset
+     */
+    public void clear() {
+    	callSites.clear();
+    }
+    /**
+     * @return An int, the number of cached methods
+     */
+    public int size() {
+    	int size = 0;
+    	for (CallSite cs : callSites.values()) {
+    		size += cs.sites.length;
+    	}
+    	return size;
+    }
+    public long hits() {
+    	return hits.get();
+    }
+    public long misses() {
+    	return misses.get();
+    }
+    public long invalidations() {
+    	return invalidations.get();
+    }
+    public String toString() {
+    	return "CallSiteCache size: " + size() + " hits: " + hits() +
+    	    " misses: " + misses() + " invalidations: " + invalidations();
+    }
+} // CallSiteCache
@@ -31,6 +31,10 @@ import com.google.inject.name.Named;
  * prefixed to the ruby loadpath
  * (follows "ruby.app.file.directory")
  * <p>
+ * A named ruby app (see RubyAppGuiceModule) is configured
+ * the same way by the java properties prefixed with its
+ * name, e.g. "blog.ruby.app.file.directory".
+ * <p>
  * NB: The java classpath is not added to the loadpath
  * ($:) by JRuby. (The BSF stuff does add it.)
  * <p>
@@ -66,6 +70,32 @@ public class ConfigureRubyApp implements IConfigureRubyApp {
     public ConfigureRubyApp(ConfigureJRuby cjr) {
     	cjr.configure();
     }
+    /**
+     * constructor for a named ruby app, reads the java properties
+     * prefixed with name + "."
+     *
+     * @param cjr, ConfigureJRuby, used to configure JRuby java property settings
+     * @param name, String, name of the ruby app
+     */
+    public ConfigureRubyApp(ConfigureJRuby cjr, String name) {
+    	this(cjr);
+    	rubyAppFileDirectory = property(name + ".ruby.app.file.directory");
+    	rubyAppFileNameWithoutRbExtension = property(name + ".ruby.app.file.name.without.rb.extension");
+    	rubyAppClassName = property(name + ".ruby.app.class.name");
+    	rubyAppLoadPathAdditions = property(name + ".ruby.app.load.path.additions");
+    }
+    /**
+     * @param name, String, java property name
+     * @return String, its value, "" (the literal, as injected
+     * by Guice, see SystemProperty) when not set
+     */
+    static String property(String name) {
+    	String property = System.getProperty(name);
+    	if (null == property || 0 == property.length()) {
+    		return "";
+    	}
+    	return property;
+    }
     /**
      * add paths to an ArrayList for use with
      * manipulation of the ruby load path ($:).
@@ -0,0 +1,62 @@
+package org.bardibardi.jruby;
+
+import java.util.HashMap;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+/**
+ * Configures the SlowCallLog from java properties,
+ * injected by Guice:
+ * <p>
+ * "ruby.slow.call.millis", threshold of every send and
+ * script (default 0, none is logged)
+ * <p>
+ * "ruby.slow.call.method.millis", thresholds of single
+ * methods, overriding the one above, e.g. "render=50,save=200"
+ * (0 turns a method off)
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+public class ConfigureSlowCalls implements IConfigureSlowCalls {
+	long millis;
+	HashMap<String, Long> methodMillis = new HashMap<String, Long>();
+
+	/**
+	 * constructor used by Guice Injector
+	 *
+	 * @param millis, long, threshold of every call
+	 * @param methods, String, method=millis, separated by commas
+	 */
+	@Inject
+    public ConfigureSlowCalls(@Named("ruby.slow.call.millis") long millis,
+    	@Named("ruby.slow.call.method.millis") String methods) {
+    	this.millis = millis;
+    	for (Object o : ConfigureWarmup.split(methods, ",")) {
+    		String[] kv = ((String)o).split("=");
+    		if (2 != kv.length) {
+    			throw new IllegalArgumentException("ruby.slow.call.method.millis: " + o);
+    		}
+    		methodMillis.put(kv[0].trim(), Long.valueOf(kv[1].trim()));
+    	}
+    }
+    public long thresholdMillis(String method) {
+    	Long l = methodMillis.get(method);
+    	return null == l ? millis : l.longValue();
+    }
+    public long scriptThresholdMillis() {
+    	return millis;
+    }
+    public boolean isEnabled() {
+    	if (millis > 0) {
+    		return true;
+    	}
+    	for (Long l : methodMillis.values()) {
+    		if (l.longValue() > 0) {
+    			return true;
+    		}
+    	}
+    	return false;
+    }
+}
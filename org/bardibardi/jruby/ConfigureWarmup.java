@@ -0,0 +1,70 @@
+package org.bardibardi.jruby;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+/**
+ * Configures the RubyApp warmup from java properties,
+ * injected by Guice:
+ * <p>
+ * "ruby.app.warmup.scripts", ruby scripts, one per line
+ * <p>
+ * "ruby.app.warmup.sends", ruby method names sent to the ruby
+ * app, separated by commas
+ * <p>
+ * "ruby.app.warmup.iterations", times to run them (default 0,
+ * no limit)
+ * <p>
+ * "ruby.app.warmup.millis", time budget (default 0, no limit)
+ * <p>
+ * The warmup stops at whichever limit is hit first, there is
+ * no warmup when neither is set.
+ * <p>
+ * JRuby compiles a method after it has been called
+ * jruby.jit.threshold times (50 by default), so iterations
+ * should be somewhat more than that.
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+public class ConfigureWarmup implements IConfigureWarmup {
+	@Inject @Named("ruby.app.warmup.scripts") String warmupScripts;
+	@Inject @Named("ruby.app.warmup.sends") String warmupSends;
+	@Inject @Named("ruby.app.warmup.iterations") int warmupIterations;
+	@Inject @Named("ruby.app.warmup.millis") long warmupMillis;
+
+    /**
+     * split s, skipping empty parts
+     *
+     * @param s, String to split
+     * @param regex, String, separator
+     * @return ArrayList (of Strings)
+     */
+    static ArrayList split(String s, String regex) {
+    	ArrayList al = new ArrayList();
+    	if (null == s) {
+    		return al;
+    	}
+    	for (String part : s.split(regex)) {
+    		if (part.trim().length() > 0) {
+    			al.add(part.trim());
+    		}
+    	}
+    	return al;
+    }
+    public List scripts() {
+    	return split(warmupScripts, "\n");
+    }
+    public List sends() {
+    	return split(warmupSends, ",");
+    }
+    public int iterations() {
+    	return warmupIterations;
+    }
+    public long budgetMillis() {
+    	return warmupMillis;
+    }
+}
@@ -0,0 +1,248 @@
+package org.bardibardi.jruby;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jruby.Ruby;
+import org.jruby.RubyBigDecimal;
+import org.jruby.RubyFixnum;
+import org.jruby.RubyFloat;
+import org.jruby.RubyString;
+import org.jruby.runtime.builtin.IRubyObject;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * Converters used by RubyO for javaObject, rubyObject and
+ * the parameters and results of send and script, instead
+ * of JRuby's generic JavaEmbedUtils.rubyToJava and
+ * JavaEmbedUtils.javaToRuby.
+ * <p>
+ * ruby to java converters are keyed by (ruby class name,
+ * java type), java to ruby converters by java class.
+ * When no converter is registered for a conversion, the
+ * JavaEmbedUtils conversion is done, so the results are
+ * those of JRuby's standard conversions either way.
+ * <p>
+ * Converters for the core types are registered by the
+ * constructor:
+ * <p>
+ * Fixnum to Integer, int, Long, long, Double, double and
+ * Object (a Long)
+ * <p>
+ * Float to Double, double, Float, float and Object (a Double)
+ * <p>
+ * String to String and Object (a String)
+ * <p>
+ * TrueClass and FalseClass to Boolean, boolean and Object
+ * <p>
+ * BigDecimal to BigDecimal (NaN and Infinity throw
+ * ArithmeticException)
+ * <p>
+ * Integer, Long, Short, Byte to Fixnum, Double and Float to
+ * Float, String to String, Boolean to true or false
+ * <p>
+ * A java BigDecimal is left to JRuby, so in ruby it is a
+ * Java::JavaMath::BigDecimal. To make it a ruby BigDecimal
+ * (require 'bigdecimal' is done when needed), register
+ * BIG_DECIMAL_TO_RUBY from an IRegisterConverters:
+ * <code>
+ * cr.register(BigDecimal.class, ConverterRegistry.BIG_DECIMAL_TO_RUBY);
+ * </code>
+ * <p>
+ * More converters can be registered by binding an
+ * IRegisterConverters with Guice, or by calling register.
+ * Each JRuby engine (see RubyEngine) caches the converter
+ * for every (ruby class, java type) it meets, so after the
+ * first time a conversion costs one lookup.
+ * <p>
+ * Thread safe.
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+@Singleton
+public class ConverterRegistry {
+	ConcurrentHashMap<String, IRubyToJava> toJava = new ConcurrentHashMap<String, IRubyToJava>();
+	ConcurrentHashMap<Class, IJavaToRuby> toRuby = new ConcurrentHashMap<Class, IJavaToRuby>();
+	// incremented by register, so caches of converters know they are stale
+	volatile int version = 0;
+
+	/**
+	 * registers the core type converters
+	 */
+    public ConverterRegistry() {
+    	registerCoreConverters();
+    }
+    /**
+     * Guice calls this when an IRegisterConverters is bound
+     *
+     * @param irc An IRegisterConverters
+     */
+    @Inject(optional=true)
+    public void setRegisterConverters(IRegisterConverters irc) {
+    	irc.register(this);
+    }
+    static String key(String rubyClassName, Class javaType) {
+    	return rubyClassName + " " + javaType.getName();
+    }
+    /**
+     * register a ruby to java converter, replacing any
+     * converter registered for the same ruby class and java type
+     *
+     * @param rubyClassName A String, name of the ruby class
+     * (instances of subclasses are not converted)
+     * @param javaType A Class, the java type converted to
+     * @param c An IRubyToJava
+     */
+    public void register(String rubyClassName, Class javaType, IRubyToJava c) {
+    	toJava.put(key(rubyClassName, javaType), c);
+    	++version;
+    }
+    /**
+     * register a java to ruby converter, replacing any
+     * converter registered for the same java class
+     *
+     * @param javaClass A Class, instances of this class
+     * (not subclasses) are converted
+     * @param c An IJavaToRuby
+     */
+    public void register(Class javaClass, IJavaToRuby c) {
+    	toRuby.put(javaClass, c);
+    	++version;
+    }
+    /**
+     * @return An IRubyToJava or null if none is registered
+     */
+    public IRubyToJava rubyToJava(String rubyClassName, Class javaType) {
+    	return toJava.get(key(rubyClassName, javaType));
+    }
+    /**
+     * @return An IJavaToRuby or null if none is registered
+     */
+    public IJavaToRuby javaToRuby(Class javaClass) {
+    	return toRuby.get(javaClass);
+    }
+    /**
+     * @return An int, changes whenever a converter is registered
+     */
+    public int version() {
+    	return version;
+    }
+
+    static IRubyToJava FIXNUM_TO_INTEGER = new IRubyToJava() {
+    	public Object convert(Ruby ruby, IRubyObject irobj) {
+    		return Integer.valueOf((int)((RubyFixnum)irobj).getLongValue());
+    	}
+    };
+    static IRubyToJava FIXNUM_TO_LONG = new IRubyToJava() {
+    	public Object convert(Ruby ruby, IRubyObject irobj) {
+    		return Long.valueOf(((RubyFixnum)irobj).getLongValue());
+    	}
+    };
+    static IRubyToJava FIXNUM_TO_DOUBLE = new IRubyToJava() {
+    	public Object convert(Ruby ruby, IRubyObject irobj) {
+    		return Double.valueOf(((RubyFixnum)irobj).getLongValue());
+    	}
+    };
+    static IRubyToJava FLOAT_TO_DOUBLE = new IRubyToJava() {
+    	public Object convert(Ruby ruby, IRubyObject irobj) {
+    		return Double.valueOf(((RubyFloat)irobj).getDoubleValue());
+    	}
+    };
+    static IRubyToJava FLOAT_TO_FLOAT = new IRubyToJava() {
+    	public Object convert(Ruby ruby, IRubyObject irobj) {
+    		return Float.valueOf((float)((RubyFloat)irobj).getDoubleValue());
+    	}
+    };
+    static IRubyToJava STRING_TO_STRING = new IRubyToJava() {
+    	public Object convert(Ruby ruby, IRubyObject irobj) {
+    		return ((RubyString)irobj).getUnicodeValue();
+    	}
+    };
+    static IRubyToJava TRUE_TO_BOOLEAN = new IRubyToJava() {
+    	public Object convert(Ruby ruby, IRubyObject irobj) {
+    		return Boolean.TRUE;
+    	}
+    };
+    static IRubyToJava FALSE_TO_BOOLEAN = new IRubyToJava() {
+    	public Object convert(Ruby ruby, IRubyObject irobj) {
+    		return Boolean.FALSE;
+    	}
+    };
+    static IRubyToJava BIG_DECIMAL_TO_BIG_DECIMAL = new IRubyToJava() {
+    	public Object convert(Ruby ruby, IRubyObject irobj) {
+    		BigDecimal value = ((RubyBigDecimal)irobj).getValue();
+    		// NaN and Infinity have the value 0
+    		if (0 == value.signum() &&
+    		    !irobj.callMethod(ruby.getCurrentContext(), "finite?").isTrue()) {
+    			throw new ArithmeticException("ruby BigDecimal " +
+    			    irobj.callMethod(ruby.getCurrentContext(), "to_s") + " is not finite");
+    		}
+    		return value;
+    	}
+    };
+    static IJavaToRuby INTEGRAL_TO_FIXNUM = new IJavaToRuby() {
+    	public IRubyObject convert(Ruby ruby, Object obj) {
+    		return RubyFixnum.newFixnum(ruby, ((Number)obj).longValue());
+    	}
+    };
+    static IJavaToRuby FLOATING_TO_FLOAT = new IJavaToRuby() {
+    	public IRubyObject convert(Ruby ruby, Object obj) {
+    		return RubyFloat.newFloat(ruby, ((Number)obj).doubleValue());
+    	}
+    };
+    static IJavaToRuby STRING_TO_RUBY_STRING = new IJavaToRuby() {
+    	public IRubyObject convert(Ruby ruby, Object obj) {
+    		return RubyString.newUnicodeString(ruby, (String)obj);
+    	}
+    };
+    /**
+     * java BigDecimal to ruby BigDecimal, not registered by default
+     */
+    public static final IJavaToRuby BIG_DECIMAL_TO_RUBY = new IJavaToRuby() {
+    	public IRubyObject convert(Ruby ruby, Object obj) {
+    		if (null == ruby.getClass("BigDecimal")) {
+    			ruby.getLoadService().require("bigdecimal");
+    		}
+    		return new RubyBigDecimal(ruby, (BigDecimal)obj);
+    	}
+    };
+    static IJavaToRuby BOOLEAN_TO_RUBY = new IJavaToRuby() {
+    	public IRubyObject convert(Ruby ruby, Object obj) {
+    		return ruby.newBoolean(((Boolean)obj).booleanValue());
+    	}
+    };
+    void registerCoreConverters() {
+    	register("Fixnum", Integer.class, FIXNUM_TO_INTEGER);
+    	register("Fixnum", int.class, FIXNUM_TO_INTEGER);
+    	register("Fixnum", Long.class, FIXNUM_TO_LONG);
+    	register("Fixnum", long.class, FIXNUM_TO_LONG);
+    	register("Fixnum", Object.class, FIXNUM_TO_LONG);
+    	register("Fixnum", Double.class, FIXNUM_TO_DOUBLE);
+    	register("Fixnum", double.class, FIXNUM_TO_DOUBLE);
+    	register("Float", Double.class, FLOAT_TO_DOUBLE);
+    	register("Float", double.class, FLOAT_TO_DOUBLE);
+    	register("Float", Object.class, FLOAT_TO_DOUBLE);
+    	register("Float", Float.class, FLOAT_TO_FLOAT);
+    	register("Float", float.class, FLOAT_TO_FLOAT);
+    	register("String", String.class, STRING_TO_STRING);
+    	register("String", Object.class, STRING_TO_STRING);
+    	register("TrueClass", Boolean.class, TRUE_TO_BOOLEAN);
+    	register("TrueClass", boolean.class, TRUE_TO_BOOLEAN);
+    	register("TrueClass", Object.class, TRUE_TO_BOOLEAN);
+    	register("FalseClass", Boolean.class, FALSE_TO_BOOLEAN);
+    	register("FalseClass", boolean.class, FALSE_TO_BOOLEAN);
+    	register("FalseClass", Object.class, FALSE_TO_BOOLEAN);
+    	register("BigDecimal", BigDecimal.class, BIG_DECIMAL_TO_BIG_DECIMAL);
+    	register(Integer.class, INTEGRAL_TO_FIXNUM);
+    	register(Long.class, INTEGRAL_TO_FIXNUM);
+    	register(Short.class, INTEGRAL_TO_FIXNUM);
+    	register(Byte.class, INTEGRAL_TO_FIXNUM);
+    	register(Double.class, FLOATING_TO_FLOAT);
+    	register(Float.class, FLOATING_TO_FLOAT);
+    	register(String.class, STRING_TO_RUBY_STRING);
+    	register(Boolean.class, BOOLEAN_TO_RUBY);
+    }
+} // ConverterRegistry
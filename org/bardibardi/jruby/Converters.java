@@ -0,0 +1,146 @@
+package org.bardibardi.jruby;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jruby.Ruby;
+import org.jruby.RubyClass;
+import org.jruby.javasupport.JavaEmbedUtils;
+import org.jruby.runtime.builtin.IRubyObject;
+
+/**
+ * The converters of one JRuby engine (see RubyEngine),
+ * looked up in a ConverterRegistry once per
+ * (ruby class, java type) and java class and then cached.
+ * Conversions with no registered converter are cached
+ * as the JavaEmbedUtils conversion.
+ * <p>
+ * The caches are cleared when a converter is registered.
+ * <p>
+ * Thread safe.
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+public class Converters {
+	// most java types meet very few ruby classes
+	static final int MAX_RUBY_CLASSES = 8;
+
+	static IRubyToJava rubyToJava(final Class clazz) {
+		return new IRubyToJava() {
+			public Object convert(Ruby ruby, IRubyObject irobj) {
+				return JavaEmbedUtils.rubyToJava(ruby, irobj, clazz);
+			}
+		};
+	}
+	static IJavaToRuby JAVA_TO_RUBY = new IJavaToRuby() {
+		public IRubyObject convert(Ruby ruby, Object obj) {
+			return JavaEmbedUtils.javaToRuby(ruby, obj);
+		}
+	};
+
+	static class Site {
+		RubyClass rubyClass;
+		IRubyToJava converter;
+		Site(RubyClass rc, IRubyToJava c) {
+			rubyClass = rc;
+			converter = c;
+		}
+	} // Site
+
+	Ruby ruby;
+	ConverterRegistry registry;
+	volatile int version;
+	ConcurrentHashMap<Class, Site[]> toJava = new ConcurrentHashMap<Class, Site[]>();
+	ConcurrentHashMap<Class, IJavaToRuby> toRuby = new ConcurrentHashMap<Class, IJavaToRuby>();
+
+	/**
+	 * @param r, Ruby, the JRuby engine
+	 * @param cr, ConverterRegistry, may be null, then every
+	 * conversion is done by JavaEmbedUtils
+	 */
+    Converters(Ruby r, ConverterRegistry cr) {
+    	ruby = r;
+    	registry = cr;
+    	version = null == cr ? 0 : cr.version();
+    }
+    void checkVersion() {
+    	int v = registry.version();
+    	if (v != version) {
+    		toJava.clear();
+    		toRuby.clear();
+    		version = v;
+    	}
+    }
+    /**
+     * Same result as JavaEmbedUtils.rubyToJava when no
+     * converter is registered for irobj's class and clazz.
+     *
+     * @param irobj, IRubyObject to convert
+     * @param clazz, Class to convert to
+     * @return Object, irobj converted to clazz
+     */
+    public Object rubyToJava(IRubyObject irobj, Class clazz) {
+    	if (null == registry || null == irobj || irobj.isNil() ||
+    		IRubyObject.class == clazz) {
+    		return JavaEmbedUtils.rubyToJava(ruby, irobj, clazz);
+    	}
+    	checkVersion();
+    	RubyClass rc = irobj.getMetaClass().getRealClass();
+    	Site[] sites = toJava.get(clazz);
+    	if (null != sites) {
+    		for (int i = 0; i < sites.length; ++i) {
+    			if (sites[i].rubyClass == rc) {
+    				return sites[i].converter.convert(ruby, irobj);
+    			}
+    		}
+    	}
+    	IRubyToJava c = registry.rubyToJava(rc.getName(), clazz);
+    	if (null == c) {
+    		c = rubyToJava(clazz);
+    	}
+    	addSite(clazz, sites, new Site(rc, c));
+    	return c.convert(ruby, irobj);
+    }
+    void addSite(Class clazz, Site[] sites, Site site) {
+    	if (null == sites) {
+    		toJava.putIfAbsent(clazz, new Site[] {site});
+    		return;
+    	}
+    	if (sites.length >= MAX_RUBY_CLASSES) {
+    		// megamorphic, look up the registry each time
+    		return;
+    	}
+    	Site[] more = new Site[sites.length + 1];
+    	System.arraycopy(sites, 0, more, 0, sites.length);
+    	more[sites.length] = site;
+    	// lost races just mean another lookup next time
+    	toJava.replace(clazz, sites, more);
+    }
+    /**
+     * Same result as JavaEmbedUtils.javaToRuby when no
+     * converter is registered for obj's class.
+     *
+     * @param obj, Object to convert, null is converted to nil
+     * @return IRubyObject, obj converted
+     */
+    public IRubyObject javaToRuby(Object obj) {
+    	if (null == registry || null == obj || obj instanceof IRubyObject) {
+    		return JavaEmbedUtils.javaToRuby(ruby, obj);
+    	}
+    	checkVersion();
+    	Class clazz = obj.getClass();
+    	IJavaToRuby c = toRuby.get(clazz);
+    	if (null == c) {
+    		c = registry.javaToRuby(clazz);
+    		if (null == c) {
+    			c = JAVA_TO_RUBY;
+    		}
+    		toRuby.put(clazz, c);
+    	}
+    	return c.convert(ruby, obj);
+    }
+    void clear() {
+    	toJava.clear();
+    	toRuby.clear();
+    }
+} // Converters
@@ -0,0 +1,233 @@
+package org.bardibardi.jruby;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.jruby.runtime.builtin.IRubyObject;
+
+/**
+ * An IRubyO which forwards every method to the IRubyO
+ * returned by delegate(). Used for the IRubyO's which
+ * choose, per call, which RubyApp does the work
+ * (e.g. ThreadAffineRubyApp).
+ * <p>
+ * NB: the IRubyO's and IRubyObject's returned belong to
+ * the JRuby engine of the delegate which returned them.
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+public abstract class DelegatingRubyO implements IRubyO {
+	/**
+	 * @return An IRubyO, the IRubyO to forward the
+	 * current call to
+	 */
+    protected abstract IRubyO delegate();
+
+    public IRubyO topSelf() {
+    	return delegate().topSelf();
+    }
+    public IRubyObject nil() {
+    	return delegate().nil();
+    }
+    public boolean isNil(IRubyObject irobj) {
+    	return delegate().isNil(irobj);
+    }
+    public boolean isNil(IRubyO iro) {
+    	return delegate().isNil(iro);
+    }
+    public IRubyO rubyO(IRubyObject irobj) {
+    	return delegate().rubyO(irobj);
+    }
+    public String javaGlobalSet(String key, Object obj) {
+    	return delegate().javaGlobalSet(key, obj);
+    }
+    public Object javaGlobal(Class clazz, String key) {
+    	return delegate().javaGlobal(clazz, key);
+    }
+    public IRubyObject javaGlobal(String key) {
+    	return delegate().javaGlobal(key);
+    }
+    public String javaGlobalRemove(String key) {
+    	return delegate().javaGlobalRemove(key);
+    }
+    public IRubyObject javaGlobalPut(String key, Object obj) {
+    	return delegate().javaGlobalPut(key, obj);
+    }
+    public boolean javaGlobalReplace(String key, IRubyObject expected, Object obj) {
+    	return delegate().javaGlobalReplace(key, expected, obj);
+    }
+    public Map<String, IRubyObject> javaGlobalGetAll(Collection<String> keys) {
+    	return delegate().javaGlobalGetAll(keys);
+    }
+    public void javaGlobalPutAll(Map<String, ?> m) {
+    	delegate().javaGlobalPutAll(m);
+    }
+    public IRubyObject rubyObject(Object obj) {
+    	return delegate().rubyObject(obj);
+    }
+    public IRubyObject rubyArray(long[] a) {
+    	return delegate().rubyArray(a);
+    }
+    public IRubyObject rubyArray(int[] a) {
+    	return delegate().rubyArray(a);
+    }
+    public IRubyObject rubyArray(double[] a) {
+    	return delegate().rubyArray(a);
+    }
+    public int fill(long[] a, IRubyObject rubyArray) {
+    	return delegate().fill(a, rubyArray);
+    }
+    public int fill(int[] a, IRubyObject rubyArray) {
+    	return delegate().fill(a, rubyArray);
+    }
+    public int fill(double[] a, IRubyObject rubyArray) {
+    	return delegate().fill(a, rubyArray);
+    }
+    public IRubyObject rubyView(long[] a) {
+    	return delegate().rubyView(a);
+    }
+    public IRubyObject rubyView(int[] a) {
+    	return delegate().rubyView(a);
+    }
+    public IRubyObject rubyView(double[] a) {
+    	return delegate().rubyView(a);
+    }
+    public IRubyObject rubyString(byte[] utf8) {
+    	return delegate().rubyString(utf8);
+    }
+    public IRubyObject rubyString(ByteBuffer utf8) {
+    	return delegate().rubyString(utf8);
+    }
+    public byte[] bytes(IRubyObject rubyString) {
+    	return delegate().bytes(rubyString);
+    }
+    public ByteBuffer byteBuffer(IRubyObject rubyString) {
+    	return delegate().byteBuffer(rubyString);
+    }
+    public Object javaObject(Class clazz, IRubyO iro) {
+    	return delegate().javaObject(clazz, iro);
+    }
+    public Object javaObject(Class clazz, IRubyObject irobj) {
+    	return delegate().javaObject(clazz, irobj);
+    }
+    public Object script(Class clazz, String script) {
+    	return delegate().script(clazz, script);
+    }
+    public String stringFromScript(String script) {
+    	return delegate().stringFromScript(script);
+    }
+    public byte[] bytesFromScript(String script) {
+    	return delegate().bytesFromScript(script);
+    }
+    public long longFromScript(String script) {
+    	return delegate().longFromScript(script);
+    }
+    public int intFromScript(String script) {
+    	return delegate().intFromScript(script);
+    }
+    public double doubleFromScript(String script) {
+    	return delegate().doubleFromScript(script);
+    }
+    public boolean booleanFromScript(String script) {
+    	return delegate().booleanFromScript(script);
+    }
+    public IRubyObject script(String script) {
+    	return delegate().script(script);
+    }
+    public IRubyO rubyOFromScript(String script) {
+    	return delegate().rubyOFromScript(script);
+    }
+    public boolean isNil() {
+    	return delegate().isNil();
+    }
+    public Object javaObject(Class clazz) {
+    	return delegate().javaObject(clazz);
+    }
+    public IRubyObject unwrap() {
+    	return delegate().unwrap();
+    }
+    public Object send(Class clazz, String method) {
+    	return delegate().send(clazz, method);
+    }
+    public Object send(Class clazz, String method, Object... params) {
+    	return delegate().send(clazz, method, params);
+    }
+    public String stringFromSend(String method) {
+    	return delegate().stringFromSend(method);
+    }
+    public String stringFromSend(String method, Object... params) {
+    	return delegate().stringFromSend(method, params);
+    }
+    public byte[] bytesFromSend(String method) {
+    	return delegate().bytesFromSend(method);
+    }
+    public byte[] bytesFromSend(String method, Object... params) {
+    	return delegate().bytesFromSend(method, params);
+    }
+    public long longFromSend(String method) {
+    	return delegate().longFromSend(method);
+    }
+    public long longFromSend(String method, Object... params) {
+    	return delegate().longFromSend(method, params);
+    }
+    public int intFromSend(String method) {
+    	return delegate().intFromSend(method);
+    }
+    public int intFromSend(String method, Object... params) {
+    	return delegate().intFromSend(method, params);
+    }
+    public double doubleFromSend(String method) {
+    	return delegate().doubleFromSend(method);
+    }
+    public double doubleFromSend(String method, Object... params) {
+    	return delegate().doubleFromSend(method, params);
+    }
+    public boolean booleanFromSend(String method) {
+    	return delegate().booleanFromSend(method);
+    }
+    public boolean booleanFromSend(String method, Object... params) {
+    	return delegate().booleanFromSend(method, params);
+    }
+    public IRubyObject send(String method) {
+    	return delegate().send(method);
+    }
+    public IRubyObject send(String method, Object... params) {
+    	return delegate().send(method, params);
+    }
+    public IRubyO rubyOFromSend(String method) {
+    	return delegate().rubyOFromSend(method);
+    }
+    public IRubyO rubyOFromSend(String method, Object... params) {
+    	return delegate().rubyOFromSend(method, params);
+    }
+    public IRubyObject send0(String method) {
+    	return delegate().send0(method);
+    }
+    public IRubyObject send1(String method, Object param) {
+    	return delegate().send1(method, param);
+    }
+    public IRubyObject send2(String method, Object param1, Object param2) {
+    	return delegate().send2(method, param1, param2);
+    }
+    public IRubyObject send3(String method, Object param1, Object param2, Object param3) {
+    	return delegate().send3(method, param1, param2, param3);
+    }
+    public Object send0(Class clazz, String method) {
+    	return delegate().send0(clazz, method);
+    }
+    public Object send1(Class clazz, String method, Object param) {
+    	return delegate().send1(clazz, method, param);
+    }
+    public Object send2(Class clazz, String method, Object param1, Object param2) {
+    	return delegate().send2(clazz, method, param1, param2);
+    }
+    public Object send3(Class clazz, String method, Object param1, Object param2, Object param3) {
+    	return delegate().send3(clazz, method, param1, param2, param3);
+    }
+    public BatchResult sendBatch(Class clazz, String method, List tuples) {
+    	return delegate().sendBatch(clazz, method, tuples);
+    }
+} // DelegatingRubyO
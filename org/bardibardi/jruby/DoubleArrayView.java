@@ -0,0 +1,30 @@
+package org.bardibardi.jruby;
+
+/**
+ * Read only view of a double[], given to ruby by
+ * IRubyO.rubyView without copying the array.
+ * In ruby: view.get(i), view.length
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+public final class DoubleArrayView {
+	private final double[] a;
+
+    public DoubleArrayView(double[] a) {
+    	this.a = a;
+    }
+    /**
+     * @param i An int, the index
+     * @return A double, element i
+     */
+    public double get(int i) {
+    	return a[i];
+    }
+    /**
+     * @return An int, the number of elements
+     */
+    public int length() {
+    	return a.length;
+    }
+} // DoubleArrayView
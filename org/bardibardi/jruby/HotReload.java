@@ -0,0 +1,215 @@
+package org.bardibardi.jruby;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.ObjectName;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+/**
+ * Loads the ruby files of the RubyApp's of an Injector again
+ * when they change, into the running JRuby engines, so a
+ * change does not need a restart (and the JIT warmth is kept).
+ * <p>
+ * "ruby.reload.millis" (default 0, off) is the time between
+ * checks. Turned on, each RubyApp installs a RequireHook, which
+ * keeps track of the ruby files required from the app file
+ * directory and the load path additions, (including the app
+ * file), and which file required which. A daemon thread checks
+ * the modification time and size of those files. The changed
+ * files of an engine are loaded again, in the order they were
+ * first loaded, required files first. A file which was not
+ * changed is not loaded again, the files requiring a changed
+ * one see its new methods (ruby reopens the classes).
+ * <p>
+ * Sends and scripts (through a RubyO) hold the read lock of
+ * their engine, a reload holds the write lock, so a call
+ * never sees a half loaded file: it runs before or after the
+ * reload. Calls wait while the files load, and a reload waits
+ * for the running calls to end.
+ * <p>
+ * Reloads are counted and timed (getReloadMillis, the time
+ * calls had to wait), available from java or over JMX (as
+ * org.bardibardi.jruby:type=HotReload), and logged to the
+ * java.util.logging Logger LOGGER, at INFO, failures at WARNING.
+ * <p>
+ * NB: a file raising while it is loaded again keeps what it
+ * defined up to the raise, ruby can not undo a load. It is
+ * loaded again when it changes again.
+ * <p>
+ * NB: check may not be called from ruby (through java), the
+ * calling send would wait for itself.
+ * <p>
+ * Thread safe.
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+@Singleton
+public class HotReload implements HotReloadMBean {
+	public static final String OBJECT_NAME = "org.bardibardi.jruby:type=HotReload";
+	public static final String LOGGER = "org.bardibardi.jruby.HotReload";
+
+	long intervalMillis;
+	CopyOnWriteArrayList<RubyEngine> engines = new CopyOnWriteArrayList<RubyEngine>();
+	// one check at a time
+	Object checking = new Object();
+	// guarded by this
+	Thread watcher;
+	AtomicLong reloads = new AtomicLong();
+	AtomicLong filesReloaded = new AtomicLong();
+	AtomicLong failures = new AtomicLong();
+	AtomicLong reloadNanos = new AtomicLong();
+	volatile long lastReloadNanos = 0;
+	Logger logger = Logger.getLogger(LOGGER);
+	ObjectName objectName;
+
+	/**
+	 * constructor used by Guice Injector, registers the MBean
+	 * when enabled
+	 *
+	 * @param intervalMillis, long, time between checks, 0 for off
+	 */
+    @Inject
+    public HotReload(@Named("ruby.reload.millis") long intervalMillis) {
+    	this.intervalMillis = intervalMillis;
+    	if (isEnabled()) {
+    		objectName = RubyOMetrics.register(this, OBJECT_NAME);
+    	}
+    }
+    /**
+     * @return An ObjectName, of the MBean, null if not registered
+     */
+    public ObjectName objectName() {
+    	return objectName;
+    }
+    /**
+     * unregister the MBean, e.g. when the Injector is dropped
+     */
+    public void unregister() {
+    	RubyOMetrics.unregister(objectName);
+    	objectName = null;
+    }
+    public boolean isEnabled() {
+    	return intervalMillis > 0;
+    }
+    /**
+     * watch the files loaded by the RequireHook of e, done by
+     * the RubyApp constructor, from then on the sends and
+     * scripts of e hold its read lock
+     *
+     * @param e, RubyEngine, with a RequireHook installed
+     */
+    void watch(RubyEngine e) {
+    	e.reloadLock = new ReentrantReadWriteLock();
+    	e.hotReload = this;
+    	engines.add(e);
+    	synchronized (this) {
+    		if (null == watcher) {
+    			watcher = new Thread("HotReload") {
+    				public void run() {
+    					watch();
+    				}
+    			};
+    			watcher.setDaemon(true);
+    			watcher.start();
+    		}
+    	}
+    }
+    /**
+     * stop watching e, done when it is terminated
+     */
+    void unwatch(RubyEngine e) {
+    	engines.remove(e);
+    }
+    void watch() {
+    	while (true) {
+    		try {
+    			Thread.sleep(intervalMillis);
+    		}
+    		catch (InterruptedException e) {
+    			return;
+    		}
+    		check();
+    	}
+    }
+    public int check() {
+    	synchronized (checking) {
+    		int n = 0;
+    		for (RubyEngine e : engines) {
+    			n += check(e);
+    		}
+    		return n;
+    	}
+    }
+    /**
+     * @return int, number of files of e loaded again
+     */
+    int check(RubyEngine e) {
+    	RequireHook hook = e.requireHook;
+    	List<RequireHook.Feature> changed = hook.changed();
+    	if (changed.isEmpty()) {
+    		return 0;
+    	}
+    	Lock lock = e.reloadLock.writeLock();
+    	lock.lock();
+    	long start = System.nanoTime();
+    	int n = 0;
+    	try {
+    		for (RequireHook.Feature f : changed) {
+    			long fileStart = System.nanoTime();
+    			try {
+    				hook.reload(f);
+    				++n;
+    				if (logger.isLoggable(Level.INFO)) {
+    					logger.info("reloaded " + f.path + " in " +
+    					    (System.nanoTime() - fileStart) / 1e6 + " ms, required by " +
+    					    hook.requiredBy(f.path));
+    				}
+    			}
+    			catch (IOException ex) {
+    				failures.incrementAndGet();
+    				logger.log(Level.WARNING, "reload of " + f.path + " failed", ex);
+    			}
+    			catch (RuntimeException ex) {
+    				// a RaiseException, the file is partly loaded
+    				failures.incrementAndGet();
+    				logger.log(Level.WARNING, "reload of " + f.path + " failed", ex);
+    			}
+    		}
+    	}
+    	finally {
+    		long held = System.nanoTime() - start;
+    		lock.unlock();
+    		reloads.incrementAndGet();
+    		filesReloaded.addAndGet(n);
+    		reloadNanos.addAndGet(held);
+    		lastReloadNanos = held;
+    	}
+    	return n;
+    }
+    public long getReloads() {
+    	return reloads.get();
+    }
+    public long getFilesReloaded() {
+    	return filesReloaded.get();
+    }
+    public long getFailures() {
+    	return failures.get();
+    }
+    public long getReloadMillis() {
+    	return reloadNanos.get() / 1000000;
+    }
+    public long getLastReloadMillis() {
+    	return lastReloadNanos / 1000000;
+    }
+} // HotReload
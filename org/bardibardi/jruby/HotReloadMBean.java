@@ -0,0 +1,43 @@
+package org.bardibardi.jruby;
+
+/**
+ * The JMX management interface of HotReload, registered
+ * as org.bardibardi.jruby:type=HotReload.
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+public interface HotReloadMBean {
+	/**
+	 * @return A boolean, true when the ruby files are watched
+	 */
+    public boolean isEnabled();
+	/**
+	 * look for changed ruby files now and load them again
+	 *
+	 * @return An int, number of files loaded again
+	 */
+    public int check();
+	/**
+	 * @return A long, number of times changed files were
+	 * loaded again (one per engine and check)
+	 */
+    public long getReloads();
+	/**
+	 * @return A long, number of files loaded again
+	 */
+    public long getFilesReloaded();
+	/**
+	 * @return A long, number of files which failed to load again
+	 */
+    public long getFailures();
+	/**
+	 * @return A long, time the reloads held the engines, during
+	 * which sends and scripts wait
+	 */
+    public long getReloadMillis();
+	/**
+	 * @return A long, time the last reload held its engine
+	 */
+    public long getLastReloadMillis();
+}
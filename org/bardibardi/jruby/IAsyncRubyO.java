@@ -0,0 +1,70 @@
+package org.bardibardi.jruby;
+
+import org.jruby.runtime.builtin.IRubyObject;
+
+/**
+ * Asynchronous send and script on an IRubyO.
+ * Each method queues the call and returns at once with a
+ * RubyFuture for its result, so that a caller can run
+ * several independent ruby calls in parallel, or overlap
+ * ruby work with I/O.
+ * <code>
+ * IAsyncRubyO async;
+ * ...
+ * Future f1 = async.sendAsync(String.class, "header", ...);
+ * Future f2 = async.sendAsync(String.class, "footer", ...);
+ * ...
+ * String header = (String)f1.get();
+ * String footer = (String)f2.get();
+ * </code>
+ * The parameters and results are converted exactly as for
+ * the corresponding IRubyO methods. A ruby exception
+ * thrown by the call is the cause of the
+ * ExecutionException thrown by Future.get.
+ * <p>
+ * When the queue is full the call is rejected
+ * (RejectedExecutionException), blocks until there is room,
+ * or is run by the calling thread, depending on how the
+ * implementation is configured.
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+public interface IAsyncRubyO {
+	/**
+	 * @return An IRubyO, the IRubyO the calls are made on
+	 */
+    public IRubyO rubyO();
+    /**
+     * asynchronous send, return java Object
+     *
+	 * @param clazz A Class to convert to
+	 * @param method A String, ruby method name
+	 * @param params An Object[], unconverted parameters
+     * @return A RubyFuture of send(clazz, method, params ...)
+     */
+    public RubyFuture<Object> sendAsync(Class clazz, String method, Object... params);
+    /**
+     * asynchronous send
+     *
+	 * @param method A String, ruby method name
+	 * @param params An Object[], unconverted parameters
+     * @return A RubyFuture of send(method, params ...)
+     */
+    public RubyFuture<IRubyObject> sendAsync(String method, Object... params);
+    /**
+     * asynchronous script, return java Object
+     *
+	 * @param clazz A Class to convert to
+	 * @param script A String, ruby source code
+     * @return A RubyFuture of script(clazz, script)
+     */
+    public RubyFuture<Object> scriptAsync(Class clazz, String script);
+    /**
+     * asynchronous script
+     *
+	 * @param script A String, ruby source code
+     * @return A RubyFuture of script(script)
+     */
+    public RubyFuture<IRubyObject> scriptAsync(String script);
+}
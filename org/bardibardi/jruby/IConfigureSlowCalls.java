@@ -0,0 +1,32 @@
+package org.bardibardi.jruby;
+
+/**
+ * To configure which calls the SlowCallLog logs. Bind an
+ * implementation with Guice, in a module installed next to
+ * RubyAppGuiceModule, to set thresholds per method:
+ * <code>
+ * b.bind(IConfigureSlowCalls.class).to(MySlowCalls.class);
+ * </code>
+ * When none is bound, ConfigureSlowCalls, which reads java
+ * properties, is used.
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+public interface IConfigureSlowCalls {
+	/**
+	 * @param method, String, ruby method name
+	 * @return long, a send of method taking longer is logged,
+	 * 0 for never
+	 */
+    public long thresholdMillis(String method);
+    /**
+     * @return long, a script taking longer is logged, 0 for never
+     */
+    public long scriptThresholdMillis();
+    /**
+     * @return boolean, false if no call is ever logged, then
+     * calls are not watched at all
+     */
+    public boolean isEnabled();
+}
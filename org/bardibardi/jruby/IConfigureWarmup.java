@@ -0,0 +1,39 @@
+package org.bardibardi.jruby;
+
+import java.util.List;
+
+/**
+ * To configure the warmup a RubyApp runs before its
+ * constructor returns (see WarmupReport)
+ * <code>
+ * for iterations() times, until budgetMillis() runs out
+ * (whichever comes first, no warmup when both are 0):
+ *     script(each of scripts())
+ *     send(each of sends())
+ * </code>
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+public interface IConfigureWarmup {
+	/**
+	 * @return List, (of Strings) ruby scripts run by script(String)
+	 */
+    public List scripts();
+    /**
+     * @return List, (of Strings) ruby method names sent,
+     * without parameters, to the ruby app
+     */
+    public List sends();
+    /**
+     * @return int, number of times to run scripts() and sends(),
+     * 0 for no limit (no warmup unless budgetMillis() is set)
+     */
+    public int iterations();
+    /**
+     * @return long, milliseconds after which the warmup stops
+     * even if iterations() have not all been run, 0 for no limit
+     * (no warmup unless iterations() is set)
+     */
+    public long budgetMillis();
+}
@@ -0,0 +1,20 @@
+package org.bardibardi.jruby;
+
+import org.jruby.runtime.builtin.IRubyObject;
+
+/**
+ * Bind an implementation with Guice to give javaGlobal...
+ * values a weight for "ruby.java.global.max.weight"
+ * (see JavaGlobalCache). Without one every value weighs 1.
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+public interface IJavaGlobalWeigher {
+	/**
+	 * @param key A String, the javaGlobal... key
+	 * @param value An IRubyObject, the value stored at key
+	 * @return An int, the weight of value, at least 1
+	 */
+    public int weigh(String key, IRubyObject value);
+}
@@ -0,0 +1,20 @@
+package org.bardibardi.jruby;
+
+import org.jruby.Ruby;
+import org.jruby.runtime.builtin.IRubyObject;
+
+/**
+ * Converts instances of one java class to IRubyObject's.
+ * Registered with ConverterRegistry.
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+public interface IJavaToRuby {
+	/**
+	 * @param ruby A Ruby, the JRuby engine to convert for
+	 * @param obj An Object to be converted, never null
+	 * @return An IRubyObject belonging to ruby
+	 */
+    public IRubyObject convert(Ruby ruby, Object obj);
+}
@@ -0,0 +1,20 @@
+package org.bardibardi.jruby;
+
+/**
+ * Bind an implementation with Guice to add converters to
+ * the ConverterRegistry:
+ * <code>
+ * b.bind(IRegisterConverters.class).to(MyConverters.class);
+ * </code>
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+public interface IRegisterConverters {
+	/**
+	 * register converters with cr
+	 *
+	 * @param cr A ConverterRegistry
+	 */
+    public void register(ConverterRegistry cr);
+}
@@ -0,0 +1,84 @@
+package org.bardibardi.jruby;
+
+/**
+ * A pool of RubyApp's, each with its own JRuby engine,
+ * all configured by the same IConfigureRubyApp.
+ * A RubyApp is used by one thread at a time, from checkout
+ * until checkin, so the threads using the pool do not
+ * contend for one JRuby engine.
+ * <p>
+ * NB: the RubyApp's do not share ruby state. Ruby globals,
+ * javaGlobal... values, methods defined by script, etc.
+ * exist only in the RubyApp they were created in.
+ * An IRubyO returned by a checked out RubyApp belongs to
+ * that RubyApp's JRuby engine and should not be used after
+ * checkin.
+ * <code>
+ * IRubyAppPool pool;
+ * ...
+ * IRubyO iro = pool.checkout();
+ * try {
+ *     iro.send(...);
+ * }
+ * finally {
+ *     pool.checkin(iro);
+ * }
+ * </code>
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+public interface IRubyAppPool {
+	/**
+	 * Check out a RubyApp, waiting for the configured
+	 * checkout timeout when none is available.
+	 *
+	 * @return An IRubyO, a RubyApp for the exclusive use
+	 * of the caller until checkin
+	 * @throws IllegalStateException if no RubyApp became
+	 * available before the timeout
+	 */
+    public IRubyO checkout();
+	/**
+	 * Check out a RubyApp, waiting at most timeoutMillis
+	 *
+	 * @param timeoutMillis A long, milliseconds to wait
+	 * @return An IRubyO, a RubyApp for the exclusive use
+	 * of the caller until checkin, or null on timeout
+	 */
+    public IRubyO checkout(long timeoutMillis);
+    /**
+     * Check in a RubyApp gotten by checkout
+     *
+     * @param iro An IRubyO, the checked out RubyApp
+     * @throws IllegalArgumentException if iro is not a
+     * checked out member of this pool
+     */
+    public void checkin(IRubyO iro);
+    /**
+     * checkout, as a RubyAppLease which does the checkin
+     * when closed
+     *
+     * @return A RubyAppLease
+     */
+    public RubyAppLease lease();
+    /**
+     * @return An int, the number of RubyApp's in the pool
+     */
+    public int size();
+    /**
+     * @return An int, the number of RubyApp's not checked out
+     */
+    public int available();
+    /**
+     * @param i An int, index of a RubyApp, 0 to size() - 1
+     * @return A long, the number of times it was checked out
+     */
+    public long checkouts(int i);
+    /**
+     * @param i An int, index of a RubyApp, 0 to size() - 1
+     * @return A double, fraction of time since the pool was
+     * created that it was checked out (0.0 to 1.0)
+     */
+    public double utilization(int i);
+}
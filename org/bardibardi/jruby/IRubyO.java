@@ -1,11 +1,17 @@
 package org.bardibardi.jruby;
 
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
 import org.jruby.runtime.builtin.IRubyObject;
 /**
  * The interface IRubyO is intended to provide
- * a complete java interface to a single global
- * JRuby engine and an internal IRubyObject
- * instance.
+ * a complete java interface to a JRuby engine
+ * and an internal IRubyObject instance.
+ * Each RubyApp has its own JRuby engine, so
+ * several ruby apps can run in one JVM.
  * IRubyO should be used as a complete interface
  * to ruby as provided by JRuby.
  * <p>
@@ -31,6 +37,8 @@ import org.jruby.runtime.builtin.IRubyObject;
  * $java_global, java_global, java_global_set, and
  * java_global_remove
  * <p>
+ * sendBatch, ruby identifier used: java_send_batch
+ * <p>
  * All methods can throw JRuby ruby exceptions.
  * <p>
  * NB: IRubyObject should be treated as a tag
@@ -101,6 +109,10 @@ public interface IRubyO {
     public boolean isNil(IRubyO iro);
 	/**
 	 * Engine method, wrap an IRubyObject
+	 * <p>
+	 * A new IRubyO each time, unless "ruby.rubyo.cache" is
+	 * on (see RubyOCache), then the same one for the same
+	 * IRubyObject.
 	 *
 	 * @param irobj An IRubyObject to be wrapped
 	 * @return An IRubyO wrapping an IRubyObject
@@ -108,19 +120,20 @@ public interface IRubyO {
     public IRubyO rubyO(IRubyObject irobj);
 	/**
 	 * Engine method which puts an object into the 
-	 * $java_global hash at a key if the key is unused.
+	 * $java_global store at a key if the key is unused.
+	 * (putIfAbsent)
 	 * 
-	 * @param key A String, hash key for obj
+	 * @param key A String, store key for obj
 	 * @param obj An Object to be stored
 	 * @return A String key if successful, else null
 	 */
     public String javaGlobalSet(String key, Object obj);
 	/**
 	 * Engine method which gets a java Object from
-	 * the $java_global hash
+	 * the $java_global store
 	 *
 	 * @param clazz A Class to convert to
-	 * @param key A String, hash key
+	 * @param key A String, store key
 	 * @return An Object, $java_global[key] 
 	 * converted to clazz instance (ruby nil to null)
 	 */
@@ -129,18 +142,53 @@ public interface IRubyO {
 	 * Engine method which gets the IRubyObject wrapping
 	 * the java Object put at key by javaGlobalSet
 	 * 
-	 * @param key A String, hash key
+	 * @param key A String, store key
 	 * @return An IRubyObject, $java_global[key] (or ruby nil)
 	 */
     public IRubyObject javaGlobal(String key);
 	/**
 	 * Engine method which removes an object from the 
-	 * $java_global hash at a key
+	 * $java_global store at a key
 	 * 
-	 * @param key A String, hash key
+	 * @param key A String, store key
 	 * @return A String key if the key was in use, else null
 	 */
     public String javaGlobalRemove(String key);
+	/**
+	 * Engine method which puts an object into the
+	 * $java_global store at a key, replacing any value.
+	 * 
+	 * @param key A String, store key for obj
+	 * @param obj An Object to be stored
+	 * @return An IRubyObject, the replaced value (or ruby nil)
+	 */
+    public IRubyObject javaGlobalPut(String key, Object obj);
+	/**
+	 * Engine method, compare and set: puts an object into the
+	 * $java_global store at a key only if the value there is
+	 * expected (compared by identity, as returned by javaGlobal).
+	 * 
+	 * @param key A String, store key for obj
+	 * @param expected An IRubyObject, the value expected at key
+	 * @param obj An Object to be stored
+	 * @return A boolean, true if obj was stored
+	 */
+    public boolean javaGlobalReplace(String key, IRubyObject expected, Object obj);
+	/**
+	 * Engine method which gets several values from
+	 * the $java_global store
+	 * 
+	 * @param keys A Collection of String store keys
+	 * @return A Map, from each key in use to its IRubyObject value
+	 */
+    public Map<String, IRubyObject> javaGlobalGetAll(Collection<String> keys);
+	/**
+	 * Engine method which puts several objects into the
+	 * $java_global store, replacing any values
+	 * 
+	 * @param m A Map, from String store keys to Objects to be stored
+	 */
+    public void javaGlobalPutAll(Map<String, ?> m);
     /**
      * Engine method which does JRuby convert to IRubyObject
      *
@@ -148,6 +196,122 @@ public interface IRubyO {
      * @return An IRubyObject from obj as converted by JRuby
      */
     public IRubyObject rubyObject(Object obj);
+    /**
+     * Engine method, build a ruby Array of Fixnums from a in one pass
+     *
+     * @param a A long[], copied
+     * @return An IRubyObject, a ruby Array
+     */
+    public IRubyObject rubyArray(long[] a);
+    /**
+     * Engine method, build a ruby Array of Fixnums from a in one pass
+     *
+     * @param a A int[], copied
+     * @return An IRubyObject, a ruby Array
+     */
+    public IRubyObject rubyArray(int[] a);
+    /**
+     * Engine method, build a ruby Array of Floats from a in one pass
+     *
+     * @param a A double[], copied
+     * @return An IRubyObject, a ruby Array
+     */
+    public IRubyObject rubyArray(double[] a);
+    /**
+     * Engine method, copy the elements of a ruby Array into a
+     * without boxing, stopping at the end of either
+     *
+     * @param a A long[], filled from index 0
+     * @param rubyArray An IRubyObject, a ruby Array of Fixnum
+     * @return An int, the number of elements copied
+     * @throws ClassCastException if rubyArray is not an Array or
+     * an element is not a Fixnum
+     */
+    public int fill(long[] a, IRubyObject rubyArray);
+    /**
+     * Engine method, copy the elements of a ruby Array into a
+     * without boxing, stopping at the end of either
+     *
+     * @param a A int[], filled from index 0
+     * @param rubyArray An IRubyObject, a ruby Array of Fixnum
+     * @return An int, the number of elements copied
+     * @throws ClassCastException if rubyArray is not an Array or
+     * an element is not a Fixnum
+     * ArithmeticException if an element does not fit in an int
+     */
+    public int fill(int[] a, IRubyObject rubyArray);
+    /**
+     * Engine method, copy the elements of a ruby Array into a
+     * without boxing, stopping at the end of either
+     *
+     * @param a A double[], filled from index 0
+     * @param rubyArray An IRubyObject, a ruby Array of Float or Fixnum
+     * @return An int, the number of elements copied
+     * @throws ClassCastException if rubyArray is not an Array or
+     * an element is not a Float or Fixnum
+     */
+    public int fill(double[] a, IRubyObject rubyArray);
+    /**
+     * Engine method, give ruby read only access to a without copying.
+     * In ruby the view answers get(i) and length.
+     *
+     * @param a A long[], not copied, changes to a are seen by ruby
+     * @return An IRubyObject, the LongArrayView wrapping a
+     */
+    public IRubyObject rubyView(long[] a);
+    /**
+     * Engine method, give ruby read only access to a without copying.
+     * In ruby the view answers get(i) and length.
+     *
+     * @param a A int[], not copied, changes to a are seen by ruby
+     * @return An IRubyObject, the IntArrayView wrapping a
+     */
+    public IRubyObject rubyView(int[] a);
+    /**
+     * Engine method, give ruby read only access to a without copying.
+     * In ruby the view answers get(i) and length.
+     *
+     * @param a A double[], not copied, changes to a are seen by ruby
+     * @return An IRubyObject, the DoubleArrayView wrapping a
+     */
+    public IRubyObject rubyView(double[] a);
+    /**
+     * Engine method, make a ruby String from UTF-8 bytes
+     * without decoding them, (unlike rubyObject(String))
+     *
+     * @param utf8 A byte[], shared with the ruby String, not copied,
+     * so utf8 must not be changed afterwards
+     * @return An IRubyObject, a ruby String
+     */
+    public IRubyObject rubyString(byte[] utf8);
+    /**
+     * Engine method, make a ruby String from the remaining
+     * UTF-8 bytes of utf8 without decoding them.
+     * The position of utf8 is not changed.
+     *
+     * @param utf8 A ByteBuffer, shared with the ruby String when
+     * it has an accessible array, otherwise copied
+     * @return An IRubyObject, a ruby String
+     */
+    public IRubyObject rubyString(ByteBuffer utf8);
+    /**
+     * Engine method, the bytes of a ruby String
+     * without encoding them, (unlike javaObject(String.class, ...))
+     *
+     * @param rubyString An IRubyObject, a ruby String
+     * @return A byte[], a copy of the bytes of rubyString
+     * @throws ClassCastException if rubyString is not a String
+     */
+    public byte[] bytes(IRubyObject rubyString);
+    /**
+     * Engine method, read only view of the bytes of a ruby String,
+     * not copied
+     *
+     * @param rubyString An IRubyObject, a ruby String
+     * @return A ByteBuffer, valid until rubyString is changed
+     * @throws ClassCastException if rubyString is not a String
+     */
+    public ByteBuffer byteBuffer(IRubyObject rubyString);
     /**
      * Engine method which does JRuby convert to java Object
      *
@@ -183,6 +347,50 @@ public interface IRubyO {
      * from the result of ruby script
      */
     public String stringFromScript(String script);
+    /**
+     * Engine method, return the bytes of the ruby String from script
+     * 
+	 * @param script A String, ruby source code
+     * @return A byte[], bytes(script(script))
+     */
+    public byte[] bytesFromScript(String script);
+    /**
+     * Engine method, return long from script without boxing
+     * 
+	 * @param script A String, ruby source code
+     * @return A long, the result of ruby script, which must be
+     * a Fixnum
+     * @throws ClassCastException if the result is not a Fixnum
+     */
+    public long longFromScript(String script);
+    /**
+     * Engine method, return int from script without boxing
+     * 
+	 * @param script A String, ruby source code
+     * @return An int, the result of ruby script, which must be
+     * a Fixnum
+     * @throws ClassCastException if the result is not a Fixnum,
+     * ArithmeticException if it does not fit in an int
+     */
+    public int intFromScript(String script);
+    /**
+     * Engine method, return double from script without boxing
+     * 
+	 * @param script A String, ruby source code
+     * @return A double, the result of ruby script, which must be
+     * a Float or Fixnum
+     * @throws ClassCastException if the result is not a Float or Fixnum
+     */
+    public double doubleFromScript(String script);
+    /**
+     * Engine method, return boolean from script without boxing
+     * 
+	 * @param script A String, ruby source code
+     * @return A boolean, the result of ruby script, which must be
+     * true or false
+     * @throws ClassCastException if the result is not true or false
+     */
+    public boolean booleanFromScript(String script);
     /**
      * Engine method, return java.lang.String from script
      * 
@@ -247,6 +455,99 @@ public interface IRubyO {
      * @return A String, (String)send(String.class, method, param ...)
      */
     public String stringFromSend(String method, Object... params);
+    /**
+     * send, return the bytes of the resulting ruby String, no params
+     * 
+	 * @param method A String, ruby method name
+     * @return A byte[], bytes(send(method))
+     */
+    public byte[] bytesFromSend(String method);
+    /**
+     * send, return the bytes of the resulting ruby String
+     * 
+	 * @param method A String, ruby method name
+	 * @param params An Object[], unconverted parameters
+     * @return A byte[], bytes(send(method, param ...))
+     */
+    public byte[] bytesFromSend(String method, Object... params);
+    /**
+     * send, return long without boxing, no params
+     * 
+	 * @param method A String, ruby method name
+     * @return A long, the result of sending the method, which must be
+     * a Fixnum
+     * @throws ClassCastException if the result is not a Fixnum
+     */
+    public long longFromSend(String method);
+    /**
+     * send, return long without boxing
+     * 
+	 * @param method A String, ruby method name
+	 * @param params An Object[], unconverted parameters
+     * @return A long, the result of sending the method, which must be
+     * a Fixnum
+     * @throws ClassCastException if the result is not a Fixnum
+     */
+    public long longFromSend(String method, Object... params);
+    /**
+     * send, return int without boxing, no params
+     * 
+	 * @param method A String, ruby method name
+     * @return An int, the result of sending the method, which must be
+     * a Fixnum
+     * @throws ClassCastException if the result is not a Fixnum,
+     * ArithmeticException if it does not fit in an int
+     */
+    public int intFromSend(String method);
+    /**
+     * send, return int without boxing
+     * 
+	 * @param method A String, ruby method name
+	 * @param params An Object[], unconverted parameters
+     * @return An int, the result of sending the method, which must be
+     * a Fixnum
+     * @throws ClassCastException if the result is not a Fixnum,
+     * ArithmeticException if it does not fit in an int
+     */
+    public int intFromSend(String method, Object... params);
+    /**
+     * send, return double without boxing, no params
+     * 
+	 * @param method A String, ruby method name
+     * @return A double, the result of sending the method, which must be
+     * a Float or Fixnum
+     * @throws ClassCastException if the result is not a Float or Fixnum
+     */
+    public double doubleFromSend(String method);
+    /**
+     * send, return double without boxing
+     * 
+	 * @param method A String, ruby method name
+	 * @param params An Object[], unconverted parameters
+     * @return A double, the result of sending the method, which must be
+     * a Float or Fixnum
+     * @throws ClassCastException if the result is not a Float or Fixnum
+     */
+    public double doubleFromSend(String method, Object... params);
+    /**
+     * send, return boolean without boxing, no params
+     * 
+	 * @param method A String, ruby method name
+     * @return A boolean, the result of sending the method, which must be
+     * true or false
+     * @throws ClassCastException if the result is not true or false
+     */
+    public boolean booleanFromSend(String method);
+    /**
+     * send, return boolean without boxing
+     * 
+	 * @param method A String, ruby method name
+	 * @param params An Object[], unconverted parameters
+     * @return A boolean, the result of sending the method, which must be
+     * true or false
+     * @throws ClassCastException if the result is not true or false
+     */
+    public boolean booleanFromSend(String method, Object... params);
     /**
      *  send, no params
      *  
@@ -288,4 +589,102 @@ public interface IRubyO {
      * @return An IRubyO, rubyO(send(method, param ...))
      */
     public IRubyO rubyOFromSend(String method, Object... params);
-}
+    /**
+     * send, no params, no Object[] is allocated
+     * 
+	 * @param method A String, ruby method name
+     * @return An IRubyObject, the result of sending the method
+     */
+    public IRubyObject send0(String method);
+    /**
+     * send, one param, no Object[] is allocated
+     * The param is converted as described for send.
+     * 
+	 * @param method A String, ruby method name
+	 * @param param An Object, unconverted parameter
+     * @return An IRubyObject, the result of sending the method with param
+     */
+    public IRubyObject send1(String method, Object param);
+    /**
+     * send, two params, no Object[] is allocated
+     * The params are converted as described for send.
+     * 
+	 * @param method A String, ruby method name
+	 * @param param1 An Object, unconverted parameter
+	 * @param param2 An Object, unconverted parameter
+     * @return An IRubyObject, the result of sending the method with params
+     */
+    public IRubyObject send2(String method, Object param1, Object param2);
+    /**
+     * send, three params, no Object[] is allocated
+     * The params are converted as described for send.
+     * 
+	 * @param method A String, ruby method name
+	 * @param param1 An Object, unconverted parameter
+	 * @param param2 An Object, unconverted parameter
+	 * @param param3 An Object, unconverted parameter
+     * @return An IRubyObject, the result of sending the method with params
+     */
+    public IRubyObject send3(String method, Object param1, Object param2, Object param3);
+    /**
+     * send0, return java Object
+     * 
+	 * @param clazz A Class to convert to
+	 * @param method A String, ruby method name
+     * @return An Object for clazz Ex:
+     * (Ex)javaObject(Ex.class, send0(method))
+     */
+    public Object send0(Class clazz, String method);
+    /**
+     * send1, return java Object
+     * 
+	 * @param clazz A Class to convert to
+	 * @param method A String, ruby method name
+	 * @param param An Object, unconverted parameter
+     * @return An Object for clazz Ex:
+     * (Ex)javaObject(Ex.class, send1(method, param))
+     */
+    public Object send1(Class clazz, String method, Object param);
+    /**
+     * send2, return java Object
+     * 
+	 * @param clazz A Class to convert to
+	 * @param method A String, ruby method name
+	 * @param param1 An Object, unconverted parameter
+	 * @param param2 An Object, unconverted parameter
+     * @return An Object for clazz Ex:
+     * (Ex)javaObject(Ex.class, send2(method, param1, param2))
+     */
+    public Object send2(Class clazz, String method, Object param1, Object param2);
+    /**
+     * send3, return java Object
+     * 
+	 * @param clazz A Class to convert to
+	 * @param method A String, ruby method name
+	 * @param param1 An Object, unconverted parameter
+	 * @param param2 An Object, unconverted parameter
+	 * @param param3 An Object, unconverted parameter
+     * @return An Object for clazz Ex:
+     * (Ex)javaObject(Ex.class, send3(method, param1, param2, param3))
+     */
+    public Object send3(Class clazz, String method, Object param1, Object param2, Object param3);
+    /**
+     * send the same method once per parameter tuple.
+     * The parameters of all tuples are converted (as described
+     * for send) in one pass, the method is resolved once and
+     * the calls are looped over in ruby, then the results are
+     * converted to clazz in one pass.
+     * A call which raises a ruby exception does not stop the
+     * batch, its error is reported in the BatchResult.
+     * The batch is one send (of java_send_batch) to topSelf,
+     * timed, sampled and watched as such, and it waits for a
+     * reload (see HotReload) like any send.
+     * 
+	 * @param clazz A Class to convert to
+	 * @param method A String, ruby method name
+	 * @param tuples A List of Object[], unconverted parameters,
+	 * one Object[] per call
+     * @return A BatchResult, a result or an error per tuple
+     */
+    public BatchResult sendBatch(Class clazz, String method, List tuples);
+}
\ No newline at end of file
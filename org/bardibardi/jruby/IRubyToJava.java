@@ -0,0 +1,20 @@
+package org.bardibardi.jruby;
+
+import org.jruby.Ruby;
+import org.jruby.runtime.builtin.IRubyObject;
+
+/**
+ * Converts instances of one ruby class to one java type.
+ * Registered with ConverterRegistry.
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+public interface IRubyToJava {
+	/**
+	 * @param ruby A Ruby, the JRuby engine irobj belongs to
+	 * @param irobj An IRubyObject to be converted
+	 * @return An Object, an instance of the java type
+	 */
+    public Object convert(Ruby ruby, IRubyObject irobj);
+}
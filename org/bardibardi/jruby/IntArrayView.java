@@ -0,0 +1,30 @@
+package org.bardibardi.jruby;
+
+/**
+ * Read only view of an int[], given to ruby by
+ * IRubyO.rubyView without copying the array.
+ * In ruby: view.get(i), view.length
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+public final class IntArrayView {
+	private final int[] a;
+
+    public IntArrayView(int[] a) {
+    	this.a = a;
+    }
+    /**
+     * @param i An int, the index
+     * @return An int, element i
+     */
+    public int get(int i) {
+    	return a[i];
+    }
+    /**
+     * @return An int, the number of elements
+     */
+    public int length() {
+    	return a.length;
+    }
+} // IntArrayView
@@ -0,0 +1,402 @@
+package org.bardibardi.jruby;
+
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jruby.runtime.builtin.IRubyObject;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+/**
+ * Turns the javaGlobal... store of one JRuby engine
+ * (see JavaGlobals) into a bounded, expiring cache.
+ * <p>
+ * "ruby.java.global.max.entries" and "ruby.java.global.max.weight"
+ * bound the number and the total weight of the values
+ * (0 is unbounded). Weights come from an IJavaGlobalWeigher
+ * when one is bound, otherwise every value weighs 1.
+ * <p>
+ * "ruby.java.global.expire.after.write.millis" and
+ * "ruby.java.global.expire.after.access.millis" expire values
+ * a time after they were stored or last read (0 is never).
+ * <p>
+ * "ruby.java.global.values" is "strong" (default), "soft"
+ * or "weak". Soft and weak values which are garbage
+ * collected are gone, as if they had expired.
+ * <p>
+ * With the defaults (all 0, strong) the store is not a cache
+ * and nothing is ever removed except by javaGlobalRemove.
+ * <p>
+ * Eviction is W-TinyLFU like: new values enter a small window
+ * (1% of the bounds) in insertion order. A value leaving the
+ * window is admitted to the main queue only if it has been
+ * used more often, as counted by a frequency sketch, than the
+ * main queue's victim, the oldest value which has not been read
+ * since it was last passed over (second chance).
+ * So a burst of values used once does not flush out the
+ * values which are used over and over.
+ * <p>
+ * Reads stay lock free, the sketch counts them without
+ * synchronization (it is approximate anyway). Writes update
+ * the queues synchronized on the cache. Expired values are
+ * removed when they are read and by a scan every
+ * CLEAN_UP_WRITES writes.
+ * <p>
+ * Thread safe.
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+public class JavaGlobalCache {
+	public static final String STRONG = "strong";
+	public static final String SOFT = "soft";
+	public static final String WEAK = "weak";
+	static final int CLEAN_UP_WRITES = 64;
+	static final int MAX_FREQUENCY = 15;
+	// sketch counters when only the weight is bounded, the
+	// number of values is not known (a weight may be bytes)
+	static final int WEIGHT_BOUNDED_SKETCH = 1024;
+	static final int[] SEEDS = {0x97cb3127, 0xb1a4d2f5, 0x85ebca6b, 0xc2b2ae35};
+
+	long maxEntries;
+	long maxWeight;
+	long expireAfterWriteMillis;
+	long expireAfterAccessMillis;
+	String values;
+	IJavaGlobalWeigher weigher;
+
+	// guarded by this
+	LinkedHashMap<String, JavaGlobals.Value> window = new LinkedHashMap<String, JavaGlobals.Value>();
+	LinkedHashMap<String, JavaGlobals.Value> main = new LinkedHashMap<String, JavaGlobals.Value>();
+	long weight = 0;
+
+	// frequency sketch, count-min with 4 counters per key
+	int[] sketch;
+	int sketchMask;
+	int sketchAdditions = 0;
+	int sketchResetAt;
+
+	AtomicLong hits = new AtomicLong();
+	AtomicLong misses = new AtomicLong();
+	AtomicLong evictions = new AtomicLong();
+	AtomicLong evictedWeight = new AtomicLong();
+	AtomicLong expirations = new AtomicLong();
+	AtomicInteger writes = new AtomicInteger();
+
+	/**
+	 * constructor used by Guice Injector
+	 *
+	 * @param maxEntries, long, maximum number of values, 0 is unbounded
+	 * @param maxWeight, long, maximum total weight, 0 is unbounded
+	 * @param expireAfterWriteMillis, long, time to live, 0 is forever
+	 * @param expireAfterAccessMillis, long, idle time to live, 0 is forever
+	 * @param values, String, STRONG, SOFT or WEAK
+	 */
+    @Inject
+    public JavaGlobalCache(
+    	@Named("ruby.java.global.max.entries") long maxEntries,
+    	@Named("ruby.java.global.max.weight") long maxWeight,
+    	@Named("ruby.java.global.expire.after.write.millis") long expireAfterWriteMillis,
+    	@Named("ruby.java.global.expire.after.access.millis") long expireAfterAccessMillis,
+    	@Named("ruby.java.global.values") String values) {
+    	if (!STRONG.equals(values) && !SOFT.equals(values) && !WEAK.equals(values)) {
+    		throw new IllegalArgumentException("unknown ruby.java.global.values: " + values);
+    	}
+    	this.maxEntries = maxEntries;
+    	this.maxWeight = maxWeight;
+    	this.expireAfterWriteMillis = expireAfterWriteMillis;
+    	this.expireAfterAccessMillis = expireAfterAccessMillis;
+    	this.values = values;
+    	int size = 64;
+    	long wanted = maxEntries > 0 ? Math.min(maxEntries, 1 << 22) :
+    	    Math.min(maxWeight, WEIGHT_BOUNDED_SKETCH);
+    	while (size < wanted) {
+    		size <<= 1;
+    	}
+    	sketch = new int[size];
+    	sketchMask = size - 1;
+    	sketchResetAt = 10 * size;
+    }
+    /**
+     * Guice calls this when an IJavaGlobalWeigher is bound
+     *
+     * @param w An IJavaGlobalWeigher
+     */
+    @Inject(optional=true)
+    public void setWeigher(IJavaGlobalWeigher w) {
+    	weigher = w;
+    }
+    /**
+     * @return A boolean, true when values can be evicted or expire
+     */
+    public boolean isEnabled() {
+    	return isBounded() || expireAfterWriteMillis > 0 ||
+    	    expireAfterAccessMillis > 0 || !STRONG.equals(values);
+    }
+    boolean isBounded() {
+    	return maxEntries > 0 || maxWeight > 0;
+    }
+    boolean isTimed() {
+    	return expireAfterWriteMillis > 0 || expireAfterAccessMillis > 0;
+    }
+
+    JavaGlobals.Value newValue(String key, IRubyObject irobj) {
+    	int w = null == weigher ? 1 : Math.max(1, weigher.weigh(key, irobj));
+    	Object ref = irobj;
+    	if (SOFT.equals(values)) {
+    		ref = new SoftReference<IRubyObject>(irobj);
+    	}
+    	else if (WEAK.equals(values)) {
+    		ref = new WeakReference<IRubyObject>(irobj);
+    	}
+    	return new JavaGlobals.Value(ref, w, isTimed() ? System.currentTimeMillis() : 0);
+    }
+    /**
+     * @return A boolean, false if v has expired or been collected
+     */
+    boolean isLive(JavaGlobals.Value v) {
+    	if (null == v.irobj()) {
+    		return false;
+    	}
+    	if (!isTimed()) {
+    		return true;
+    	}
+    	long now = System.currentTimeMillis();
+    	if (expireAfterWriteMillis > 0 && now - v.writtenAt >= expireAfterWriteMillis) {
+    		return false;
+    	}
+    	return expireAfterAccessMillis <= 0 || now - v.accessedAt < expireAfterAccessMillis;
+    }
+    void hit(String key, JavaGlobals.Value v) {
+    	hits.incrementAndGet();
+    	if (isBounded()) {
+    		increment(key);
+    		v.accessed = true;
+    	}
+    	if (expireAfterAccessMillis > 0) {
+    		v.accessedAt = System.currentTimeMillis();
+    	}
+    }
+    void miss(String key) {
+    	misses.incrementAndGet();
+    	if (isBounded()) {
+    		increment(key);
+    	}
+    }
+    void expired() {
+    	expirations.incrementAndGet();
+    }
+    /**
+     * called after v was put at key in map
+     */
+    void written(ConcurrentHashMap<String, JavaGlobals.Value> map, String key, JavaGlobals.Value v) {
+    	if (isBounded()) {
+    		synchronized (this) {
+    			dequeue(key);
+    			// a later write of key has already been queued
+    			if (map.get(key) == v) {
+    				window.put(key, v);
+    				weight += v.weight;
+    				evict(map);
+    			}
+    		}
+    	}
+    	if ((isTimed() || !STRONG.equals(values)) &&
+    	    0 == writes.incrementAndGet() % CLEAN_UP_WRITES) {
+    		cleanUp(map);
+    	}
+    }
+    /**
+     * called after v was removed from key in map
+     */
+    void removed(String key, JavaGlobals.Value v) {
+    	if (!isBounded()) {
+    		return;
+    	}
+    	synchronized (this) {
+    		if (window.get(key) == v || main.get(key) == v) {
+    			dequeue(key);
+    		}
+    	}
+    }
+    /**
+     * remove expired and collected values from map
+     */
+    void cleanUp(ConcurrentHashMap<String, JavaGlobals.Value> map) {
+    	for (Map.Entry<String, JavaGlobals.Value> e : map.entrySet()) {
+    		JavaGlobals.Value v = e.getValue();
+    		if (!isLive(v) && map.remove(e.getKey(), v)) {
+    			expired();
+    			removed(e.getKey(), v);
+    		}
+    	}
+    }
+    synchronized void clear() {
+    	window.clear();
+    	main.clear();
+    	weight = 0;
+    }
+
+    // the rest is called synchronized on this
+
+    void dequeue(String key) {
+    	JavaGlobals.Value v = window.remove(key);
+    	if (null != v) {
+    		weight -= v.weight;
+    	}
+    	v = main.remove(key);
+    	if (null != v) {
+    		weight -= v.weight;
+    	}
+    }
+    boolean isOverCapacity() {
+    	return (maxEntries > 0 && window.size() + main.size() > maxEntries) ||
+    	    (maxWeight > 0 && weight > maxWeight);
+    }
+    boolean isWindowFull() {
+    	if (maxEntries > 0 && window.size() > Math.max(1, maxEntries / 100)) {
+    		return true;
+    	}
+    	if (maxWeight > 0) {
+    		long windowWeight = 0;
+    		for (JavaGlobals.Value v : window.values()) {
+    			windowWeight += v.weight;
+    		}
+    		return windowWeight > Math.max(1, maxWeight / 100);
+    	}
+    	return false;
+    }
+    void evict(ConcurrentHashMap<String, JavaGlobals.Value> map) {
+    	while (isWindowFull()) {
+    		String candidate = window.keySet().iterator().next();
+    		JavaGlobals.Value c = window.remove(candidate);
+    		main.put(candidate, c);
+    		while (isOverCapacity()) {
+    			String victim = victim(c);
+    			if (null == victim || frequency(candidate) <= frequency(victim)) {
+    				evict(map, candidate, main);
+    				break;
+    			}
+    			evict(map, victim, main);
+    		}
+    	}
+    	// a heavy value can leave the cache over capacity
+    	while (isOverCapacity()) {
+    		if (!main.isEmpty()) {
+    			evict(map, main.keySet().iterator().next(), main);
+    		}
+    		else {
+    			evict(map, window.keySet().iterator().next(), window);
+    		}
+    	}
+    }
+    void evict(ConcurrentHashMap<String, JavaGlobals.Value> map, String key,
+    	LinkedHashMap<String, JavaGlobals.Value> queue) {
+    	JavaGlobals.Value v = queue.remove(key);
+    	weight -= v.weight;
+    	map.remove(key, v);
+    	evictions.incrementAndGet();
+    	evictedWeight.addAndGet(v.weight);
+    }
+    /**
+     * @param candidate A JavaGlobals.Value, never the victim
+     * @return A String, the key of the oldest value in main
+     * not read since it was last passed over, or null
+     */
+    String victim(JavaGlobals.Value candidate) {
+    	for (int n = main.size(); n > 0; --n) {
+    		Map.Entry<String, JavaGlobals.Value> e = main.entrySet().iterator().next();
+    		String key = e.getKey();
+    		JavaGlobals.Value v = e.getValue();
+    		if (v != candidate && !v.accessed) {
+    			return key;
+    		}
+    		v.accessed = false;
+    		main.remove(key);
+    		main.put(key, v);
+    	}
+    	for (Map.Entry<String, JavaGlobals.Value> e : main.entrySet()) {
+    		if (e.getValue() != candidate) {
+    			return e.getKey();
+    		}
+    	}
+    	return null;
+    }
+
+    int index(int h, int i) {
+    	int x = (h + SEEDS[i]) * SEEDS[i];
+    	return (x ^ (x >>> 16)) & sketchMask;
+    }
+    int frequency(String key) {
+    	int h = key.hashCode();
+    	int f = MAX_FREQUENCY;
+    	for (int i = 0; i < SEEDS.length; ++i) {
+    		f = Math.min(f, sketch[index(h, i)]);
+    	}
+    	return f;
+    }
+    void increment(String key) {
+    	int h = key.hashCode();
+    	for (int i = 0; i < SEEDS.length; ++i) {
+    		int j = index(h, i);
+    		if (sketch[j] < MAX_FREQUENCY) {
+    			++sketch[j];
+    		}
+    	}
+    	if (++sketchAdditions >= sketchResetAt) {
+    		// age the counts, so old popularity fades
+    		for (int i = 0; i < sketch.length; ++i) {
+    			sketch[i] >>>= 1;
+    		}
+    		sketchAdditions = 0;
+    	}
+    }
+
+    public long hits() {
+    	return hits.get();
+    }
+    public long misses() {
+    	return misses.get();
+    }
+    /**
+     * @return A double, hits / (hits + misses), 1.0 before any read
+     */
+    public double hitRatio() {
+    	long h = hits();
+    	long total = h + misses();
+    	return 0 == total ? 1.0 : (double)h / total;
+    }
+    /**
+     * @return A long, values evicted to stay within the bounds
+     */
+    public long evictions() {
+    	return evictions.get();
+    }
+    public long evictedWeight() {
+    	return evictedWeight.get();
+    }
+    /**
+     * @return A long, values removed because they expired
+     * or were garbage collected
+     */
+    public long expirations() {
+    	return expirations.get();
+    }
+    /**
+     * @return A long, total weight of the values, 0 when unbounded
+     */
+    public synchronized long weight() {
+    	return weight;
+    }
+    public String toString() {
+    	return "JavaGlobalCache hits: " + hits() + " misses: " + misses() +
+    	    " hit ratio: " + hitRatio() + " evictions: " + evictions() +
+    	    " evicted weight: " + evictedWeight() + " expirations: " + expirations();
+    }
+} // JavaGlobalCache
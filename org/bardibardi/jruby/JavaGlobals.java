@@ -0,0 +1,309 @@
+package org.bardibardi.jruby;
+
+import java.lang.ref.Reference;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jruby.Ruby;
+import org.jruby.RubyModule;
+import org.jruby.runtime.Arity;
+import org.jruby.runtime.Block;
+import org.jruby.runtime.Visibility;
+import org.jruby.runtime.builtin.IRubyObject;
+import org.jruby.runtime.callback.Callback;
+
+/**
+ * The javaGlobal... store of one JRuby engine (see RubyEngine),
+ * a ConcurrentHashMap on the java side, so javaGlobal... calls
+ * from java never enter the ruby interpreter.
+ * <p>
+ * The same JavaGlobals is behind the ruby global $java_global,
+ * a ruby module whose get, set and remove are native methods
+ * calling this directly, and the ruby methods java_global,
+ * java_global_set and java_global_remove (see defineInRuby),
+ * so ruby and java see the same values, and a ruby call is
+ * not a reflective java integration call.
+ * <p>
+ * Values are kept as IRubyObject's. Compare and set compares
+ * them by identity, since ruby == would need the interpreter.
+ * <p>
+ * When the JavaGlobalCache is enabled values are also evicted,
+ * expire, or are garbage collected, as configured. Such a
+ * value is gone, exactly as if it had been removed.
+ * <p>
+ * Thread safe, reads are lock free.
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+public class JavaGlobals {
+	// Value compares by identity, unlike IRubyObject.equals
+	static final class Value {
+		// an IRubyObject, or a Reference to one for soft and weak values
+		final Object ref;
+		final int weight;
+		final long writtenAt;
+		volatile long accessedAt;
+		// read since last passed over by eviction
+		volatile boolean accessed = false;
+		Value(Object r, int w, long now) {
+			ref = r;
+			weight = w;
+			writtenAt = now;
+			accessedAt = now;
+		}
+		IRubyObject irobj() {
+			if (ref instanceof Reference) {
+				return (IRubyObject)((Reference)ref).get();
+			}
+			return (IRubyObject)ref;
+		}
+	} // Value
+
+	RubyEngine engine;
+	JavaGlobalCache cache;
+	ConcurrentHashMap<String, Value> map = new ConcurrentHashMap<String, Value>();
+
+	/**
+	 * @param e, RubyEngine, the engine of the values
+	 * @param c, JavaGlobalCache, may be null for a plain store
+	 */
+    JavaGlobals(RubyEngine e, JavaGlobalCache c) {
+    	engine = e;
+    	if (null != c && c.isEnabled()) {
+    		cache = c;
+    	}
+    }
+    /**
+     * A native ruby method taking the key and, for set,
+     * the value
+     */
+    abstract class Method implements Callback {
+    	Arity arity;
+    	Method(Arity a) {
+    		arity = a;
+    	}
+    	public Arity getArity() {
+    		return arity;
+    	}
+    	IRubyObject key(String key) {
+    		return null == key ? engine.nil : engine.ruby.newString(key);
+    	}
+    } // Method
+
+    /**
+     * define $java_global, a ruby module with the native methods
+     * get(name), set(name, x) and remove(name), and the same as
+     * the private Kernel methods java_global, java_global_set and
+     * java_global_remove. Done once by RubyO.defJavaGlobal.
+     */
+    void defineInRuby() {
+    	Method get = new Method(Arity.ONE_ARGUMENT) {
+    		public IRubyObject execute(IRubyObject self, IRubyObject[] args, Block block) {
+    			return get(args[0].toString());
+    		}
+    	};
+    	Method set = new Method(Arity.TWO_ARGUMENTS) {
+    		public IRubyObject execute(IRubyObject self, IRubyObject[] args, Block block) {
+    			return key(set(args[0].toString(), args[1]));
+    		}
+    	};
+    	Method remove = new Method(Arity.ONE_ARGUMENT) {
+    		public IRubyObject execute(IRubyObject self, IRubyObject[] args, Block block) {
+    			return key(remove(args[0].toString()));
+    		}
+    	};
+    	Ruby ruby = engine.ruby;
+    	RubyModule m = RubyModule.newModule(ruby);
+    	m.getSingletonClass().defineFastMethod("get", get);
+    	m.getSingletonClass().defineFastMethod("set", set);
+    	m.getSingletonClass().defineFastMethod("remove", remove);
+    	ruby.getGlobalVariables().set("$java_global", m);
+    	RubyModule kernel = ruby.getKernel();
+    	kernel.defineFastMethod("java_global", get, Visibility.PRIVATE);
+    	kernel.defineFastMethod("java_global_set", set, Visibility.PRIVATE);
+    	kernel.defineFastMethod("java_global_remove", remove, Visibility.PRIVATE);
+    }
+    IRubyObject toRuby(Object obj) {
+    	if (null == obj) {
+    		return engine.nil;
+    	}
+    	if (obj instanceof IRubyO) {
+    		return ((IRubyO)obj).unwrap();
+    	}
+    	return engine.converters.javaToRuby(obj);
+    }
+    Value newValue(String key, Object obj) {
+    	IRubyObject irobj = toRuby(obj);
+    	if (null == cache) {
+    		return new Value(irobj, 1, 0);
+    	}
+    	return cache.newValue(key, irobj);
+    }
+    boolean isLive(Value v) {
+    	return null == cache || cache.isLive(v);
+    }
+    void written(String key, Value v) {
+    	if (null != cache) {
+    		cache.written(map, key, v);
+    	}
+    }
+    void removed(String key, Value v) {
+    	if (null != cache) {
+    		cache.removed(key, v);
+    	}
+    }
+    /**
+     * @return A Value, live value at key, or null
+     */
+    Value read(String key) {
+    	Value v = map.get(key);
+    	if (null == cache) {
+    		return v;
+    	}
+    	if (null == v) {
+    		cache.miss(key);
+    		return null;
+    	}
+    	if (!cache.isLive(v)) {
+    		if (map.remove(key, v)) {
+    			cache.expired();
+    			cache.removed(key, v);
+    		}
+    		cache.miss(key);
+    		return null;
+    	}
+    	cache.hit(key, v);
+    	return v;
+    }
+    IRubyObject value(Value v) {
+    	IRubyObject irobj = null == v ? null : v.irobj();
+    	return null == irobj ? engine.nil : irobj;
+    }
+    /**
+     * @param key A String
+     * @return An IRubyObject, the value at key, or ruby nil
+     */
+    public IRubyObject get(String key) {
+    	return value(read(key));
+    }
+    /**
+     * put obj at key if key is unused
+     *
+     * @param key A String
+     * @param obj An Object, converted as for send
+     * @return A String, key if successful, else null
+     */
+    public String set(String key, Object obj) {
+    	Value nv = newValue(key, obj);
+    	for (;;) {
+    		Value v = map.putIfAbsent(key, nv);
+    		if (null == v) {
+    			written(key, nv);
+    			return key;
+    		}
+    		if (isLive(v)) {
+    			return null;
+    		}
+    		// an expired value does not count as in use
+    		if (map.replace(key, v, nv)) {
+    			cache.expired();
+    			written(key, nv);
+    			return key;
+    		}
+    	}
+    }
+    /**
+     * put obj at key, replacing any value
+     *
+     * @param key A String
+     * @param obj An Object, converted as for send
+     * @return An IRubyObject, the value replaced, or ruby nil
+     */
+    public IRubyObject put(String key, Object obj) {
+    	Value nv = newValue(key, obj);
+    	Value v = map.put(key, nv);
+    	written(key, nv);
+    	return null == v || !isLive(v) ? engine.nil : value(v);
+    }
+    /**
+     * put obj at key if the value at key is expected
+     *
+     * @param key A String
+     * @param expected An IRubyObject, compared by identity
+     * @param obj An Object, converted as for send
+     * @return A boolean, true if obj was put
+     */
+    public boolean replace(String key, IRubyObject expected, Object obj) {
+    	Value v = read(key);
+    	if (null == v || v.irobj() != expected) {
+    		return false;
+    	}
+    	Value nv = newValue(key, obj);
+    	if (!map.replace(key, v, nv)) {
+    		return false;
+    	}
+    	written(key, nv);
+    	return true;
+    }
+    /**
+     * @param key A String
+     * @return A String, key if the key was in use, else null
+     */
+    public String remove(String key) {
+    	Value v = map.remove(key);
+    	if (null == v) {
+    		return null;
+    	}
+    	removed(key, v);
+    	return isLive(v) ? key : null;
+    }
+    /**
+     * @param keys A Collection of String keys
+     * @return A Map, from each key in use to its value
+     */
+    public Map<String, IRubyObject> getAll(Collection<String> keys) {
+    	Map<String, IRubyObject> result = new HashMap<String, IRubyObject>();
+    	for (String key : keys) {
+    		Value v = read(key);
+    		if (null != v) {
+    			result.put(key, value(v));
+    		}
+    	}
+    	return result;
+    }
+    /**
+     * put every entry of m, replacing any values
+     *
+     * @param m A Map from String keys to Objects, converted as for send
+     */
+    public void putAll(Map<String, ?> m) {
+    	for (Map.Entry<String, ?> e : m.entrySet()) {
+    		put(e.getKey(), e.getValue());
+    	}
+    }
+    /**
+     * @return An int, the number of keys stored, including
+     * expired values which have not been removed yet
+     */
+    public int size() {
+    	return map.size();
+    }
+    /**
+     * remove expired and garbage collected values now,
+     * instead of when they are read or by the periodic scan
+     */
+    public void cleanUp() {
+    	if (null != cache) {
+    		cache.cleanUp(map);
+    	}
+    }
+    void clear() {
+    	map.clear();
+    	if (null != cache) {
+    		cache.clear();
+    	}
+    }
+} // JavaGlobals
@@ -0,0 +1,380 @@
+package org.bardibardi.jruby;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+/**
+ * Index of the ruby files (features) in the directories and
+ * jars of the load path additions (see
+ * IConfigureRubyApp.loadPathAdditions), so that a require
+ * resolves with one lookup instead of probing every entry
+ * of the load path, which includes the whole java.class.path.
+ * The java.class.path entries themselves are not indexed (see
+ * RequireHook.hooked), so the requires of JRuby's standard
+ * library are left to JRuby.
+ * Used by RequireHook when "ruby.app.load.path.index" is true
+ * (default false).
+ * <p>
+ * The injected LoadPathIndex, shared by every RubyApp of the
+ * Injector, keeps one index per distinct load path (see
+ * index), so each named ruby app resolves its requires in
+ * its own load path additions. An index is built the first
+ * time a RubyApp with its load path asks for it, with one task
+ * per load path entry run in parallel. As with ruby's
+ * require, the first entry having a feature wins.
+ * A feature in a jar resolves to "file:jar!/entry", which
+ * JRuby's load understands.
+ * <p>
+ * At most every "ruby.app.load.path.index.check.millis"
+ * (default 2000), a resolve checks the modification times of
+ * the entries (of a directory, itself and its subdirectories
+ * which had ruby files when it was indexed, of a jar, the jar),
+ * and indexes again the entries which have changed. A file
+ * which has disappeared is noticed at once. A file in a new
+ * subdirectory is indexed with the next change of its entry,
+ * until then its require is left to JRuby.
+ * <p>
+ * The time saved is estimated per require, as the cost of
+ * probing, measured when the index was built, the entries
+ * before the one having the feature, less the time the index
+ * lookup took.
+ * <p>
+ * NB: only the load path additions are indexed. Changes made
+ * to $: by ruby code are not seen, and misses are left to
+ * JRuby's require.
+ * <p>
+ * Thread safe, the counts (hits, misses, ...) of the injected
+ * LoadPathIndex are those of all its indexes.
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+@Singleton
+public class LoadPathIndex {
+	/**
+	 * the features of one load path entry
+	 */
+	static class Entry {
+		File file;
+		boolean isJar;
+		long stamp;
+		long probeNanos = 0;
+		Map<String, String> features = new HashMap<String, String>();
+		// the directory and its subdirectories having features
+		List<File> directories = new ArrayList<File>();
+		Entry(File f) {
+			file = f;
+			isJar = f.isFile();
+		}
+	} // Entry
+
+	/**
+	 * where a feature is found
+	 */
+	static class Location {
+		String path;
+		// probe cost of the entries before the one having the feature
+		long probeNanos;
+		Location(String p, long n) {
+			path = p;
+			probeNanos = n;
+		}
+	} // Location
+
+	boolean isEnabled;
+	long checkMillis;
+	// guarded by this, of the injected one, the index of each load path
+	Map<List<File>, LoadPathIndex> indexes = new HashMap<List<File>, LoadPathIndex>();
+	List<Entry> entries = new ArrayList<Entry>();
+	volatile Map<String, Location> index = new HashMap<String, Location>();
+	volatile long lastCheck;
+	long allProbeNanos = 0;
+	AtomicLong buildMillis = new AtomicLong();
+	AtomicLong rebuilds = new AtomicLong();
+	AtomicLong hits = new AtomicLong();
+	AtomicLong misses = new AtomicLong();
+	AtomicLong savedNanos = new AtomicLong();
+
+	/**
+	 * constructor used by Guice Injector, the indexes are built
+	 * by index
+	 *
+	 * @param enabled, boolean, false for no index
+	 * @param check, long, milliseconds between checks for changes
+	 */
+    @Inject
+    public LoadPathIndex(@Named("ruby.app.load.path.index") boolean enabled,
+    	@Named("ruby.app.load.path.index.check.millis") long check) {
+    	isEnabled = enabled;
+    	checkMillis = check;
+    }
+    /**
+     * builds the index of one load path, counting in the counts
+     * of shared
+     *
+     * @param shared, LoadPathIndex, the injected one
+     * @param loadPath, List (of Files), from RequireHook.hooked
+     */
+    LoadPathIndex(LoadPathIndex shared, List<File> loadPath) {
+    	isEnabled = true;
+    	checkMillis = shared.checkMillis;
+    	buildMillis = shared.buildMillis;
+    	rebuilds = shared.rebuilds;
+    	hits = shared.hits;
+    	misses = shared.misses;
+    	savedNanos = shared.savedNanos;
+    	for (File f : loadPath) {
+    		if (f.exists()) {
+    			entries.add(new Entry(f));
+    		}
+    	}
+    	long start = System.currentTimeMillis();
+    	build(entries);
+    	buildMillis.addAndGet(System.currentTimeMillis() - start);
+    }
+    public boolean isEnabled() {
+    	return isEnabled;
+    }
+    /**
+     * @param loadPath, List (of Strings), a RubyApp's load path
+     * additions (see IConfigureRubyApp.loadPathAdditions)
+     * @return LoadPathIndex, of the entries of loadPath which are
+     * not in java.class.path, built the first time, shared by the
+     * RubyApp's having the same
+     */
+    synchronized LoadPathIndex index(List loadPath) {
+    	List<File> hooked = RequireHook.hooked(loadPath);
+    	LoadPathIndex lpi = indexes.get(hooked);
+    	if (null == lpi) {
+    		lpi = new LoadPathIndex(this, hooked);
+    		indexes.put(hooked, lpi);
+    	}
+    	return lpi;
+    }
+    /**
+     * index the entries in parallel, then merge
+     */
+    synchronized void build(List<Entry> toIndex) {
+    	int threads = Math.max(1, Math.min(toIndex.size(),
+    	    Runtime.getRuntime().availableProcessors()));
+    	ExecutorService es = Executors.newFixedThreadPool(threads);
+    	try {
+    		List<Future<Entry>> futures = new ArrayList<Future<Entry>>();
+    		for (final Entry e : toIndex) {
+    			futures.add(es.submit(new Callable<Entry>() {
+    				public Entry call() throws IOException {
+    					indexEntry(e);
+    					return e;
+    				}
+    			}));
+    		}
+    		for (Future<Entry> f : futures) {
+    			try {
+    				f.get();
+    			}
+    			catch (ExecutionException e) {
+    				// an unreadable entry has no features
+    			}
+    			catch (InterruptedException e) {
+    				Thread.currentThread().interrupt();
+    				break;
+    			}
+    		}
+    	}
+    	finally {
+    		es.shutdown();
+    	}
+    	merge();
+    }
+    void indexEntry(Entry e) throws IOException {
+    	e.features.clear();
+    	e.directories.clear();
+    	if (e.isJar) {
+    		e.stamp = stamp(e);
+    		ZipFile zip = new ZipFile(e.file);
+    		try {
+    			for (Enumeration<? extends ZipEntry> en = zip.entries(); en.hasMoreElements(); ) {
+    				String name = en.nextElement().getName();
+    				if (name.endsWith(".rb")) {
+    					e.features.put(name.substring(0, name.length() - 3),
+    					    "file:" + e.file.getPath() + "!/" + name);
+    				}
+    			}
+    			long t = System.nanoTime();
+    			zip.getEntry("load_path_index_probe.rb");
+    			e.probeNanos = System.nanoTime() - t;
+    		}
+    		finally {
+    			zip.close();
+    		}
+    	}
+    	else {
+    		e.directories.add(e.file);
+    		e.stamp = indexDirectory(e, e.file, "");
+    		long t = System.nanoTime();
+    		new File(e.file, "load_path_index_probe.rb").isFile();
+    		e.probeNanos = System.nanoTime() - t;
+    	}
+    }
+    /**
+     * @return long, the latest modification time, before they were
+     * read, of dir and its subdirectories having features
+     */
+    long indexDirectory(Entry e, File dir, String prefix) {
+    	long modified = dir.lastModified();
+    	long latest = 0;
+    	boolean hasFeatures = false;
+    	File[] files = dir.listFiles();
+    	for (int i = 0; null != files && i < files.length; ++i) {
+    		File f = files[i];
+    		String name = f.getName();
+    		if (f.isDirectory()) {
+    			latest = Math.max(latest, indexDirectory(e, f, prefix + name + "/"));
+    		}
+    		else if (name.endsWith(".rb")) {
+    			e.features.put(prefix + name.substring(0, name.length() - 3), f.getPath());
+    			hasFeatures = true;
+    		}
+    	}
+    	if (hasFeatures && dir != e.file) {
+    		e.directories.add(dir);
+    	}
+    	return hasFeatures || dir == e.file ? Math.max(latest, modified) : latest;
+    }
+    /**
+     * @return long, the jar's modification time or the latest
+     * modification time of the directories having features
+     * (and of the entry's own directory), no tree is walked
+     */
+    static long stamp(Entry e) {
+    	if (e.isJar) {
+    		return e.file.lastModified() + e.file.length();
+    	}
+    	long latest = 0;
+    	for (File dir : e.directories) {
+    		latest = Math.max(latest, dir.lastModified());
+    	}
+    	return latest;
+    }
+    void merge() {
+    	Map<String, Location> m = new HashMap<String, Location>();
+    	long probeNanos = 0;
+    	for (Entry e : entries) {
+    		for (Map.Entry<String, String> f : e.features.entrySet()) {
+    			if (!m.containsKey(f.getKey())) {
+    				m.put(f.getKey(), new Location(f.getValue(), probeNanos));
+    			}
+    		}
+    		probeNanos += e.probeNanos;
+    	}
+    	allProbeNanos = probeNanos;
+    	index = m;
+    	lastCheck = System.currentTimeMillis();
+    }
+    /**
+     * index again the entries which have changed
+     *
+     * @param isForced, boolean, check even if checkMillis have not passed
+     */
+    void check(boolean isForced) {
+    	if (!isForced && System.currentTimeMillis() - lastCheck < checkMillis) {
+    		return;
+    	}
+    	synchronized (this) {
+    		if (!isForced && System.currentTimeMillis() - lastCheck < checkMillis) {
+    			return;
+    		}
+    		List<Entry> changed = new ArrayList<Entry>();
+    		for (Entry e : entries) {
+    			if (stamp(e) != e.stamp) {
+    				changed.add(e);
+    			}
+    		}
+    		if (changed.isEmpty()) {
+    			lastCheck = System.currentTimeMillis();
+    			return;
+    		}
+    		rebuilds.incrementAndGet();
+    		build(changed);
+    	}
+    }
+    /**
+     * @param name, String, as given to require
+     * @return String, path of the ruby file, or null if it is not indexed
+     */
+    public String resolve(String name) {
+    	long t = System.nanoTime();
+    	check(false);
+    	String feature = name.endsWith(".rb") ? name.substring(0, name.length() - 3) : name;
+    	Location l = index.get(feature);
+    	if (null != l && !l.path.startsWith("file:") && !new File(l.path).isFile()) {
+    		check(true);
+    		l = index.get(feature);
+    	}
+    	if (null == l) {
+    		misses.incrementAndGet();
+    		return null;
+    	}
+    	hits.incrementAndGet();
+    	savedNanos.addAndGet(l.probeNanos - (System.nanoTime() - t));
+    	return l.path;
+    }
+    /**
+     * @return A long, milliseconds the first builds took
+     */
+    public long buildMillis() {
+    	return buildMillis.get();
+    }
+    public long rebuilds() {
+    	return rebuilds.get();
+    }
+    public long hits() {
+    	return hits.get();
+    }
+    public long misses() {
+    	return misses.get();
+    }
+    /**
+     * @return A long, estimated nanoseconds saved by all hits
+     */
+    public long savedNanos() {
+    	return savedNanos.get();
+    }
+    /**
+     * @return A double, estimated microseconds saved per require
+     * resolved by the index
+     */
+    public double savedMicrosPerRequire() {
+    	long h = hits();
+    	return 0 == h ? 0.0 : savedNanos() / 1e3 / h;
+    }
+    public synchronized String toString() {
+    	int n = entries.size();
+    	int features = index.size();
+    	for (LoadPathIndex lpi : indexes.values()) {
+    		n += lpi.entries.size();
+    		features += lpi.index.size();
+    	}
+    	return "LoadPathIndex load paths: " + indexes.size() + " entries: " + n +
+    	    " features: " + features + " build ms: " + buildMillis() + " rebuilds: " + rebuilds() +
+    	    " hits: " + hits() + " misses: " + misses() +
+    	    " saved us/require: " + savedMicrosPerRequire();
+    }
+} // LoadPathIndex
@@ -0,0 +1,30 @@
+package org.bardibardi.jruby;
+
+/**
+ * Read only view of a long[], given to ruby by
+ * IRubyO.rubyView without copying the array.
+ * In ruby: view.get(i), view.length
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+public final class LongArrayView {
+	private final long[] a;
+
+    public LongArrayView(long[] a) {
+    	this.a = a;
+    }
+    /**
+     * @param i An int, the index
+     * @return A long, element i
+     */
+    public long get(int i) {
+    	return a[i];
+    }
+    /**
+     * @return An int, the number of elements
+     */
+    public int length() {
+    	return a.length;
+    }
+} // LongArrayView
@@ -0,0 +1,78 @@
+package org.bardibardi.jruby;
+
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.name.Named;
+
+/**
+ * The Provider of RubyApp of a named ruby app, bound by
+ * RubyAppGuiceModule as &#64;Named(name) RubyApp. Each get()
+ * creates a new RubyApp, configured by the java properties
+ * prefixed with name (see ConfigureRubyApp), with its own
+ * JRuby engine. All else is injected as for an unnamed
+ * RubyApp, so the singletons (ConverterRegistry, AotCache,
+ * RubyOMetrics, ...) are shared with the other ruby apps of
+ * the Injector.
+ * <p>
+ * As RubyAppGuiceModule does for the unnamed IRubyO, the
+ * &#64;Named(name) IRubyO is made by the runtime mode from
+ * this Provider: threadAffine(), background() or get(), and
+ * the &#64;Named(name) IRubyAppPool by pool().
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+public class NamedRubyAppProvider implements Provider<RubyApp> {
+	String name;
+	@Inject ConfigureJRuby configureJRuby;
+	@Inject Provider<ScriptCache> scriptCaches;
+	@Inject ConverterRegistry converters;
+	@Inject Provider<JavaGlobalCache> javaGlobalCaches;
+	@Inject Provider<RubyAppFeatures> features;
+	@Inject @Named("ruby.app.thread.max.runtimes") int threadMaxRuntimes;
+	@Inject @Named("ruby.app.thread.wait.millis") long threadWaitMillis;
+	@Inject @Named("ruby.app.thread.sweep.millis") long threadSweepMillis;
+	@Inject @Named("ruby.app.pool.size") int poolSize;
+	@Inject @Named("ruby.app.pool.checkout.timeout.millis") long poolTimeoutMillis;
+
+	/**
+	 * @param n, String, name of the ruby app
+	 */
+    public NamedRubyAppProvider(String n) {
+    	name = n;
+    }
+    /**
+     * @return String, name of the ruby app
+     */
+    public String name() {
+    	return name;
+    }
+    /**
+     * @return RubyApp, a new RubyApp
+     */
+    public RubyApp get() {
+    	return new RubyApp(new ConfigureRubyApp(configureJRuby, name),
+    	    scriptCaches.get(), converters, javaGlobalCaches.get(), features.get());
+    }
+    /**
+     * @return IRubyO, a new ThreadAffineRubyApp of the named
+     * ruby app, configured by the ruby.app.thread... java properties
+     */
+    public IRubyO threadAffine() {
+    	return new ThreadAffineRubyApp(this, threadMaxRuntimes, threadWaitMillis,
+    	    threadSweepMillis);
+    }
+    /**
+     * @return IRubyO, a new BackgroundRubyApp of the named ruby app
+     */
+    public IRubyO background() {
+    	return new BackgroundRubyApp(this);
+    }
+    /**
+     * @return IRubyAppPool, a new RubyAppPool of the named ruby app,
+     * configured by the ruby.app.pool... java properties
+     */
+    public IRubyAppPool pool() {
+    	return new RubyAppPool(this, poolSize, poolTimeoutMillis);
+    }
+} // NamedRubyAppProvider
@@ -0,0 +1,308 @@
+package org.bardibardi.jruby;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Takes over ruby's require for the ruby files in the
+ * JRuby engine's load path additions (see
+ * IConfigureRubyApp.loadPathAdditions), less the
+ * java.class.path entries (see hooked). They are resolved
+ * by the LoadPathIndex, when it is enabled, otherwise by
+ * probing the directories of the load path additions. They
+ * are loaded by the AotCache, when it is enabled, otherwise
+ * parsed from the SourceCache, when it is enabled, otherwise
+ * by ruby's load. Other requires are left to JRuby.
+ * <p>
+ * Installed by the RubyApp constructor, before it runs the
+ * app script, when the AotCache, the LoadPathIndex or the
+ * SourceCache is enabled. In ruby the hook
+ * is $java_require_hook and Kernel#require is replaced by a
+ * method which asks it to resolve and load the file, falling
+ * back to the original require, java_require_without_hook.
+ * <p>
+ * Like require, a resolved file is loaded once and its path
+ * is added to $".
+ * <p>
+ * The hook keeps track of the files it loaded (the features),
+ * in the order they finished loading, and of the files which
+ * required each of them, so HotReload can load the changed
+ * ones again.
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+public class RequireHook {
+	static String REQUIRE =
+		"module Kernel\n" +
+			"alias_method :java_require_without_hook, :require\n" +
+			"def require(name)\n" +
+				"path = $java_require_hook.resolve(name)\n" +
+				"return java_require_without_hook(name) unless path\n" +
+				"$java_require_hook.required(path)\n" +
+				"return false if $\".include?(path)\n" +
+				"$\" << path\n" +
+				"$java_require_hook.enter(path)\n" +
+				"begin\n" +
+					"load(path) unless $java_require_hook.load(path)\n" +
+				"rescue Exception\n" +
+					"$\".delete(path)\n" +
+					"raise\n" +
+				"ensure\n" +
+					"$java_require_hook.leave\n" +
+				"end\n" +
+				"true\n" +
+			"end\n" +
+			"private :require, :java_require_without_hook\n" +
+		"end";
+
+	// required by, for a require outside the hooked files
+	static final String APP = "";
+
+	/**
+	 * A ruby file loaded by the hook, as of when it was loaded
+	 */
+	static final class Feature {
+		final String path;
+		final File file;
+		long modified;
+		long size;
+		Feature(String p) {
+			path = p;
+			file = new File(p);
+			modified = file.lastModified();
+			size = file.length();
+		}
+		/**
+		 * @return boolean, true if the file changed since it was loaded
+		 */
+		boolean isChanged() {
+			return file.lastModified() != modified || file.length() != size;
+		}
+	} // Feature
+
+	RubyEngine engine;
+	AotCache aot;
+	ClassLoader loader;
+	LoadPathIndex index;
+	SourceCache sources;
+	List<File> directories = new ArrayList<File>();
+	// guarded by this, features in the order they finished loading
+	LinkedHashMap<String, Feature> features = new LinkedHashMap<String, Feature>();
+	// guarded by this, path to the paths of the files requiring it
+	LinkedHashMap<String, Set<String>> requiredBy = new LinkedHashMap<String, Set<String>>();
+	// the features being loaded by the current thread, innermost first
+	ThreadLocal<LinkedList<Feature>> loading = new ThreadLocal<LinkedList<Feature>>() {
+		protected LinkedList<Feature> initialValue() {
+			return new LinkedList<Feature>();
+		}
+	};
+
+	/**
+	 * @param e, RubyEngine, the engine to hook
+	 * @param loadPath, List (of Strings), the directories whose
+	 * ruby files are resolved by probing, non directories and
+	 * java.class.path entries are skipped
+	 * @param ac, AotCache, loads the files when it is enabled
+	 * @param lpi, LoadPathIndex, when it is enabled, its index of
+	 * loadPath resolves the files
+	 * @param sc, SourceCache, source of the files
+	 */
+    RequireHook(RubyEngine e, List loadPath, AotCache ac, LoadPathIndex lpi, SourceCache sc) {
+    	engine = e;
+    	sources = sc;
+    	if (ac.isEnabled()) {
+    		aot = ac;
+    		loader = ac.classLoader(e.ruby);
+    	}
+    	if (lpi.isEnabled()) {
+    		index = lpi.index(loadPath);
+    	}
+    	for (File dir : hooked(loadPath)) {
+    		if (dir.isDirectory()) {
+    			directories.add(dir);
+    		}
+    	}
+    }
+    /**
+     * NB: an entry of the load path additions which is also
+     * in java.class.path is left to JRuby, e.g. jruby-complete's
+     * standard library, so its files are in $" as JRuby names them.
+     *
+     * @param loadPath, List (of Strings), load path additions
+     * @return List (of Files), absolute, the entries of loadPath
+     * which are not in java.class.path
+     */
+    static List<File> hooked(List loadPath) {
+    	ArrayList classPath = new ArrayList();
+    	ConfigureRubyApp.addPath(classPath, System.getProperty("java.class.path"));
+    	Set<File> skipped = new HashSet<File>();
+    	for (Object o : classPath) {
+    		skipped.add(new File((String)o).getAbsoluteFile());
+    	}
+    	List<File> files = new ArrayList<File>();
+    	for (Object o : loadPath) {
+    		File f = new File((String)o).getAbsoluteFile();
+    		if (!skipped.contains(f)) {
+    			files.add(f);
+    		}
+    	}
+    	return files;
+    }
+    /**
+     * make the hook ruby's require
+     *
+     * @param iro, IRubyO, any IRubyO of the engine
+     */
+    void install(IRubyO iro) {
+    	engine.ruby.getGlobalVariables().set("$java_require_hook",
+    	    engine.converters.javaToRuby(this));
+    	iro.script(REQUIRE);
+    	engine.requireHook = this;
+    }
+    /**
+     * @param name, String, as given to require
+     * @return String, absolute path of the ruby file, or null if
+     * it is not in the load path additions
+     */
+    public String resolve(String name) {
+    	if (null != index) {
+    		return index.resolve(name);
+    	}
+    	String rb = name.endsWith(".rb") ? name : name + ".rb";
+    	if (new File(rb).isAbsolute()) {
+    		return null;
+    	}
+    	for (File dir : directories) {
+    		File f = new File(dir, rb);
+    		if (f.isFile()) {
+    			return f.getPath();
+    		}
+    	}
+    	return null;
+    }
+    /**
+     * @param path, String, from resolve
+     * @return boolean, true if loaded, false if ruby has to
+     * load path from source
+     */
+    public boolean load(String path) throws IOException {
+    	if (null == aot && !sources.isEnabled()) {
+    		return false;
+    	}
+    	ByteBuffer source = sources.get(path);
+    	if (null != aot && aot.load(engine.ruby, loader, path, source)) {
+    		return true;
+    	}
+    	if (!sources.isEnabled()) {
+    		return false;
+    	}
+    	engine.ruby.loadFile(path, new ByteBufferInputStream(source), false);
+    	return true;
+    }
+    /**
+     * the file being loaded by the current thread (or the app
+     * script) requires path
+     *
+     * @param path, String, from resolve
+     */
+    public void required(String path) {
+    	Feature parent = loading.get().peek();
+    	synchronized (this) {
+    		Set<String> s = requiredBy.get(path);
+    		if (null == s) {
+    			s = new LinkedHashSet<String>();
+    			requiredBy.put(path, s);
+    		}
+    		s.add(null == parent ? APP : parent.path);
+    	}
+    }
+    /**
+     * the current thread starts loading path
+     *
+     * @param path, String, from resolve
+     */
+    public void enter(String path) {
+    	loading.get().addFirst(new Feature(path));
+    }
+    /**
+     * the current thread is done loading the file of the
+     * matching enter, successfully or not
+     */
+    public void leave() {
+    	Feature f = loading.get().removeFirst();
+    	synchronized (this) {
+    		if (!features.containsKey(f.path)) {
+    			features.put(f.path, f);
+    		}
+    	}
+    }
+    /**
+     * @return List (of Features), changed since they were loaded,
+     * in the order they were loaded, required files first
+     */
+    synchronized List<Feature> changed() {
+    	List<Feature> changed = new ArrayList<Feature>();
+    	for (Feature f : features.values()) {
+    		if (f.isChanged()) {
+    			changed.add(f);
+    		}
+    	}
+    	return changed;
+    }
+    /**
+     * @return List (of Strings), paths of the files loaded, in
+     * the order they finished loading, required files first
+     */
+    public synchronized List<String> features() {
+    	return new ArrayList<String>(features.keySet());
+    }
+    /**
+     * @param path, String, of a file loaded
+     * @return Set (of Strings), paths of the files which required
+     * path, "" for a require outside them (e.g. the app script)
+     */
+    public synchronized Set<String> requiredBy(String path) {
+    	Set<String> s = requiredBy.get(path);
+    	return null == s ? new LinkedHashSet<String>() : new LinkedHashSet<String>(s);
+    }
+    /**
+     * load a changed file again, the files it requires are
+     * not, unless they changed too
+     *
+     * @param f, Feature, from changed
+     */
+    void reload(Feature f) throws IOException {
+    	Feature now = new Feature(f.path);
+    	loading.get().addFirst(now);
+    	try {
+    		if (!load(f.path)) {
+    			InputStream is = new FileInputStream(f.file);
+    			try {
+    				engine.ruby.loadFile(f.path, is, false);
+    			}
+    			finally {
+    				is.close();
+    			}
+    		}
+    	}
+    	finally {
+    		loading.get().removeFirst();
+    		synchronized (this) {
+    			// as of before the load, a change during the load is seen next time
+    			f.modified = now.modified;
+    			f.size = now.size;
+    		}
+    	}
+    }
+} // RequireHook
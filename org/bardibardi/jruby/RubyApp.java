@@ -3,42 +3,151 @@ package org.bardibardi.jruby;
 import org.jruby.javasupport.JavaEmbedUtils;
 import org.jruby.runtime.builtin.IRubyObject;
 import com.google.inject.Inject;
-import com.google.inject.Singleton;
 
 /**
  * The RubyApp (via IRubyO) is meant to be the
  * starting point for using JRuby from java.
  * A Guice Injector is used to construct/inject
- * a singleton RubyApp when creating an IRubyO.
- * 
+ * a RubyApp when creating an IRubyO.
+ * <p>
+ * Each RubyApp creates its own JRuby engine (see RubyEngine).
+ * RubyAppGuiceModule binds IRubyO to RubyApp as a singleton.
+ * Injecting RubyApp itself (or Provider&lt;RubyApp&gt;)
+ * creates a new RubyApp each time, as used by RubyAppPool.
+ *
  * @author Bardi Einarsson, bardibardi.org
  *
  */
-@Singleton
 public class RubyApp extends RubyO implements IRubyO {
+	WarmupReport warmupReport;
+
 	/**
 	 * The RubyApp constructor is designed to be called
-	 * by a Guice Injector exactly once.
-	 * It creates ruby, a global JRuby engine, gets nil, the ruby
+	 * by a Guice Injector.
+	 * It creates ruby, a JRuby engine, gets nil, the ruby
 	 * nil and gets topSelf, the JRuby engine's top level object.
-	 * The icra parameter is used to configure the 
+	 * The icra parameter is used to configure the
 	 * JRuby engines load path ($:) and to get the script
 	 * which is run to create the wrapped IRubyObject.
-	 * 
+	 * <p>
+	 * The sc parameter is the cache of parsed scripts used by
+	 * script(String). The cr parameter converts between
+	 * ruby and java objects. The jgc parameter makes the
+	 * javaGlobal... store a cache, when it is enabled.
+	 * <p>
+	 * The features parameter holds the optional features. The
+	 * RubyOCache, when it is enabled, makes rubyO... return the
+	 * same IRubyO for the same IRubyObject. The RubyOMetrics
+	 * times the calls, when it is enabled, the RubyProfiler
+	 * samples their ruby stacks, when it is running, the
+	 * SlowCallLog logs the slow ones, when it is enabled.
+	 * <p>
+	 * When the AotCache, LoadPathIndex, SourceCache or HotReload is
+	 * enabled, a RequireHook is installed before the app script is
+	 * run, so the ruby files in the load path additions are resolved
+	 * by the index and/or loaded compiled or from mapped source, and/or
+	 * watched by HotReload (after the app script) to be loaded again
+	 * when they change.
+	 * <p>
+	 * Last, the configured warmup is run, so the
+	 * RubyApp is only handed out (by Guice, a RubyAppPool, ...)
+	 * once JRuby has compiled the methods it exercises.
+	 *
 	 * @param icra, IConfigureRubyApp injected by Guice
+	 * @param sc, ScriptCache injected by Guice
+	 * @param cr, ConverterRegistry injected by Guice
+	 * @param jgc, JavaGlobalCache injected by Guice
+	 * @param features, RubyAppFeatures injected by Guice
 	 */
     @Inject
-    public RubyApp(IConfigureRubyApp icra) {
-    	super(null); // Java nonsense
-        ruby = JavaEmbedUtils.initialize(icra.loadPathAdditions());
+    public RubyApp(IConfigureRubyApp icra, ScriptCache sc, ConverterRegistry cr,
+    	JavaGlobalCache jgc, RubyAppFeatures features) {
+    	super(new RubyEngine(JavaEmbedUtils.initialize(icra.loadPathAdditions()), sc, cr, jgc,
+    	    features), null); // Java nonsense
         // script is an engine method -- does not require robj
-        nil = script("nil");
+        engine.nil = script("nil");
         // script is an engine method -- does not require robj
         IRubyObject ts = script("self");
+        if (features.isRequireHooked()) {
+        	new RequireHook(engine, icra.loadPathAdditions(), features.aot,
+        	    features.loadPathIndex, features.sources).install(this);
+        }
         // script is an engine method -- does not require robj
         robj = script(icra.appScript());
         // If this (java this) is wrapping the top level ruby object,
         // do not create an extra IRubyO.
-        topSelf = ts.equals(robj) ? this : rubyO(ts);
+        engine.topSelf = ts.equals(robj) ? this : rubyO(ts);
+        if (null != engine.rubyOs) {
+        	// rubyO of this RubyApp's IRubyObject returns this RubyApp
+        	engine.rubyOs.intern(this);
+        }
+        defJavaGlobal();
+        if (features.hotReload.isEnabled()) {
+        	features.hotReload.watch(engine);
+        }
+        warmupReport = WarmupReport.run(this, features.warmup);
+    }
+    /**
+     * Shut down this RubyApp's JRuby engine. Neither this
+     * RubyApp nor any IRubyO it returned may be used afterwards.
+     */
+    public void terminate() {
+    	engine.terminate();
+    }
+    /**
+     * @return A WarmupReport, latencies of the warmup run
+     * by the constructor
+     */
+    public WarmupReport warmupReport() {
+    	return warmupReport;
+    }
+    /**
+     * @return A JavaGlobalCache, hit ratio and eviction statistics
+     * of the javaGlobal... values, or null when not enabled
+     */
+    public JavaGlobalCache javaGlobalCache() {
+    	return engine.javaGlobals.cache;
+    }
+    /**
+     * @return A RubyOCache, hit statistics of the IRubyO's
+     * returned by rubyO..., or null when not enabled
+     */
+    public RubyOCache rubyOCache() {
+    	return engine.rubyOs;
+    }
+    /**
+     * @return A RubyOMetrics, call counts and latencies, shared
+     * by the RubyApp's of the Injector
+     */
+    public RubyOMetrics metrics() {
+    	return engine.metrics;
+    }
+    /**
+     * @return A RubyProfiler, ruby stack samples, shared
+     * by the RubyApp's of the Injector
+     */
+    public RubyProfiler profiler() {
+    	return engine.profiler;
+    }
+    /**
+     * @return A SlowCallLog, the slow calls, shared
+     * by the RubyApp's of the Injector
+     */
+    public SlowCallLog slowCallLog() {
+    	return engine.slowCalls;
+    }
+    /**
+     * @return A HotReload, reload counts and times, shared
+     * by the RubyApp's of the Injector, or null when not enabled
+     */
+    public HotReload hotReload() {
+    	return engine.hotReload;
+    }
+    /**
+     * @return A RequireHook, the ruby files loaded through it
+     * and which file required which, or null when not installed
+     */
+    public RequireHook requireHook() {
+    	return engine.requireHook;
     }
 } // RubyApp
@@ -0,0 +1,66 @@
+package org.bardibardi.jruby;
+
+import com.google.inject.Inject;
+
+/**
+ * The optional features of a RubyApp, each turned on and
+ * configured by its own java properties (see
+ * RubyAppGuiceModule): the warmup, the AotCache, the
+ * LoadPathIndex, the SourceCache, the RubyOCache, the
+ * RubyOMetrics, the RubyProfiler, the SlowCallLog and
+ * HotReload.
+ * <p>
+ * Injected into RubyApp as one parameter, so a new feature
+ * is added here, not to the RubyApp constructor.
+ * <p>
+ * Not a singleton, each RubyApp gets its own RubyOCache.
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+public class RubyAppFeatures {
+	IConfigureWarmup warmup;
+	AotCache aot;
+	LoadPathIndex loadPathIndex;
+	SourceCache sources;
+	RubyOCache rubyOs;
+	RubyOMetrics metrics;
+	RubyProfiler profiler;
+	SlowCallLog slowCalls;
+	HotReload hotReload;
+
+	/**
+	 * constructor used by Guice Injector
+	 *
+	 * @param icw, IConfigureWarmup, warmup run by the RubyApp constructor
+	 * @param ac, AotCache, loads compiled ruby files, when enabled
+	 * @param lpi, LoadPathIndex, resolves ruby files, when enabled
+	 * @param sc, SourceCache, source of the ruby files
+	 * @param roc, RubyOCache, identity cache of RubyO's, when enabled
+	 * @param rom, RubyOMetrics, call timing, when enabled
+	 * @param rp, RubyProfiler, samples ruby stacks, when running
+	 * @param scl, SlowCallLog, logs slow calls, when enabled
+	 * @param hr, HotReload, loads changed ruby files again, when enabled
+	 */
+    @Inject
+    public RubyAppFeatures(IConfigureWarmup icw, AotCache ac, LoadPathIndex lpi,
+    	SourceCache sc, RubyOCache roc, RubyOMetrics rom, RubyProfiler rp,
+    	SlowCallLog scl, HotReload hr) {
+    	warmup = icw;
+    	aot = ac;
+    	loadPathIndex = lpi;
+    	sources = sc;
+    	rubyOs = roc;
+    	metrics = rom;
+    	profiler = rp;
+    	slowCalls = scl;
+    	hotReload = hr;
+    }
+    /**
+     * @return boolean, true if a RequireHook has to be installed
+     */
+    boolean isRequireHooked() {
+    	return aot.isEnabled() || loadPathIndex.isEnabled() || sources.isEnabled() ||
+    	    hotReload.isEnabled();
+    }
+} // RubyAppFeatures
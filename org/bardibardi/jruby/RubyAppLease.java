@@ -0,0 +1,57 @@
+package org.bardibardi.jruby;
+
+import java.io.Closeable;
+
+/**
+ * A RubyApp checked out of an IRubyAppPool, checked back
+ * in by close. Meant to be used as:
+ * <code>
+ * RubyAppLease lease = pool.lease();
+ * try {
+ *     lease.rubyO().send(...);
+ * }
+ * finally {
+ *     lease.close();
+ * }
+ * </code>
+ * or with java 7 and later as a try-with-resources resource.
+ * <p>
+ * close may be called more than once, only the first call
+ * checks the RubyApp back in.
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+public class RubyAppLease implements Closeable {
+	IRubyAppPool pool;
+	IRubyO rubyO;
+	boolean isClosed = false;
+
+	/**
+	 * @param p, IRubyAppPool, pool iro was checked out of
+	 * @param iro, IRubyO, the checked out RubyApp
+	 */
+    public RubyAppLease(IRubyAppPool p, IRubyO iro) {
+    	pool = p;
+    	rubyO = iro;
+    }
+    /**
+     * @return An IRubyO, the leased RubyApp
+     */
+    public IRubyO rubyO() {
+    	if (isClosed) {
+    		throw new IllegalStateException("RubyAppLease is closed");
+    	}
+    	return rubyO;
+    }
+    /**
+     * check the leased RubyApp back in to its pool
+     */
+    public synchronized void close() {
+    	if (isClosed) {
+    		return;
+    	}
+    	isClosed = true;
+    	pool.checkin(rubyO);
+    }
+} // RubyAppLease
@@ -0,0 +1,148 @@
+package org.bardibardi.jruby;
+
+import java.util.IdentityHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.name.Named;
+
+/**
+ * Main implementation of IRubyAppPool.
+ * All "ruby.app.pool.size" RubyApp's are created, in turn,
+ * by the constructor, each by the RubyApp Provider and
+ * so each from the same IConfigureRubyApp.
+ * <p>
+ * "ruby.app.pool.checkout.timeout.millis" is how long
+ * checkout() waits for a RubyApp to be checked in.
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+public class RubyAppPool implements IRubyAppPool {
+	long created;
+	long timeoutMillis;
+	Member[] members;
+	IdentityHashMap<IRubyO, Member> memberOf = new IdentityHashMap<IRubyO, Member>();
+	LinkedBlockingQueue<Member> idle = new LinkedBlockingQueue<Member>();
+
+	/**
+	 * A RubyApp of the pool and its utilization
+	 */
+	static class Member {
+		RubyApp app;
+		boolean isCheckedOut = false;
+		long checkouts = 0;
+		long checkedOutAt = 0;
+		long busyNanos = 0;
+		Member(RubyApp ra) {
+			app = ra;
+		}
+		synchronized void checkout() {
+			isCheckedOut = true;
+			++checkouts;
+			checkedOutAt = System.nanoTime();
+		}
+		synchronized boolean checkin() {
+			if (!isCheckedOut) {
+				return false;
+			}
+			isCheckedOut = false;
+			busyNanos += System.nanoTime() - checkedOutAt;
+			return true;
+		}
+		synchronized long checkouts() {
+			return checkouts;
+		}
+		synchronized long busyNanos(long now) {
+			return isCheckedOut ? busyNanos + now - checkedOutAt : busyNanos;
+		}
+	}
+
+	/**
+	 * constructor used by Guice Injector
+	 *
+	 * @param rap, Provider of RubyApp, creates a new RubyApp per get()
+	 * @param size, int, number of RubyApp's in the pool
+	 * @param timeout, long, milliseconds checkout() waits
+	 */
+    @Inject
+    public RubyAppPool(Provider<RubyApp> rap,
+    		@Named("ruby.app.pool.size") int size,
+    		@Named("ruby.app.pool.checkout.timeout.millis") long timeout) {
+    	if (size < 1) {
+    		throw new IllegalArgumentException("ruby.app.pool.size must be at least 1: " + size);
+    	}
+    	timeoutMillis = timeout;
+    	members = new Member[size];
+    	for (int i = 0; i < size; ++i) {
+    		members[i] = new Member(rap.get());
+    		memberOf.put(members[i].app, members[i]);
+    		idle.add(members[i]);
+    	}
+    	created = System.nanoTime();
+    }
+    public IRubyO checkout() {
+    	IRubyO iro = checkout(timeoutMillis);
+    	if (null == iro) {
+    		throw new IllegalStateException("no RubyApp checked in within " +
+    		    timeoutMillis + " milliseconds");
+    	}
+    	return iro;
+    }
+    public IRubyO checkout(long timeout) {
+    	Member m;
+    	try {
+    	    m = idle.poll(timeout, TimeUnit.MILLISECONDS);
+    	}
+    	catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    		return null;
+    	}
+    	if (null == m) {
+    		return null;
+    	}
+    	m.checkout();
+    	return m.app;
+    }
+    public void checkin(IRubyO iro) {
+    	Member m = memberOf.get(iro);
+    	if (null == m) {
+    		throw new IllegalArgumentException("not a RubyApp of this pool");
+    	}
+    	if (!m.checkin()) {
+    		throw new IllegalArgumentException("RubyApp is not checked out");
+    	}
+    	idle.add(m);
+    }
+    public RubyAppLease lease() {
+    	return new RubyAppLease(this, checkout());
+    }
+    public int size() {
+    	return members.length;
+    }
+    public int available() {
+    	return idle.size();
+    }
+    public long checkouts(int i) {
+    	return members[i].checkouts();
+    }
+    public double utilization(int i) {
+    	long now = System.nanoTime();
+    	long elapsed = now - created;
+    	if (elapsed <= 0) {
+    		return 0.0;
+    	}
+    	return (double)members[i].busyNanos(now) / elapsed;
+    }
+    public String toString() {
+    	StringBuilder sb = new StringBuilder("RubyAppPool size: " + size() +
+    	    " available: " + available());
+    	for (int i = 0; i < size(); ++i) {
+    		sb.append("\n  " + i + ": checkouts: " + checkouts(i) +
+    		    " utilization: " + utilization(i));
+    	}
+    	return sb.toString();
+    }
+} // RubyAppPool
@@ -0,0 +1,108 @@
+package org.bardibardi.jruby;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.jruby.Ruby;
+import org.jruby.javasupport.JavaEmbedUtils;
+import org.jruby.runtime.builtin.IRubyObject;
+
+/**
+ * The state of one JRuby engine, shared by the RubyApp
+ * which created it and by every RubyO wrapping one of
+ * its IRubyObject's.
+ * <p>
+ * Before there was RubyEngine this state was kept in
+ * static fields of RubyO, so there could only be one
+ * JRuby engine per JVM.
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+public class RubyEngine {
+	Ruby ruby;
+	IRubyObject nil;
+	IRubyO topSelf;
+	ScriptCache scriptCache;
+	CallSiteCache callSites;
+	Converters converters;
+	JavaGlobals javaGlobals;
+	// null unless enabled
+	RubyOCache rubyOs;
+	RubyOMetrics metrics;
+	RubyProfiler profiler;
+	SlowCallLog slowCalls;
+	// null unless RubyApp installed one
+	RequireHook requireHook;
+	// null unless watched by HotReload
+	HotReload hotReload;
+	ReentrantReadWriteLock reloadLock;
+	volatile boolean isDefJavaGlobal = false;
+	volatile boolean isDefSendBatch = false;
+
+	/**
+	 * @param r, Ruby, a JRuby engine
+	 * @param sc, ScriptCache, cache of parsed scripts for r
+	 * @param cr, ConverterRegistry, converters between ruby and java
+	 * @param jgc, JavaGlobalCache, eviction and expiry of javaGlobal... values
+	 * @param f, RubyAppFeatures, the RubyOCache, used when enabled, the
+	 * RubyOMetrics, RubyProfiler and SlowCallLog
+	 */
+    RubyEngine(Ruby r, ScriptCache sc, ConverterRegistry cr, JavaGlobalCache jgc,
+    	RubyAppFeatures f) {
+    	RubyOCache roc = f.rubyOs;
+    	ruby = r;
+    	metrics = f.metrics;
+    	profiler = f.profiler;
+    	slowCalls = f.slowCalls;
+    	metrics.attach();
+    	profiler.attach();
+    	slowCalls.attach();
+    	scriptCache = sc;
+    	callSites = new CallSiteCache(r);
+    	converters = new Converters(r, cr);
+    	javaGlobals = new JavaGlobals(this, jgc);
+    	if (roc.isEnabled()) {
+    		rubyOs = roc;
+    		roc.engine = this;
+    	}
+    }
+    /**
+     * @param irobj, IRubyObject, belonging to this engine
+     * @return RubyO, wrapping irobj, cached when the RubyOCache is enabled
+     */
+    RubyO rubyO(IRubyObject irobj) {
+    	if (null == rubyOs) {
+    		return new RubyO(this, irobj);
+    	}
+    	return rubyOs.rubyO(irobj);
+    }
+    /**
+     * @return boolean, true when sends and scripts have to go
+     * through the RubyOMetrics, RubyProfiler and SlowCallLog,
+     * or hold the reloadLock
+     */
+    boolean isInstrumented() {
+    	return metrics.enabled || profiler.isRunning || slowCalls.enabled ||
+    	    null != reloadLock;
+    }
+    /**
+     * Shut down the JRuby engine. Neither the engine nor any
+     * IRubyO belonging to it may be used afterwards.
+     */
+    void terminate() {
+    	if (null != hotReload) {
+    		hotReload.unwatch(this);
+    	}
+    	metrics.detach();
+    	profiler.detach();
+    	slowCalls.detach();
+    	scriptCache.clear();
+    	callSites.clear();
+    	converters.clear();
+    	javaGlobals.clear();
+    	if (null != rubyOs) {
+    		rubyOs.clear();
+    	}
+    	JavaEmbedUtils.terminate(ruby);
+    }
+} // RubyEngine
@@ -0,0 +1,64 @@
+package org.bardibardi.jruby;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The Future returned by the IAsyncRubyO methods.
+ * Records when it was submitted, started and done so the
+ * queueing latency (submitted to started) and completion
+ * latency (submitted to done) of each call can be measured.
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+public class RubyFuture<V> extends FutureTask<V> {
+	AsyncRubyO async;
+	long submittedAt;
+	volatile long startedAt = 0;
+	volatile long doneAt = 0;
+
+	/**
+	 * @param ar, AsyncRubyO, collects the latencies
+	 * @param c, Callable, the ruby call
+	 */
+    RubyFuture(AsyncRubyO ar, Callable<V> c) {
+    	super(c);
+    	async = ar;
+    	submittedAt = System.nanoTime();
+    }
+    public void run() {
+    	startedAt = System.nanoTime();
+    	super.run();
+    }
+    // doneAt is set before the result is visible to get()
+    protected void set(V v) {
+    	doneAt = System.nanoTime();
+    	super.set(v);
+    }
+    protected void setException(Throwable t) {
+    	doneAt = System.nanoTime();
+    	super.setException(t);
+    }
+    protected void done() {
+    	if (0 != doneAt) {
+    		async.record(this);
+    	}
+    }
+    /**
+     * @return A long, nanoseconds from submission until the call
+     * started, -1 if it has not started
+     */
+    public long queueNanos() {
+    	long s = startedAt;
+    	return 0 == s ? -1 : s - submittedAt;
+    }
+    /**
+     * @return A long, nanoseconds from submission until the call
+     * was done, -1 if it is not done
+     */
+    public long completionNanos() {
+    	long d = doneAt;
+    	return 0 == d ? -1 : d - submittedAt;
+    }
+} // RubyFuture
@@ -1,8 +1,27 @@
 package org.bardibardi.jruby;
 
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+
 import org.jruby.Ruby;
-import org.jruby.javasupport.JavaEmbedUtils;
+import org.jruby.RubyArray;
+import org.jruby.RubyBoolean;
+import org.jruby.RubyException;
+import org.jruby.RubyFixnum;
+import org.jruby.RubyFloat;
+import org.jruby.RubyString;
+import org.jruby.ast.Node;
+import org.jruby.evaluator.ASTInterpreter;
+import org.jruby.exceptions.JumpException;
+import org.jruby.exceptions.RaiseException;
+import org.jruby.runtime.Block;
+import org.jruby.runtime.DynamicScope;
+import org.jruby.runtime.ThreadContext;
 import org.jruby.runtime.builtin.IRubyObject;
+import org.jruby.util.ByteList;
 /*
 Taken from part of org.jruby.javasupport.JavaEmbedUtils
     public static Object invokeMethod(Ruby runtime, Object receiver, String method, Object args[], Class returnType) {
@@ -32,159 +51,461 @@ Taken from part of org.jruby.javasupport.JavaEmbedUtils
     }
 
 
+Taken from part of org.jruby.Ruby
+    public IRubyObject evalScriptlet(String script) {
+        ThreadContext context = getCurrentContext();
+        Node node = parseEval(script, "<script>", context.getCurrentScope(), 0);
+
+        try {
+            return ASTInterpreter.eval(this, context, node, context.getFrameSelf(), Block.NULL_BLOCK);
+        } catch (JumpException.ReturnJump rj) {
+        ...
+    }
+
 */
 /**
- * Main implementation of IRubyO, which will not function
- * correctly unless statics Ruby ruby, IRubyObject nil and
- * IRubyO topSelf have been initialized (can be done by creating
- * a RubyApp).
+ * Main implementation of IRubyO. Every RubyO belongs to
+ * a RubyEngine, the state of one JRuby engine (Ruby ruby,
+ * IRubyObject nil, IRubyO topSelf, ...), which is created
+ * by a RubyApp. The IRubyO's returned by a RubyO belong to
+ * the same RubyEngine, so several RubyApp's, each with its
+ * own JRuby engine, can be used in one JVM.
  * 
  * @author Bardi Einarsson, bardibardi.org
  */
 public class RubyO implements IRubyO {
-    static protected Ruby ruby;
-    static boolean isDefJavaGlobal = false;
-    static IRubyObject nil;
-    static IRubyO topSelf;
+    protected RubyEngine engine;
     protected IRubyObject robj;
-    protected RubyO(IRubyObject irobj) {
+    protected RubyO(RubyEngine e, IRubyObject irobj) {
+    	engine = e;
     	robj = irobj;
     }
+    static Object[] NO_PARAMS = new Object[] {};
     /**
-     * Filter call to JavaEmbedUtils.invokeMethod using global
-     * JRuby engine, ruby and wrapped IRubyObject, robj.
+     * Same as JavaEmbedUtils.invokeMethod using the
+     * JRuby engine, engine.ruby and wrapped IRubyObject, robj,
+     * except that the ruby method is taken from callSites,
+     * the inline cache of resolved methods.
      * <p>
      * Conversions done:
      * <p>
      * params null becomes new Object[] {}
      * (eliminates a surprise)
      * <p>
-     * single param of null becomes ruby nil
-     * (probably unnecessary)
+     * param of null becomes ruby nil
+     * <p>
+     * param of IRubyO becomes the wrapped IRubyObject
      * <p>
-     * single param of IRubyO becomes the wrapped IRubyObject
+     * other params are converted by engine.converters,
+     * see ConverterRegistry (params itself is not changed)
      * 
      * @param method, String, ruby method name 
      * @param params, Object[], unconverted parameters
      * @param clazz, Class to convert result to
      * @return result of IRubyObject from method, converted to clazz
+     * by engine.converters
      */
     public Object invokeMethod(String method, Object[] params, Class clazz) {
     	if (null == params) {
-    		params = new Object[] {};
+    		params = NO_PARAMS;
     	}
+    	return toJava(method, send(method, params), clazz);
+    }
+    /**
+     * invokeMethod without the result conversion, timed by
+     * engine.metrics, when enabled: the parameter conversion
+     * and the ruby call separately, sampled by engine.profiler,
+     * when running, and watched by engine.slowCalls, when enabled.
+     * The ruby call holds engine.reloadLock, when watched by HotReload
+     *
+     * @param method, String, ruby method name
+     * @param params, Object[], unconverted parameters, not null
+     * @return IRubyObject, result of method
+     */
+    IRubyObject timedSend(String method, Object[] params) {
+    	RubyOMetrics.Timer t = engine.metrics.enabled ? engine.metrics.send(method) : null;
+    	long start = System.nanoTime();
+    	IRubyObject[] args = new IRubyObject[params.length];
     	for (int i = 0; i < params.length; ++i) {
-    	    Object obj = params[i];
-    	    if (obj instanceof IRubyO) {
-    	        params[i] = ((IRubyO)obj).unwrap();
-    	    }
-    		if (null == obj) {
-    			params[i] = nil;
+    		args[i] = toRuby(params[i]);
+    	}
+    	long converted = System.nanoTime();
+    	if (null != t) {
+    		t.conversion(converted - start);
+    	}
+    	ThreadContext context = engine.ruby.getCurrentContext();
+    	boolean isProfiled = engine.profiler.enter(context, "send", method);
+    	long slowNanos = engine.slowCalls.enabled ? engine.slowCalls.thresholdNanos(method) : 0;
+    	SlowCallLog.InFlight slow = slowNanos > 0 ?
+    	    engine.slowCalls.enter(context, start, slowNanos) : null;
+    	Lock reload = null == engine.reloadLock ? null : engine.reloadLock.readLock();
+    	if (null != reload) {
+    		reload.lock();
+    	}
+    	boolean isError = true;
+    	try {
+    		IRubyObject result = engine.callSites.call(context, robj, method, args);
+    		isError = false;
+    		return result;
+    	}
+    	finally {
+    		if (null != reload) {
+    			reload.unlock();
+    		}
+    		long executed = System.nanoTime() - converted;
+    		if (isProfiled) {
+    			engine.profiler.exit();
+    		}
+    		if (null != t) {
+    			t.dispatch(executed, isError);
+    		}
+    		if (slowNanos > 0) {
+    			engine.slowCalls.exit(slow);
+    			if (converted - start + executed > slowNanos) {
+    				engine.slowCalls.log("send " + method, slowNanos, converted - start,
+    				    executed, SlowCall.shapes(params), slow, isError);
+    			}
     		}
     	}
-    	return JavaEmbedUtils.invokeMethod(ruby, robj, method, params, clazz);
+    }
+    /**
+     * convert the result of a send, timed by engine.metrics
+     * when enabled
+     *
+     * @param method, String, ruby method name
+     * @param result, IRubyObject, result of method
+     * @param clazz, Class to convert result to
+     * @return result converted to clazz by engine.converters
+     */
+    Object toJava(String method, IRubyObject result, Class clazz) {
+    	if (!engine.metrics.enabled) {
+    		return engine.converters.rubyToJava(result, clazz);
+    	}
+    	long start = System.nanoTime();
+    	try {
+    		return engine.converters.rubyToJava(result, clazz);
+    	}
+    	finally {
+    		engine.metrics.send(method).conversion(System.nanoTime() - start);
+    	}
+    }
+    /**
+     * engine.converters.rubyToJava, timed by engine.metrics
+     * when enabled
+     */
+    Object rubyToJava(IRubyObject irobj, Class clazz) {
+    	if (!engine.metrics.enabled) {
+    		return engine.converters.rubyToJava(irobj, clazz);
+    	}
+    	RubyOMetrics.Timer t = engine.metrics.javaObject(clazz);
+    	long start = System.nanoTime();
+    	boolean isError = true;
+    	try {
+    		Object result = engine.converters.rubyToJava(irobj, clazz);
+    		isError = false;
+    		return result;
+    	}
+    	finally {
+    		t.conversion(System.nanoTime() - start);
+    		t.count(isError);
+    	}
+    }
+    /**
+     * convert a send parameter as described for invokeMethod
+     * 
+     * @param obj, Object, unconverted parameter
+     * @return IRubyObject, converted parameter
+     */
+    IRubyObject toRuby(Object obj) {
+    	if (null == obj) {
+    		return engine.nil;
+    	}
+    	if (obj instanceof IRubyO) {
+    		return ((IRubyO)obj).unwrap();
+    	}
+    	return engine.converters.javaToRuby(obj);
     }
 
     // START PSEUDO STATIC
     public IRubyO topSelf() {
-    	return topSelf;
+    	return engine.topSelf;
     }
     public IRubyObject nil() {
-    	return nil;
+    	return engine.nil;
     }
     public boolean isNil(IRubyObject irobj) {
 //    	return null == javaObject(Object.class, irobj);
-    	return nil.equals(irobj);
+    	return engine.nil.equals(irobj);
     }
     public boolean isNil(IRubyO iro) {
 //    	return null == javaObject(Object.class, irobj);
-    	return nil.equals(iro.unwrap());
+    	return engine.nil.equals(iro.unwrap());
     }
     public IRubyO rubyO(IRubyObject irobj) {
-    	return new RubyO(irobj);
-    }
-    static String JAVA_GLOBAL_HASH = 
-    	"$java_global_hash = {}";
-    static String JAVA_GLOBAL =
-    	"def java_global(name)\n" +
-	        "$java_global_hash[name]\n" +
-        "end";
-    static String JAVA_GLOBAL_SET =
-    	"def java_global_set(name, x)\n" +
-		    "return nil if $java_global_hash[name]\n" +
-		    "$java_global_hash[name] = x\n" +
-		    "name\n" +
-	    "end";
-    static String JAVA_GLOBAL_REMOVE =
-    	"def java_global_remove(name)\n" +
-		    "return nil unless $java_global_hash[name]\n" +
-		    "$java_global_hash[name] = nil\n" +
-		    "name\n" +
-	    "end";
+    	return engine.rubyO(irobj);
+    }
     /**
-     * Make sure that the ruby scripts supporting
-     * the javaGlobal... engine methods have been
-     * run.
+     * Make sure that $java_global is the ruby module of the
+     * engine's JavaGlobals and that the ruby methods using it
+     * have been defined (see JavaGlobals.defineInRuby). Called
+     * by the RubyApp constructor,
+     * the javaGlobal... engine methods do not need it.
      */
     public void defJavaGlobal() {
-    	if (isDefJavaGlobal) {
+    	if (engine.isDefJavaGlobal) {
     		return;
     	}
-        script(JAVA_GLOBAL_HASH);
-        script(JAVA_GLOBAL);
-        script(JAVA_GLOBAL_SET);
-        script(JAVA_GLOBAL_REMOVE);
-        isDefJavaGlobal = true;
+    	synchronized (engine) {
+        	if (engine.isDefJavaGlobal) {
+        		return;
+        	}
+    		engine.javaGlobals.defineInRuby();
+    		engine.isDefJavaGlobal = true;
+    	}
     }
     public String javaGlobalSet(String key, Object obj) {
-    	defJavaGlobal();
-    	return (String)send(String.class, "java_global_set", key, obj);
+    	return engine.javaGlobals.set(key, obj);
+    }
+    public IRubyObject javaGlobalPut(String key, Object obj) {
+    	return engine.javaGlobals.put(key, obj);
+    }
+    public boolean javaGlobalReplace(String key, IRubyObject expected, Object obj) {
+    	return engine.javaGlobals.replace(key, expected, obj);
     }
     public IRubyObject javaGlobal(String key) {
-    	defJavaGlobal();
-    	return send("java_global", key);
+    	return engine.javaGlobals.get(key);
     }
     public Object javaGlobal(Class clazz, String key) {
-    	defJavaGlobal();
-    	return send(clazz, "java_global", key);
+    	return javaObject(clazz, engine.javaGlobals.get(key));
     }
     public String javaGlobalRemove(String key) {
-    	defJavaGlobal();
-    	return stringFromSend("java_global_remove", key);
+    	return engine.javaGlobals.remove(key);
+    }
+    public Map<String, IRubyObject> javaGlobalGetAll(Collection<String> keys) {
+    	return engine.javaGlobals.getAll(keys);
+    }
+    public void javaGlobalPutAll(Map<String, ?> m) {
+    	engine.javaGlobals.putAll(m);
     }
     public IRubyObject rubyObject(Object obj) {
-    	return JavaEmbedUtils.javaToRuby(ruby, obj);
+    	return engine.converters.javaToRuby(obj);
+    }
+    public IRubyObject rubyArray(long[] a) {
+    	IRubyObject[] elements = new IRubyObject[a.length];
+    	for (int i = 0; i < a.length; ++i) {
+    		elements[i] = RubyFixnum.newFixnum(engine.ruby, a[i]);
+    	}
+    	return RubyArray.newArrayNoCopy(engine.ruby, elements);
+    }
+    public IRubyObject rubyArray(int[] a) {
+    	IRubyObject[] elements = new IRubyObject[a.length];
+    	for (int i = 0; i < a.length; ++i) {
+    		elements[i] = RubyFixnum.newFixnum(engine.ruby, a[i]);
+    	}
+    	return RubyArray.newArrayNoCopy(engine.ruby, elements);
+    }
+    public IRubyObject rubyArray(double[] a) {
+    	IRubyObject[] elements = new IRubyObject[a.length];
+    	for (int i = 0; i < a.length; ++i) {
+    		elements[i] = RubyFloat.newFloat(engine.ruby, a[i]);
+    	}
+    	return RubyArray.newArrayNoCopy(engine.ruby, elements);
+    }
+    static RubyArray rubyArray(IRubyObject irobj) {
+    	if (irobj instanceof RubyArray) {
+    		return (RubyArray)irobj;
+    	}
+    	throw new ClassCastException("ruby " + rubyClassName(irobj) + " is not an Array");
+    }
+    public int fill(long[] a, IRubyObject rubyArray) {
+    	RubyArray ra = rubyArray(rubyArray);
+    	int n = Math.min(a.length, ra.getLength());
+    	for (int i = 0; i < n; ++i) {
+    		a[i] = longValue(ra.entry(i));
+    	}
+    	return n;
+    }
+    public int fill(int[] a, IRubyObject rubyArray) {
+    	RubyArray ra = rubyArray(rubyArray);
+    	int n = Math.min(a.length, ra.getLength());
+    	for (int i = 0; i < n; ++i) {
+    		a[i] = intValue(ra.entry(i));
+    	}
+    	return n;
+    }
+    public int fill(double[] a, IRubyObject rubyArray) {
+    	RubyArray ra = rubyArray(rubyArray);
+    	int n = Math.min(a.length, ra.getLength());
+    	for (int i = 0; i < n; ++i) {
+    		a[i] = doubleValue(ra.entry(i));
+    	}
+    	return n;
+    }
+    public IRubyObject rubyView(long[] a) {
+    	return engine.converters.javaToRuby(new LongArrayView(a));
+    }
+    public IRubyObject rubyView(int[] a) {
+    	return engine.converters.javaToRuby(new IntArrayView(a));
+    }
+    public IRubyObject rubyView(double[] a) {
+    	return engine.converters.javaToRuby(new DoubleArrayView(a));
+    }
+    public IRubyObject rubyString(byte[] utf8) {
+    	return RubyString.newStringShared(engine.ruby, new ByteList(utf8, false));
+    }
+    public IRubyObject rubyString(ByteBuffer utf8) {
+    	if (utf8.hasArray()) {
+    		return RubyString.newStringShared(engine.ruby, new ByteList(utf8.array(),
+    		    utf8.arrayOffset() + utf8.position(), utf8.remaining(), false));
+    	}
+    	byte[] b = new byte[utf8.remaining()];
+    	utf8.duplicate().get(b);
+    	return rubyString(b);
+    }
+    static ByteList byteList(IRubyObject irobj) {
+    	if (irobj instanceof RubyString) {
+    		return ((RubyString)irobj).getByteList();
+    	}
+    	throw new ClassCastException("ruby " + rubyClassName(irobj) + " is not a String");
+    }
+    public byte[] bytes(IRubyObject rubyString) {
+    	return byteList(rubyString).bytes();
+    }
+    public ByteBuffer byteBuffer(IRubyObject rubyString) {
+    	ByteList bl = byteList(rubyString);
+    	return ByteBuffer.wrap(bl.bytes, bl.begin, bl.realSize).slice().asReadOnlyBuffer();
     }
     public Object javaObject(Class clazz, IRubyO iro) {
-    	return JavaEmbedUtils.rubyToJava(ruby, iro.unwrap(), clazz);
+    	return rubyToJava(iro.unwrap(), clazz);
     }
     public Object javaObject(Class clazz, IRubyObject irobj) {
-    	return JavaEmbedUtils.rubyToJava(ruby, irobj, clazz);
+    	return rubyToJava(irobj, clazz);
     }
     public Object script(Class clazz, String script) {
-    	return javaObject(clazz, script(script));
+    	IRubyObject result = script(script);
+    	if (!engine.metrics.enabled) {
+    		return engine.converters.rubyToJava(result, clazz);
+    	}
+    	long start = System.nanoTime();
+    	try {
+    		return engine.converters.rubyToJava(result, clazz);
+    	}
+    	finally {
+    		engine.metrics.script(script).conversion(System.nanoTime() - start);
+    	}
     }
     public String stringFromScript(String script) {
     	return (String)javaObject(String.class, script(script));
     }
+    public byte[] bytesFromScript(String script) {
+    	return bytes(script(script));
+    }
+    public long longFromScript(String script) {
+    	return longValue(script(script));
+    }
+    public int intFromScript(String script) {
+    	return intValue(script(script));
+    }
+    public double doubleFromScript(String script) {
+    	return doubleValue(script(script));
+    }
+    public boolean booleanFromScript(String script) {
+    	return booleanValue(script(script));
+    }
+    /**
+     * Same as ruby.evalScriptlet(script + "\n"), except
+     * that the parsed script is taken from scriptCache
+     * when possible.
+     * <p>
+     * Timed by engine.metrics when enabled, sampled by
+     * engine.profiler when running, watched by engine.slowCalls
+     * when enabled, holds engine.reloadLock when watched by
+     * HotReload.
+     */
     public IRubyObject script(String script) {
-    	return ruby.evalScriptlet(script + "\n");
+    	if (engine.isInstrumented()) {
+    		return timedScript(script);
+    	}
+    	return evalScript(script);
+    }
+    IRubyObject timedScript(String script) {
+    	RubyOMetrics.Timer t = engine.metrics.enabled ? engine.metrics.script(script) : null;
+    	ThreadContext context = engine.ruby.getCurrentContext();
+    	boolean isProfiled = engine.profiler.enter(context, "script", script);
+    	long start = System.nanoTime();
+    	long slowNanos = engine.slowCalls.enabled ? engine.slowCalls.scriptThresholdNanos() : 0;
+    	SlowCallLog.InFlight slow = slowNanos > 0 ?
+    	    engine.slowCalls.enter(context, start, slowNanos) : null;
+    	Lock reload = null == engine.reloadLock ? null : engine.reloadLock.readLock();
+    	if (null != reload) {
+    		reload.lock();
+    	}
+    	boolean isError = true;
+    	try {
+    		IRubyObject result = evalScript(script);
+    		isError = false;
+    		return result;
+    	}
+    	finally {
+    		if (null != reload) {
+    			reload.unlock();
+    		}
+    		long executed = System.nanoTime() - start;
+    		if (isProfiled) {
+    			engine.profiler.exit();
+    		}
+    		if (null != t) {
+    			t.dispatch(executed, isError);
+    		}
+    		if (slowNanos > 0) {
+    			engine.slowCalls.exit(slow);
+    			if (executed > slowNanos) {
+    				engine.slowCalls.log("script " + RubyOMetrics.fingerprint(script), slowNanos, 0,
+    				    executed, new String[] {"script[" + script.length() + "]"}, slow, isError);
+    			}
+    		}
+    	}
+    }
+    IRubyObject evalScript(String script) {
+    	if (null == engine.scriptCache || !engine.scriptCache.isEnabled()) {
+    		return engine.ruby.evalScriptlet(script + "\n");
+    	}
+    	ThreadContext context = engine.ruby.getCurrentContext();
+    	DynamicScope scope = context.getCurrentScope();
+    	Node node = engine.scriptCache.get(script, scope.getStaticScope());
+    	if (null == node) {
+    		node = engine.ruby.parseEval(script + "\n", "<script>", scope, 0);
+    		engine.scriptCache.put(script, scope.getStaticScope(), node);
+    	}
+    	try {
+    		return ASTInterpreter.eval(engine.ruby, context, node, context.getFrameSelf(), Block.NULL_BLOCK);
+    	}
+    	// as in ruby.evalScriptlet
+    	catch (JumpException.ReturnJump rj) {
+    		throw engine.ruby.newLocalJumpError("return", (IRubyObject)rj.getValue(), "unexpected return");
+    	}
+    	catch (JumpException.BreakJump bj) {
+    		throw engine.ruby.newLocalJumpError("break", (IRubyObject)bj.getValue(), "unexpected break");
+    	}
+    	catch (JumpException.RedoJump rj) {
+    		throw engine.ruby.newLocalJumpError("redo", (IRubyObject)rj.getValue(), "unexpected redo");
+    	}
     }
     public IRubyO rubyOFromScript(String script) {
-    	return new RubyO(script(script));
+    	return engine.rubyO(script(script));
     }
     // END PSEUDO STATIC
     public boolean isNil() {
-    	return nil.equals(robj);
+    	return engine.nil.equals(robj);
     }
     public Object javaObject(Class clazz) {
-    	return JavaEmbedUtils.rubyToJava(ruby, robj, clazz);
+    	return rubyToJava(robj, clazz);
     }
     public IRubyObject unwrap() {
     	return robj;
     }
     public Object send(Class clazz, String method) {
-        return invokeMethod(method, new Object[] {}, clazz);
+        return send0(clazz, method);
     }
     public Object send(Class clazz, String method, Object... params) {
         return invokeMethod(method, params, clazz);
@@ -195,16 +516,216 @@ public class RubyO implements IRubyO {
     public String stringFromSend(String method, Object... params) {
     	return (String)send(String.class, method, params);
     }
+    public byte[] bytesFromSend(String method) {
+    	return bytes(send0(method));
+    }
+    public byte[] bytesFromSend(String method, Object... params) {
+    	return bytes(send(method, params));
+    }
+    public long longFromSend(String method) {
+    	return longValue(send0(method));
+    }
+    public long longFromSend(String method, Object... params) {
+    	return longValue(send(method, params));
+    }
+    public int intFromSend(String method) {
+    	return intValue(send0(method));
+    }
+    public int intFromSend(String method, Object... params) {
+    	return intValue(send(method, params));
+    }
+    public double doubleFromSend(String method) {
+    	return doubleValue(send0(method));
+    }
+    public double doubleFromSend(String method, Object... params) {
+    	return doubleValue(send(method, params));
+    }
+    public boolean booleanFromSend(String method) {
+    	return booleanValue(send0(method));
+    }
+    public boolean booleanFromSend(String method, Object... params) {
+    	return booleanValue(send(method, params));
+    }
+    static String rubyClassName(IRubyObject irobj) {
+    	return irobj.getMetaClass().getRealClass().getName();
+    }
+    /**
+     * read a Fixnum without boxing
+     * 
+     * @param irobj, IRubyObject, must be a Fixnum
+     * @return long, value of irobj
+     */
+    static long longValue(IRubyObject irobj) {
+    	if (irobj instanceof RubyFixnum) {
+    		return ((RubyFixnum)irobj).getLongValue();
+    	}
+    	throw new ClassCastException("ruby " + rubyClassName(irobj) + " is not a Fixnum");
+    }
+    /**
+     * read a Fixnum without boxing
+     * 
+     * @param irobj, IRubyObject, must be a Fixnum in the range of int
+     * @return int, value of irobj
+     */
+    static int intValue(IRubyObject irobj) {
+    	long l = longValue(irobj);
+    	if (l < Integer.MIN_VALUE || l > Integer.MAX_VALUE) {
+    		throw new ArithmeticException("ruby Fixnum " + l + " does not fit in an int");
+    	}
+    	return (int)l;
+    }
+    /**
+     * read a Float or Fixnum without boxing
+     * 
+     * @param irobj, IRubyObject, must be a Float or Fixnum
+     * @return double, value of irobj
+     */
+    static double doubleValue(IRubyObject irobj) {
+    	if (irobj instanceof RubyFloat) {
+    		return ((RubyFloat)irobj).getDoubleValue();
+    	}
+    	if (irobj instanceof RubyFixnum) {
+    		return ((RubyFixnum)irobj).getLongValue();
+    	}
+    	throw new ClassCastException("ruby " + rubyClassName(irobj) + " is not a Float or Fixnum");
+    }
+    /**
+     * read true or false without boxing
+     * 
+     * @param irobj, IRubyObject, must be true or false
+     * @return boolean, value of irobj
+     */
+    static boolean booleanValue(IRubyObject irobj) {
+    	if (irobj instanceof RubyBoolean) {
+    		return irobj.isTrue();
+    	}
+    	throw new ClassCastException("ruby " + rubyClassName(irobj) + " is not true or false");
+    }
     public IRubyObject send(String method) {
-    	return (IRubyObject)send(IRubyObject.class, method);
+    	return send0(method);
     }
+    /**
+     * invokeMethod without the result conversion, the ruby
+     * result is returned as is (converting it to IRubyObject
+     * would turn a Fixnum into a Long)
+     */
     public IRubyObject send(String method, Object... params) {
-    	return (IRubyObject)send(IRubyObject.class, method, params);
+    	if (null == params) {
+    		params = NO_PARAMS;
+    	}
+    	if (engine.isInstrumented()) {
+    		return timedSend(method, params);
+    	}
+    	IRubyObject[] args = new IRubyObject[params.length];
+    	for (int i = 0; i < params.length; ++i) {
+    		args[i] = toRuby(params[i]);
+    	}
+    	return engine.callSites.call(engine.ruby.getCurrentContext(), robj, method, args);
     }
     public IRubyO rubyOFromSend(String method) {
-    	return new RubyO(send(method));
+    	return engine.rubyO(send(method));
     }
     public IRubyO rubyOFromSend(String method, Object... params) {
-    	return new RubyO(send(method, params));
+    	return engine.rubyO(send(method, params));
+    }
+    // sendN: the params are converted one by one, no arrays
+    public IRubyObject send0(String method) {
+    	if (engine.isInstrumented()) {
+    		return timedSend(method, NO_PARAMS);
+    	}
+    	return engine.callSites.call0(engine.ruby.getCurrentContext(), robj, method);
+    }
+    public IRubyObject send1(String method, Object param) {
+    	if (engine.isInstrumented()) {
+    		return timedSend(method, new Object[] {param});
+    	}
+    	return engine.callSites.call1(engine.ruby.getCurrentContext(), robj, method,
+    	    toRuby(param));
+    }
+    public IRubyObject send2(String method, Object param1, Object param2) {
+    	if (engine.isInstrumented()) {
+    		return timedSend(method, new Object[] {param1, param2});
+    	}
+    	return engine.callSites.call2(engine.ruby.getCurrentContext(), robj, method,
+    	    toRuby(param1), toRuby(param2));
+    }
+    public IRubyObject send3(String method, Object param1, Object param2, Object param3) {
+    	if (engine.isInstrumented()) {
+    		return timedSend(method, new Object[] {param1, param2, param3});
+    	}
+    	return engine.callSites.call3(engine.ruby.getCurrentContext(), robj, method,
+    	    toRuby(param1), toRuby(param2), toRuby(param3));
+    }
+    public Object send0(Class clazz, String method) {
+    	return toJava(method, send0(method), clazz);
+    }
+    public Object send1(Class clazz, String method, Object param) {
+    	return toJava(method, send1(method, param), clazz);
+    }
+    public Object send2(Class clazz, String method, Object param1, Object param2) {
+    	return toJava(method, send2(method, param1, param2), clazz);
+    }
+    public Object send3(Class clazz, String method, Object param1, Object param2, Object param3) {
+    	return toJava(method, send3(method, param1, param2, param3), clazz);
+    }
+    static String JAVA_SEND_BATCH =
+    	"def java_send_batch(receiver, name, tuples)\n" +
+    	    "m = receiver.method(name) rescue nil\n" +
+    	    "results = Array.new(tuples.length)\n" +
+    	    "errors = nil\n" +
+    	    "tuples.each_with_index do |args, i|\n" +
+    	        "begin\n" +
+    	            "results[i] = m ? m.call(*args) : receiver.__send__(name, *args)\n" +
+    	        "rescue Exception => e\n" +
+    	            "errors ||= Array.new(tuples.length)\n" +
+    	            "errors[i] = e\n" +
+    	        "end\n" +
+    	    "end\n" +
+    	    "[results, errors]\n" +
+    	"end";
+    /**
+     * Make sure that the ruby script supporting
+     * sendBatch has been run.
+     * NB: running it twice is harmless
+     */
+    void defSendBatch() {
+    	if (engine.isDefSendBatch) {
+    		return;
+    	}
+    	script(JAVA_SEND_BATCH);
+    	engine.isDefSendBatch = true;
+    }
+    public BatchResult sendBatch(Class clazz, String method, List tuples) {
+    	defSendBatch();
+    	Ruby ruby = engine.ruby;
+    	int size = tuples.size();
+    	IRubyObject[] rubyTuples = new IRubyObject[size];
+    	for (int i = 0; i < size; ++i) {
+    		Object[] params = (Object[])tuples.get(i);
+    		if (null == params) {
+    			params = NO_PARAMS;
+    		}
+    		IRubyObject[] args = new IRubyObject[params.length];
+    		for (int j = 0; j < params.length; ++j) {
+    			args[j] = toRuby(params[j]);
+    		}
+    		rubyTuples[i] = RubyArray.newArrayNoCopy(ruby, args);
+    	}
+    	// a send like any other: instrumented, and holding the reload lock
+    	RubyArray pair = (RubyArray)engine.topSelf.send3("java_send_batch",
+    	    this, method, RubyArray.newArrayNoCopy(ruby, rubyTuples));
+    	RubyArray results = (RubyArray)pair.entry(0);
+    	IRubyObject errors = pair.entry(1);
+    	BatchResult br = new BatchResult(size);
+    	for (int i = 0; i < size; ++i) {
+    		IRubyObject error = isNil(errors) ? engine.nil : ((RubyArray)errors).entry(i);
+    		if (isNil(error)) {
+    			br.results[i] = rubyToJava(results.entry(i), clazz);
+    		}
+    		else {
+    			br.fail(i, new RaiseException((RubyException)error));
+    		}
+    	}
+    	return br;
     }
 }
@@ -0,0 +1,302 @@
+package org.bardibardi.jruby;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.jruby.RubyBoolean;
+import org.jruby.RubyFixnum;
+import org.jruby.runtime.builtin.IRubyObject;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+/**
+ * Weak identity cache of the RubyO's of one JRuby engine
+ * (see RubyEngine), so rubyO, rubyOFromScript and
+ * rubyOFromSend return the same IRubyO for the same
+ * IRubyObject, instead of a new RubyO every time.
+ * <p>
+ * "ruby.rubyo.cache" (default false) turns the cache on.
+ * Turned off, every call wraps with a new RubyO, as before.
+ * <p>
+ * nil, true, false and the Fixnums MIN_FIXNUM to MAX_FIXNUM
+ * are flyweights: one RubyO per value (not per IRubyObject),
+ * kept as long as the engine, found without hashing.
+ * <p>
+ * Other RubyO's are weakly referenced, keyed by the identity
+ * of the wrapped IRubyObject. A RubyO is kept while java holds
+ * on to it; after it is garbage collected the next rubyO of
+ * the same IRubyObject returns a new one. Since nothing can
+ * hold the old one then, identity is never seen to change.
+ * (A WeakHashMap does not do: its values, the RubyO's,
+ * would keep their keys, the IRubyObject's, alive.)
+ * <p>
+ * Thread safe, the table is split into SEGMENTS, each
+ * synchronized on itself. A hit allocates nothing.
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+public class RubyOCache {
+	public static final long MIN_FIXNUM = -128;
+	public static final long MAX_FIXNUM = 1023;
+	static final int SEGMENTS = 16;
+	static final int INITIAL_CAPACITY = 64;
+	// flyweight slots after the fixnums
+	static final int NIL = (int)(MAX_FIXNUM - MIN_FIXNUM + 1);
+	static final int TRUE = NIL + 1;
+	static final int FALSE = NIL + 2;
+
+	/**
+	 * A weakly referenced RubyO, chained in its Segment
+	 */
+	static final class Entry extends WeakReference<RubyO> {
+		final int hash;
+		Entry next;
+		Entry(RubyO ro, int h, Entry n, ReferenceQueue<RubyO> q) {
+			super(ro, q);
+			hash = h;
+			next = n;
+		}
+	} // Entry
+
+	/**
+	 * One lock's share of the table
+	 */
+	static final class Segment {
+		Entry[] table = new Entry[INITIAL_CAPACITY];
+		int count = 0;
+		ReferenceQueue<RubyO> queue = new ReferenceQueue<RubyO>();
+	} // Segment
+
+	boolean isEnabled;
+	RubyEngine engine;
+	AtomicReferenceArray<RubyO> flyweights;
+	Segment[] segments;
+
+	AtomicLong hits = new AtomicLong();
+	AtomicLong flyweightHits = new AtomicLong();
+	AtomicLong misses = new AtomicLong();
+	AtomicLong collected = new AtomicLong();
+
+	/**
+	 * constructor used by Guice Injector
+	 *
+	 * @param enabled, boolean, true to cache RubyO's
+	 */
+    @Inject
+    public RubyOCache(@Named("ruby.rubyo.cache") boolean enabled) {
+    	isEnabled = enabled;
+    	if (enabled) {
+    		flyweights = new AtomicReferenceArray<RubyO>(FALSE + 1);
+    		segments = new Segment[SEGMENTS];
+    		for (int i = 0; i < SEGMENTS; ++i) {
+    			segments[i] = new Segment();
+    		}
+    	}
+    }
+    /**
+     * @return A boolean, true when RubyO's are cached
+     */
+    public boolean isEnabled() {
+    	return isEnabled;
+    }
+    /**
+     * @param irobj An IRubyObject of the engine
+     * @return An int, index of the flyweight of irobj, or -1
+     */
+    int flyweight(IRubyObject irobj) {
+    	if (irobj instanceof RubyFixnum) {
+    		long l = ((RubyFixnum)irobj).getLongValue();
+    		if (l >= MIN_FIXNUM && l <= MAX_FIXNUM) {
+    			return (int)(l - MIN_FIXNUM);
+    		}
+    		return -1;
+    	}
+    	if (irobj instanceof RubyBoolean) {
+    		return irobj.isTrue() ? TRUE : FALSE;
+    	}
+    	if (irobj == engine.nil) {
+    		return NIL;
+    	}
+    	return -1;
+    }
+    static int hash(IRubyObject irobj) {
+    	int h = System.identityHashCode(irobj);
+    	// spread the bits, identity hashes are often sequential
+    	h ^= (h >>> 20) ^ (h >>> 12);
+    	return h ^ (h >>> 7) ^ (h >>> 4);
+    }
+    /**
+     * @param irobj An IRubyObject of the engine
+     * @return A RubyO wrapping irobj, the same one as long as
+     * it is referenced
+     */
+    RubyO rubyO(IRubyObject irobj) {
+    	int f = flyweight(irobj);
+    	if (f >= 0) {
+    		RubyO ro = flyweights.get(f);
+    		if (null != ro) {
+    			flyweightHits.incrementAndGet();
+    			return ro;
+    		}
+    		misses.incrementAndGet();
+    		flyweights.compareAndSet(f, null, new RubyO(engine, irobj));
+    		return flyweights.get(f);
+    	}
+    	int h = hash(irobj);
+    	Segment s = segments[h & (SEGMENTS - 1)];
+    	synchronized (s) {
+    		Entry[] t = s.table;
+    		for (Entry e = t[(h >>> 4) & (t.length - 1)]; null != e; e = e.next) {
+    			if (e.hash == h) {
+    				RubyO ro = e.get();
+    				if (null != ro && ro.robj == irobj) {
+    					hits.incrementAndGet();
+    					return ro;
+    				}
+    			}
+    		}
+    		misses.incrementAndGet();
+    		RubyO ro = new RubyO(engine, irobj);
+    		put(s, ro, h);
+    		return ro;
+    	}
+    }
+    /**
+     * Make ro the cached RubyO of its IRubyObject, unless
+     * there already is one (used for a RubyApp's top self).
+     *
+     * @param ro A RubyO of the engine
+     */
+    void intern(RubyO ro) {
+    	if (flyweight(ro.robj) >= 0) {
+    		return;
+    	}
+    	int h = hash(ro.robj);
+    	Segment s = segments[h & (SEGMENTS - 1)];
+    	synchronized (s) {
+    		Entry[] t = s.table;
+    		for (Entry e = t[(h >>> 4) & (t.length - 1)]; null != e; e = e.next) {
+    			RubyO cached = e.get();
+    			if (e.hash == h && null != cached && cached.robj == ro.robj) {
+    				return;
+    			}
+    		}
+    		put(s, ro, h);
+    	}
+    }
+    // guarded by s
+    void put(Segment s, RubyO ro, int h) {
+    	expunge(s);
+    	if (s.count >= s.table.length) {
+    		resize(s);
+    	}
+    	Entry[] t = s.table;
+    	int i = (h >>> 4) & (t.length - 1);
+    	t[i] = new Entry(ro, h, t[i], s.queue);
+    	++s.count;
+    }
+    // guarded by s, removes the entries of collected RubyO's
+    void expunge(Segment s) {
+    	Object o;
+    	while (null != (o = s.queue.poll())) {
+    		Entry dead = (Entry)o;
+    		Entry[] t = s.table;
+    		int i = (dead.hash >>> 4) & (t.length - 1);
+    		Entry prev = null;
+    		for (Entry e = t[i]; null != e; e = e.next) {
+    			if (e == dead) {
+    				if (null == prev) {
+    					t[i] = e.next;
+    				}
+    				else {
+    					prev.next = e.next;
+    				}
+    				--s.count;
+    				collected.incrementAndGet();
+    				break;
+    			}
+    			prev = e;
+    		}
+    	}
+    }
+    // guarded by s, doubles the table, dropping cleared entries
+    void resize(Segment s) {
+    	Entry[] old = s.table;
+    	Entry[] t = new Entry[old.length * 2];
+    	int n = 0;
+    	for (Entry head : old) {
+    		Entry e = head;
+    		while (null != e) {
+    			Entry next = e.next;
+    			if (null != e.get()) {
+    				int i = (e.hash >>> 4) & (t.length - 1);
+    				e.next = t[i];
+    				t[i] = e;
+    				++n;
+    			}
+    			e = next;
+    		}
+    	}
+    	s.table = t;
+    	s.count = n;
+    }
+    /**
+     * forget every RubyO, used when the engine terminates
+     */
+    void clear() {
+    	if (!isEnabled) {
+    		return;
+    	}
+    	for (int i = 0; i < flyweights.length(); ++i) {
+    		flyweights.set(i, null);
+    	}
+    	for (Segment s : segments) {
+    		synchronized (s) {
+    			s.table = new Entry[INITIAL_CAPACITY];
+    			s.count = 0;
+    			s.queue = new ReferenceQueue<RubyO>();
+    		}
+    	}
+    }
+    /**
+     * @return A long, number of weakly cached RubyO's, including
+     * ones collected but not yet expunged
+     */
+    public long size() {
+    	long n = 0;
+    	for (Segment s : segments) {
+    		synchronized (s) {
+    			n += s.count;
+    		}
+    	}
+    	return n;
+    }
+    /**
+     * @return A long, number of times a cached RubyO was returned
+     */
+    public long hits() {
+    	return hits.get();
+    }
+    /**
+     * @return A long, number of times a flyweight was returned
+     */
+    public long flyweightHits() {
+    	return flyweightHits.get();
+    }
+    /**
+     * @return A long, number of RubyO's created
+     */
+    public long misses() {
+    	return misses.get();
+    }
+    /**
+     * @return A long, number of cached RubyO's garbage collected
+     */
+    public long collected() {
+    	return collected.get();
+    }
+} // RubyOCache
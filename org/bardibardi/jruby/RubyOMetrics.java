@@ -0,0 +1,403 @@
+package org.bardibardi.jruby;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+/**
+ * Call counts and latency histograms of the RubyO's of
+ * every RubyApp of an Injector, kept per key:
+ * <p>
+ * "send " + ruby method name, for send... and invokeMethod
+ * <p>
+ * "script " + fingerprint (length and hash of the source),
+ * for script...
+ * <p>
+ * "javaObject " + java class name, for javaObject...
+ * <p>
+ * Dispatch (the ruby call, including parsing a script) and
+ * conversion (parameters to ruby, result to java) are timed
+ * separately, each into a histogram of powers of 2 nanoseconds,
+ * so percentiles are exact to a factor of 2.
+ * <p>
+ * "ruby.metrics" (default false) starts measuring. It can be
+ * switched at any time, with setEnabled or over JMX.
+ * Switched off, a call costs one volatile read more than
+ * without metrics.
+ * <p>
+ * At most MAX_KEYS sends and MAX_KEYS scripts are kept
+ * apart, further ones (e.g. scripts built from data) are
+ * counted together as "send (other)" and "script (other)".
+ * <p>
+ * The RubyOMetrics is registered with the platform MBeanServer
+ * as org.bardibardi.jruby:type=RubyOMetrics (with ",id=n"
+ * added when that name is taken, e.g. by another Injector)
+ * while a RubyApp of its Injector is not terminated: the
+ * first JRuby engine registers it, the last one terminated
+ * unregisters it.
+ * <p>
+ * Thread safe, counting is lock free.
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+@Singleton
+public class RubyOMetrics implements RubyOMetricsMBean {
+	public static final String OBJECT_NAME = "org.bardibardi.jruby:type=RubyOMetrics";
+	static final int BUCKETS = 64;
+	static final int SCRIPT_SAMPLE_LENGTH = 60;
+	// more keys than this are counted under OTHER
+	static final int MAX_KEYS = 1000;
+	static final String OTHER = "(other)";
+	static AtomicInteger ids = new AtomicInteger();
+
+	/**
+	 * The counters of one key
+	 */
+	static final class Timer {
+		final String key;
+		// the start of the script, for "script " keys
+		final String sample;
+		final AtomicLong calls = new AtomicLong();
+		final AtomicLong errors = new AtomicLong();
+		final AtomicLong dispatchNanos = new AtomicLong();
+		final AtomicLong conversionNanos = new AtomicLong();
+		final AtomicLongArray dispatch = new AtomicLongArray(BUCKETS);
+		final AtomicLongArray conversion = new AtomicLongArray(BUCKETS);
+		Timer(String k, String s) {
+			key = k;
+			sample = s;
+		}
+		void count(boolean isError) {
+			calls.incrementAndGet();
+			if (isError) {
+				errors.incrementAndGet();
+			}
+		}
+		void dispatch(long nanos, boolean isError) {
+			count(isError);
+			dispatchNanos.addAndGet(nanos);
+			dispatch.incrementAndGet(bucket(nanos));
+		}
+		void conversion(long nanos) {
+			conversionNanos.addAndGet(nanos);
+			conversion.incrementAndGet(bucket(nanos));
+		}
+	} // Timer
+
+	/**
+	 * A copy of the counters of one key
+	 */
+	public static final class Snapshot {
+		String key;
+		String sample;
+		long calls;
+		long errors;
+		long dispatchNanos;
+		long conversionNanos;
+		long[] dispatch = new long[BUCKETS];
+		long[] conversion = new long[BUCKETS];
+		Snapshot(Timer t) {
+			key = t.key;
+			sample = t.sample;
+			calls = t.calls.get();
+			errors = t.errors.get();
+			dispatchNanos = t.dispatchNanos.get();
+			conversionNanos = t.conversionNanos.get();
+			for (int i = 0; i < BUCKETS; ++i) {
+				dispatch[i] = t.dispatch.get(i);
+				conversion[i] = t.conversion.get(i);
+			}
+		}
+		/**
+		 * @return A String, "send m", "script n:hash" or "javaObject C"
+		 */
+		public String key() {
+			return key;
+		}
+		/**
+		 * @return A String, the start of the script, or null
+		 */
+		public String sample() {
+			return sample;
+		}
+		/**
+		 * @return A long, number of calls timed
+		 */
+		public long calls() {
+			return calls;
+		}
+		/**
+		 * @return A long, number of calls which threw
+		 */
+		public long errors() {
+			return errors;
+		}
+		/**
+		 * @return A long, total dispatch time
+		 */
+		public long dispatchNanos() {
+			return dispatchNanos;
+		}
+		/**
+		 * @return A long, total conversion time
+		 */
+		public long conversionNanos() {
+			return conversionNanos;
+		}
+		/**
+		 * @param p A double, 0 &lt; p &lt;= 1, e.g. 0.99
+		 * @return A long, upper bound of the dispatch time of
+		 * fraction p of the calls
+		 */
+		public long dispatchPercentileNanos(double p) {
+			return percentile(dispatch, p);
+		}
+		/**
+		 * @param p A double, 0 &lt; p &lt;= 1, e.g. 0.99
+		 * @return A long, upper bound of the conversion time of
+		 * fraction p of the conversions
+		 */
+		public long conversionPercentileNanos(double p) {
+			return percentile(conversion, p);
+		}
+		public String toString() {
+			long n = Math.max(calls, 1);
+			return key + " calls=" + calls + " errors=" + errors +
+			    " dispatch.mean.us=" + dispatchNanos / n / 1000.0 +
+			    " dispatch.p50.us=" + dispatchPercentileNanos(0.5) / 1000.0 +
+			    " dispatch.p99.us=" + dispatchPercentileNanos(0.99) / 1000.0 +
+			    " conversion.mean.us=" + conversionNanos / n / 1000.0 +
+			    " conversion.p99.us=" + conversionPercentileNanos(0.99) / 1000.0 +
+			    (null == sample ? "" : " sample=" + sample);
+		}
+	} // Snapshot
+
+	volatile boolean enabled;
+	ConcurrentHashMap<String, Timer> sends = new ConcurrentHashMap<String, Timer>();
+	ConcurrentHashMap<String, Timer> scripts = new ConcurrentHashMap<String, Timer>();
+	ConcurrentHashMap<Class, Timer> javaObjects = new ConcurrentHashMap<Class, Timer>();
+	// guarded by this
+	ObjectName objectName;
+	int engines = 0;
+
+	/**
+	 * constructor used by Guice Injector
+	 *
+	 * @param enabled, boolean, true to start measuring at once
+	 */
+    @Inject
+    public RubyOMetrics(@Named("ruby.metrics") boolean enabled) {
+    	this.enabled = enabled;
+    }
+    /**
+     * a JRuby engine starts using this, the first registers the MBean
+     */
+    synchronized void attach() {
+    	if (0 == engines++ && null == objectName) {
+    		objectName = register(this, OBJECT_NAME);
+    	}
+    }
+    /**
+     * a JRuby engine is terminated, the last unregisters the MBean
+     */
+    synchronized void detach() {
+    	if (0 == --engines) {
+    		unregister();
+    	}
+    }
+    /**
+     * register mbean with the platform MBeanServer as name,
+     * or as name + ",id=n" when name is taken
+     *
+     * @param mbean, Object, a standard MBean
+     * @param name, String, an ObjectName
+     * @return ObjectName, registered, or null if registering failed
+     */
+    static ObjectName register(Object mbean, String name) {
+    	MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+    	try {
+    		try {
+    			ObjectName on = new ObjectName(name);
+    			mbs.registerMBean(mbean, on);
+    			return on;
+    		}
+    		catch (InstanceAlreadyExistsException e) {
+    			ObjectName on = new ObjectName(name + ",id=" + ids.incrementAndGet());
+    			mbs.registerMBean(mbean, on);
+    			return on;
+    		}
+    	}
+    	catch (JMException e) {
+    		// still available from java
+    		return null;
+    	}
+    }
+    /**
+     * unregister the MBean registered as on, if any
+     */
+    static void unregister(ObjectName on) {
+    	if (null == on) {
+    		return;
+    	}
+    	try {
+    		ManagementFactory.getPlatformMBeanServer().unregisterMBean(on);
+    	}
+    	catch (JMException e) {
+    		// already gone
+    	}
+    }
+    /**
+     * @return An ObjectName, of the MBean, null if not registered
+     */
+    public synchronized ObjectName objectName() {
+    	return objectName;
+    }
+    /**
+     * unregister the MBean, e.g. when the Injector is dropped
+     */
+    public synchronized void unregister() {
+    	unregister(objectName);
+    	objectName = null;
+    }
+    public boolean isEnabled() {
+    	return enabled;
+    }
+    public void setEnabled(boolean enabled) {
+    	this.enabled = enabled;
+    }
+    static int bucket(long nanos) {
+    	return nanos <= 0 ? 0 : BUCKETS - Long.numberOfLeadingZeros(nanos);
+    }
+    static long percentile(long[] buckets, double p) {
+    	long total = 0;
+    	for (long n : buckets) {
+    		total += n;
+    	}
+    	if (0 == total) {
+    		return 0;
+    	}
+    	long wanted = (long)Math.ceil(p * total);
+    	long seen = 0;
+    	for (int i = 0; i < BUCKETS; ++i) {
+    		seen += buckets[i];
+    		if (seen >= wanted) {
+    			// bucket i holds [2^(i-1), 2^i)
+    			return 0 == i ? 0 : (i >= BUCKETS - 1 ? Long.MAX_VALUE : 1L << i);
+    		}
+    	}
+    	return Long.MAX_VALUE;
+    }
+    /**
+     * @param method, String, ruby method name
+     * @return Timer, of "send " + method
+     */
+    Timer send(String method) {
+    	Timer t = sends.get(method);
+    	if (null == t && sends.size() >= MAX_KEYS) {
+    		method = OTHER;
+    		t = sends.get(method);
+    	}
+    	if (null == t) {
+    		Timer created = new Timer("send " + method, null);
+    		t = sends.putIfAbsent(method, created);
+    		if (null == t) {
+    			t = created;
+    		}
+    	}
+    	return t;
+    }
+    /**
+     * @param script, String, ruby source code
+     * @return Timer, of "script " + fingerprint of script
+     */
+    Timer script(String script) {
+    	Timer t = scripts.get(script);
+    	if (null == t && scripts.size() >= MAX_KEYS) {
+    		script = OTHER;
+    		t = scripts.get(script);
+    	}
+    	if (null == t) {
+    		Timer created;
+    		if (OTHER == script) {
+    			created = new Timer("script " + OTHER, null);
+    		}
+    		else {
+    			String key = "script " + fingerprint(script);
+    			String sample = script.length() <= SCRIPT_SAMPLE_LENGTH ? script :
+    			    script.substring(0, SCRIPT_SAMPLE_LENGTH) + "...";
+    			created = new Timer(key, sample.replace('\n', ';'));
+    		}
+    		t = scripts.putIfAbsent(script, created);
+    		if (null == t) {
+    			t = created;
+    		}
+    	}
+    	return t;
+    }
+    /**
+     * @param script, String, ruby source code
+     * @return String, length and hash of script
+     */
+    static String fingerprint(String script) {
+    	return script.length() + ":" + Integer.toHexString(script.hashCode());
+    }
+    /**
+     * @param clazz, Class, java type converted to
+     * @return Timer, of "javaObject " + clazz name
+     */
+    Timer javaObject(Class clazz) {
+    	Timer t = javaObjects.get(clazz);
+    	if (null == t) {
+    		Timer created = new Timer("javaObject " + clazz.getName(), null);
+    		t = javaObjects.putIfAbsent(clazz, created);
+    		if (null == t) {
+    			t = created;
+    		}
+    	}
+    	return t;
+    }
+    /**
+     * @return A Map, key to Snapshot, sorted by key
+     */
+    public Map<String, Snapshot> snapshot() {
+    	TreeMap<String, Snapshot> m = new TreeMap<String, Snapshot>();
+    	for (Timer t : sends.values()) {
+    		m.put(t.key, new Snapshot(t));
+    	}
+    	for (Timer t : scripts.values()) {
+    		m.put(t.key, new Snapshot(t));
+    	}
+    	for (Timer t : javaObjects.values()) {
+    		m.put(t.key, new Snapshot(t));
+    	}
+    	return m;
+    }
+    public String[] getSnapshot() {
+    	List<String> lines = new ArrayList<String>();
+    	for (Snapshot s : snapshot().values()) {
+    		lines.add(s.toString());
+    	}
+    	return lines.toArray(new String[lines.size()]);
+    }
+    public void reset() {
+    	sends.clear();
+    	scripts.clear();
+    	javaObjects.clear();
+    }
+} // RubyOMetrics
@@ -0,0 +1,28 @@
+package org.bardibardi.jruby;
+
+/**
+ * The JMX management interface of RubyOMetrics, registered
+ * as org.bardibardi.jruby:type=RubyOMetrics.
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+public interface RubyOMetricsMBean {
+	/**
+	 * @return A boolean, true when calls are measured
+	 */
+    public boolean isEnabled();
+	/**
+	 * @param enabled A boolean, start or stop measuring calls
+	 */
+    public void setEnabled(boolean enabled);
+	/**
+	 * @return A String[], one line per key: calls, errors, mean
+	 * and percentiles of dispatch and conversion, in microseconds
+	 */
+    public String[] getSnapshot();
+	/**
+	 * forget everything measured so far
+	 */
+    public void reset();
+}
@@ -0,0 +1,329 @@
+package org.bardibardi.jruby;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.ObjectName;
+
+import org.jruby.runtime.Frame;
+import org.jruby.runtime.ThreadContext;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+/**
+ * Sampling profiler of the ruby code run by RubyO.invokeMethod,
+ * the send... methods and script, for the RubyApp's of an
+ * Injector.
+ * <p>
+ * While the profiler is running, a thread entering ruby through
+ * a RubyO is registered with its JRuby ThreadContext. A daemon
+ * thread wakes up every "ruby.profiler.interval.millis" (default
+ * 10), takes the ruby backtrace of the registered threads and
+ * counts each distinct stack. The root frame of a stack is the
+ * java entry, "send " + method or "script " + the start of the
+ * script, the other frames are "method (file)".
+ * <p>
+ * The counts are written in the collapsed stack format
+ * ("root;frame;...;leaf count" per line) read by flamegraph.pl
+ * and most flame graph viewers.
+ * <p>
+ * The overhead is bounded: each wake up samples at most
+ * "ruby.profiler.max.threads" threads (default 16, taken in
+ * turn when more are registered), each stack at most
+ * "ruby.profiler.max.depth" frames (default 64, the innermost
+ * are kept), and at most MAX_STACKS distinct stacks are kept.
+ * Not running, a call costs one volatile read.
+ * <p>
+ * "ruby.profiler" (default false) starts the profiler at once,
+ * otherwise call start, from java or over JMX (the profiler is
+ * registered as org.bardibardi.jruby:type=RubyProfiler while a
+ * RubyApp of its Injector is not terminated, as RubyOMetrics is).
+ * <p>
+ * NB: the backtrace of a running thread is read without
+ * stopping it, so a sample is occasionally off by a frame,
+ * or skipped when the frames change under the sampler.
+ * <p>
+ * Thread safe.
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+@Singleton
+public class RubyProfiler implements RubyProfilerMBean {
+	public static final String OBJECT_NAME = "org.bardibardi.jruby:type=RubyProfiler";
+	static final int MAX_STACKS = 10000;
+	static final int ROOT_SAMPLE_LENGTH = 40;
+	static final String TRUNCATED = "(truncated)";
+
+	/**
+	 * A thread inside ruby, entered through a RubyO
+	 */
+	static final class Active {
+		final ThreadContext context;
+		// "send" or "script"
+		final String kind;
+		final String what;
+		Active(ThreadContext c, String k, String w) {
+			context = c;
+			kind = k;
+			what = w;
+		}
+		String root() {
+			String w = what.length() <= ROOT_SAMPLE_LENGTH ? what :
+			    what.substring(0, ROOT_SAMPLE_LENGTH) + "...";
+			return kind + " " + frame(w);
+		}
+	} // Active
+
+	long intervalMillis;
+	int maxThreads;
+	int maxDepth;
+	volatile boolean isRunning = false;
+	Thread sampler;
+	ConcurrentHashMap<Thread, Active> active = new ConcurrentHashMap<Thread, Active>();
+	// guarded by this
+	HashMap<String, long[]> stacks = new HashMap<String, long[]>();
+	long samples = 0;
+	long skipped = 0;
+	long overheadNanos = 0;
+	// sampler only, where the next wake up starts
+	int turn = 0;
+	// guarded by this
+	ObjectName objectName;
+	int engines = 0;
+
+	/**
+	 * constructor used by Guice Injector
+	 *
+	 * @param start, boolean, true to start sampling at once
+	 * @param intervalMillis, long, time between samples
+	 * @param maxThreads, int, threads sampled per wake up
+	 * @param maxDepth, int, frames kept per stack
+	 */
+    @Inject
+    public RubyProfiler(
+    	@Named("ruby.profiler") boolean start,
+    	@Named("ruby.profiler.interval.millis") long intervalMillis,
+    	@Named("ruby.profiler.max.threads") int maxThreads,
+    	@Named("ruby.profiler.max.depth") int maxDepth) {
+    	this.intervalMillis = Math.max(intervalMillis, 1);
+    	this.maxThreads = Math.max(maxThreads, 1);
+    	this.maxDepth = Math.max(maxDepth, 1);
+    	if (start) {
+    		start();
+    	}
+    }
+    /**
+     * @return An ObjectName, of the MBean, null if not registered
+     */
+    public synchronized ObjectName objectName() {
+    	return objectName;
+    }
+    /**
+     * a JRuby engine starts using this, the first registers the MBean
+     */
+    synchronized void attach() {
+    	if (0 == engines++ && null == objectName) {
+    		objectName = RubyOMetrics.register(this, OBJECT_NAME);
+    	}
+    }
+    /**
+     * a JRuby engine is terminated, the last unregisters the MBean
+     */
+    synchronized void detach() {
+    	if (0 == --engines) {
+    		RubyOMetrics.unregister(objectName);
+    		objectName = null;
+    	}
+    }
+    /**
+     * stop and unregister the MBean, e.g. when the Injector is dropped
+     */
+    public void unregister() {
+    	stop();
+    	synchronized (this) {
+    		RubyOMetrics.unregister(objectName);
+    		objectName = null;
+    	}
+    }
+    /**
+     * register the current thread as inside ruby, unless the
+     * profiler is not running or the thread already is
+     *
+     * @param context, ThreadContext, of the current thread
+     * @param kind, String, "send" or "script"
+     * @param what, String, method name or script
+     * @return boolean, true if exit must be called
+     */
+    boolean enter(ThreadContext context, String kind, String what) {
+    	if (!isRunning) {
+    		return false;
+    	}
+    	return null == active.putIfAbsent(Thread.currentThread(), new Active(context, kind, what));
+    }
+    /**
+     * the current thread has left ruby, after enter returned true
+     */
+    void exit() {
+    	active.remove(Thread.currentThread());
+    }
+    public boolean isRunning() {
+    	return isRunning;
+    }
+    public synchronized void start() {
+    	if (isRunning) {
+    		return;
+    	}
+    	isRunning = true;
+    	sampler = new Thread("RubyProfiler") {
+    		public void run() {
+    			sample();
+    		}
+    	};
+    	sampler.setDaemon(true);
+    	sampler.start();
+    }
+    public void stop() {
+    	Thread t;
+    	synchronized (this) {
+    		if (!isRunning) {
+    			return;
+    		}
+    		isRunning = false;
+    		t = sampler;
+    		sampler = null;
+    	}
+    	t.interrupt();
+    	try {
+    		t.join();
+    	}
+    	catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    	}
+    	active.clear();
+    }
+    void sample() {
+    	while (isRunning) {
+    		long start = System.nanoTime();
+    		Active[] as = active.values().toArray(new Active[0]);
+    		int n = Math.min(as.length, maxThreads);
+    		for (int i = 0; i < n; ++i) {
+    			sample(as[(turn + i) % as.length]);
+    		}
+    		turn = as.length > 0 ? (turn + n) % as.length : 0;
+    		synchronized (this) {
+    			overheadNanos += System.nanoTime() - start;
+    		}
+    		try {
+    			Thread.sleep(intervalMillis);
+    		}
+    		catch (InterruptedException e) {
+    			return;
+    		}
+    	}
+    }
+    void sample(Active a) {
+    	Frame[] frames;
+    	try {
+    		// innermost frame first
+    		frames = a.context.createBacktrace(0, false);
+    	}
+    	catch (RuntimeException e) {
+    		// the frames changed while they were read
+    		synchronized (this) {
+    			++skipped;
+    		}
+    		return;
+    	}
+    	StringBuilder sb = new StringBuilder(a.root());
+    	int depth = Math.min(null == frames ? 0 : frames.length, maxDepth);
+    	for (int i = depth - 1; i >= 0; --i) {
+    		Frame f = frames[i];
+    		if (null == f) {
+    			continue;
+    		}
+    		sb.append(';');
+    		sb.append(frame(null == f.getName() ? "(top)" : f.getName()));
+    		sb.append(" (");
+    		sb.append(frame(f.getFile()));
+    		sb.append(')');
+    	}
+    	String stack = sb.toString();
+    	synchronized (this) {
+    		++samples;
+    		long[] count = stacks.get(stack);
+    		if (null == count) {
+    			if (stacks.size() >= MAX_STACKS) {
+    				stack = a.root() + ";" + TRUNCATED;
+    				count = stacks.get(stack);
+    			}
+    			if (null == count) {
+    				count = new long[1];
+    				stacks.put(stack, count);
+    			}
+    		}
+    		++count[0];
+    	}
+    }
+    /**
+     * @return String, s without the separators of the collapsed format
+     */
+    static String frame(String s) {
+    	return String.valueOf(s).replace(';', ',').replace('\n', ' ');
+    }
+    public synchronized void reset() {
+    	stacks.clear();
+    	samples = 0;
+    	skipped = 0;
+    	overheadNanos = 0;
+    }
+    public synchronized long getSamples() {
+    	return samples;
+    }
+    /**
+     * @return A long, number of samples skipped, see NB above
+     */
+    public synchronized long skipped() {
+    	return skipped;
+    }
+    public synchronized long getOverheadMillis() {
+    	return overheadNanos / 1000000;
+    }
+    /**
+     * @return A Map, stack in collapsed format to number of
+     * samples, sorted by stack
+     */
+    public synchronized Map<String, Long> stacks() {
+    	TreeMap<String, Long> m = new TreeMap<String, Long>();
+    	for (Map.Entry<String, long[]> e : stacks.entrySet()) {
+    		m.put(e.getKey(), Long.valueOf(e.getValue()[0]));
+    	}
+    	return m;
+    }
+    /**
+     * @return A String, the samples in collapsed stack format
+     */
+    public String collapsed() {
+    	StringBuilder sb = new StringBuilder();
+    	for (Map.Entry<String, Long> e : stacks().entrySet()) {
+    		sb.append(e.getKey()).append(' ').append(e.getValue()).append('\n');
+    	}
+    	return sb.toString();
+    }
+    public void writeCollapsed(String file) throws IOException {
+    	Writer w = new FileWriter(file);
+    	try {
+    		w.write(collapsed());
+    	}
+    	finally {
+    		w.close();
+    	}
+    }
+} // RubyProfiler
@@ -0,0 +1,42 @@
+package org.bardibardi.jruby;
+
+import java.io.IOException;
+
+/**
+ * The JMX management interface of RubyProfiler, registered
+ * as org.bardibardi.jruby:type=RubyProfiler.
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+public interface RubyProfilerMBean {
+	/**
+	 * @return A boolean, true while sampling
+	 */
+    public boolean isRunning();
+	/**
+	 * start sampling, does nothing if running
+	 */
+    public void start();
+	/**
+	 * stop sampling, the samples are kept
+	 */
+    public void stop();
+	/**
+	 * forget the samples
+	 */
+    public void reset();
+	/**
+	 * @return A long, number of stacks sampled
+	 */
+    public long getSamples();
+	/**
+	 * @return A long, time spent sampling
+	 */
+    public long getOverheadMillis();
+	/**
+	 * @param file A String, where to write the samples in
+	 * collapsed stack format
+	 */
+    public void writeCollapsed(String file) throws IOException;
+}
@@ -0,0 +1,134 @@
+package org.bardibardi.jruby;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jruby.ast.Node;
+import org.jruby.parser.StaticScope;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+/**
+ * Bounded, least recently used cache of parsed ruby
+ * scripts (JRuby AST Node's) keyed by the script source.
+ * Used by RubyO.script(String) so that the same ruby
+ * source code is not parsed again for every call.
+ * <p>
+ * A parsed script depends on the local variables of the
+ * scope it was parsed in. (An identifier is parsed as a
+ * local variable only when the scope already has a local
+ * variable of that name.) So a cached Node is only used
+ * when the StaticScope is the same one and it has the same
+ * number of local variables as when the script was parsed.
+ * Otherwise the lookup counts as a miss and the script is
+ * parsed again.
+ * <p>
+ * "ruby.script.cache.size" is the maximum number of cached
+ * scripts. A size of 0 turns caching off.
+ * <p>
+ * Thread safe, all access is synchronized on the cache.
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+public class ScriptCache {
+	int maxSize;
+	long hits = 0;
+	long misses = 0;
+	long evictions = 0;
+	LinkedHashMap<String, ParsedScript> entries;
+
+	/**
+	 * A parsed script and the scope it was parsed in
+	 */
+	static class ParsedScript {
+		Node node;
+		StaticScope scope;
+		int numberOfVariables;
+		ParsedScript(Node n, StaticScope ss) {
+			node = n;
+			scope = ss;
+			numberOfVariables = ss.getNumberOfVariables();
+		}
+	}
+
+	/**
+	 * constructor used by Guice Injector
+	 *
+	 * @param size, int, maximum number of cached scripts
+	 */
+    @Inject
+    public ScriptCache(@Named("ruby.script.cache.size") int size) {
+    	maxSize = size;
+    	// access order, so iteration order is least recently used first
+    	entries = new LinkedHashMap<String, ParsedScript>(16, 0.75f, true) {
+    		protected boolean removeEldestEntry(Map.Entry<String, ParsedScript> eldest) {
+    			if (size() <= maxSize) {
+    				return false;
+    			}
+    			++evictions;
+    			return true;
+    		}
+    	};
+    }
+    /**
+     * @return A boolean, true when scripts are cached
+     */
+    public boolean isEnabled() {
+    	return maxSize > 0;
+    }
+    /**
+     * get the parsed script, if it is still valid for scope
+     *
+     * @param script A String, ruby source code
+     * @param scope A StaticScope, scope the script is to be run in
+     * @return A Node, the parsed script or null
+     */
+    public synchronized Node get(String script, StaticScope scope) {
+    	ParsedScript e = entries.get(script);
+    	if (null == e || e.scope != scope ||
+    	    e.numberOfVariables != scope.getNumberOfVariables()) {
+    		++misses;
+    		return null;
+    	}
+    	++hits;
+    	return e.node;
+    }
+    /**
+     * cache a parsed script
+     *
+     * @param script A String, ruby source code
+     * @param scope A StaticScope, scope the script was parsed in
+     * @param node A Node, the parsed script
+     */
+    public synchronized void put(String script, StaticScope scope, Node node) {
+    	if (!isEnabled()) {
+    		return;
+    	}
+    	entries.put(script, new ParsedScript(node, scope));
+    }
+    /**
+     * remove all cached scripts, counters are not reset
+     */
+    public synchronized void clear() {
+    	entries.clear();
+    }
+    public synchronized int size() {
+    	return entries.size();
+    }
+    public synchronized long hits() {
+    	return hits;
+    }
+    public synchronized long misses() {
+    	return misses;
+    }
+    public synchronized long evictions() {
+    	return evictions;
+    }
+    public String toString() {
+    	return "ScriptCache size: " + size() + "/" + maxSize +
+    	    " hits: " + hits() + " misses: " + misses() +
+    	    " evictions: " + evictions();
+    }
+} // ScriptCache
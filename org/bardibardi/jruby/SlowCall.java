@@ -0,0 +1,177 @@
+package org.bardibardi.jruby;
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+
+import org.jruby.RubyArray;
+import org.jruby.RubyHash;
+import org.jruby.RubyString;
+import org.jruby.runtime.builtin.IRubyObject;
+
+/**
+ * One call logged by the SlowCallLog: what was called, how
+ * long it took, the shapes (types and sizes, never values)
+ * of its arguments and the ruby backtrace of the call taken
+ * while it was running late.
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+public class SlowCall {
+	// ring buffer sequence
+	long sequence;
+	String key;
+	String thread;
+	long startMillis;
+	long thresholdNanos;
+	long conversionNanos;
+	long executionNanos;
+	String[] argumentShapes;
+	String[] backtrace;
+	boolean isError;
+
+	SlowCall(String k, String t, long start, long threshold, long conversion, long execution,
+		String[] shapes, String[] bt, boolean error) {
+		key = k;
+		thread = t;
+		startMillis = start;
+		thresholdNanos = threshold;
+		conversionNanos = conversion;
+		executionNanos = execution;
+		argumentShapes = shapes;
+		backtrace = bt;
+		isError = error;
+	}
+    /**
+     * @param params, Object[], send parameters, not changed
+     * @return String[], the shape of each parameter
+     */
+    static String[] shapes(Object[] params) {
+    	String[] shapes = new String[params.length];
+    	for (int i = 0; i < params.length; ++i) {
+    		shapes[i] = shape(params[i]);
+    	}
+    	return shapes;
+    }
+    /**
+     * @param o, Object, a send parameter
+     * @return String, type, and size where there is one
+     */
+    static String shape(Object o) {
+    	if (null == o) {
+    		return "null";
+    	}
+    	if (o instanceof IRubyO) {
+    		return shape(((IRubyO)o).unwrap());
+    	}
+    	if (o instanceof IRubyObject) {
+    		IRubyObject irobj = (IRubyObject)o;
+    		String name = "ruby " + RubyO.rubyClassName(irobj);
+    		if (irobj instanceof RubyString) {
+    			return name + "[" + ((RubyString)irobj).getByteList().realSize + "]";
+    		}
+    		if (irobj instanceof RubyArray) {
+    			return name + "[" + ((RubyArray)irobj).getLength() + "]";
+    		}
+    		if (irobj instanceof RubyHash) {
+    			return name + "[" + ((RubyHash)irobj).size() + "]";
+    		}
+    		return name;
+    	}
+    	String name = o.getClass().getName();
+    	if (o instanceof CharSequence) {
+    		return name + "[" + ((CharSequence)o).length() + "]";
+    	}
+    	if (o instanceof Collection) {
+    		return name + "[" + ((Collection)o).size() + "]";
+    	}
+    	if (o instanceof Map) {
+    		return name + "[" + ((Map)o).size() + "]";
+    	}
+    	if (o.getClass().isArray()) {
+    		return o.getClass().getComponentType().getName() + "[" +
+    		    Array.getLength(o) + "]";
+    	}
+    	return name;
+    }
+	/**
+	 * @return A String, "send " + method or "script " + fingerprint
+	 */
+    public String key() {
+    	return key;
+    }
+	/**
+	 * @return A String, name of the calling thread
+	 */
+    public String thread() {
+    	return thread;
+    }
+	/**
+	 * @return A long, when the call started, System.currentTimeMillis()
+	 */
+    public long startMillis() {
+    	return startMillis;
+    }
+	/**
+	 * @return A long, the threshold the call exceeded
+	 */
+    public long thresholdNanos() {
+    	return thresholdNanos;
+    }
+	/**
+	 * @return A long, time converting the parameters to ruby
+	 */
+    public long conversionNanos() {
+    	return conversionNanos;
+    }
+	/**
+	 * @return A long, time running ruby
+	 */
+    public long executionNanos() {
+    	return executionNanos;
+    }
+	/**
+	 * @return A String[], shape of each parameter, or the
+	 * length of the script
+	 */
+    public String[] argumentShapes() {
+    	return argumentShapes;
+    }
+	/**
+	 * @return A String[], ruby backtrace, innermost frame first,
+	 * empty if the call ended before it could be taken
+	 */
+    public String[] backtrace() {
+    	return backtrace;
+    }
+	/**
+	 * @return A boolean, true if the call threw
+	 */
+    public boolean isError() {
+    	return isError;
+    }
+    public String toString() {
+    	StringBuilder sb = new StringBuilder("slow ruby call ");
+    	sb.append(key);
+    	sb.append(" thread=").append(thread);
+    	sb.append(" started=").append(new Date(startMillis));
+    	sb.append(" total.ms=").append((conversionNanos + executionNanos) / 1e6);
+    	sb.append(" conversion.ms=").append(conversionNanos / 1e6);
+    	sb.append(" execution.ms=").append(executionNanos / 1e6);
+    	sb.append(" threshold.ms=").append(thresholdNanos / 1e6);
+    	if (isError) {
+    		sb.append(" error");
+    	}
+    	sb.append(" arguments=(");
+    	for (int i = 0; i < argumentShapes.length; ++i) {
+    		sb.append(i > 0 ? ", " : "").append(argumentShapes[i]);
+    	}
+    	sb.append(')');
+    	for (String frame : backtrace) {
+    		sb.append("\n\tfrom ").append(frame);
+    	}
+    	return sb.toString();
+    }
+} // SlowCall
@@ -0,0 +1,353 @@
+package org.bardibardi.jruby;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jruby.runtime.Frame;
+import org.jruby.runtime.ThreadContext;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+/**
+ * Log of the sends and scripts of the RubyApp's of an Injector
+ * which take longer than their threshold (see IConfigureSlowCalls,
+ * by default ConfigureSlowCalls). A SlowCall has the method name
+ * or script fingerprint, the time converting the parameters and
+ * the time running ruby, the shapes of the parameters and the
+ * ruby backtrace of the call.
+ * <p>
+ * A watchdog thread wakes up every "ruby.slow.call.check.millis"
+ * (default 10), while logging is enabled and a RubyApp of the
+ * Injector is not terminated (the last JRuby engine terminated,
+ * or a configure disabling the log, stops it). It takes the ruby backtrace of every call which
+ * is running past its threshold, again at every wake up, so the
+ * backtrace logged is the last one before the call ended, where
+ * it was slowest. A call ending before the watchdog saw it late
+ * is logged without a backtrace.
+ * <p>
+ * A slow call is put in a ring buffer of "ruby.slow.call.buffer.size"
+ * (default 1024, rounded up to a power of 2) SlowCall's, without
+ * locking, and the watchdog writes the buffer to the java.util.logging
+ * Logger LOGGER, at WARNING. So a calling thread never waits for
+ * the log. If the watchdog falls a whole buffer behind, the oldest
+ * SlowCall's are overwritten, and counted as dropped.
+ * <p>
+ * Not enabled (no threshold set), a call costs one volatile read.
+ * <p>
+ * Thread safe.
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+@Singleton
+public class SlowCallLog {
+	public static final String LOGGER = "org.bardibardi.jruby.SlowCallLog";
+	static final int RECENT = 100;
+	// backtraces taken per wake up, at most
+	static final int MAX_BACKTRACES = 16;
+	static final String[] NO_BACKTRACE = new String[0];
+
+	/**
+	 * A watched call, registered by the calling thread
+	 */
+	static final class InFlight {
+		final ThreadContext context;
+		final long start;
+		final long thresholdNanos;
+		volatile String[] backtrace = NO_BACKTRACE;
+		InFlight(ThreadContext c, long s, long t) {
+			context = c;
+			start = s;
+			thresholdNanos = t;
+		}
+	} // InFlight
+
+	IConfigureSlowCalls config;
+	volatile boolean enabled = false;
+	long checkMillis;
+	long scriptThresholdNanos;
+	// method name to threshold nanos, from config
+	ConcurrentHashMap<String, Long> thresholds = new ConcurrentHashMap<String, Long>();
+	ConcurrentHashMap<Thread, InFlight> inFlight = new ConcurrentHashMap<Thread, InFlight>();
+	AtomicReferenceArray<SlowCall> ring;
+	int mask;
+	AtomicLong tail = new AtomicLong();
+	// guarded by this
+	long head = 0;
+	LinkedList<SlowCall> recent = new LinkedList<SlowCall>();
+	AtomicLong logged = new AtomicLong();
+	AtomicLong dropped = new AtomicLong();
+	Logger logger = Logger.getLogger(LOGGER);
+	// guarded by this
+	Thread watchdog;
+	int engines = 0;
+
+	/**
+	 * constructor used by Guice Injector
+	 *
+	 * @param csc, ConfigureSlowCalls, used unless an
+	 * IConfigureSlowCalls is bound
+	 * @param bufferSize, int, SlowCall's buffered
+	 * @param checkMillis, long, time between watchdog wake ups
+	 */
+    @Inject
+    public SlowCallLog(ConfigureSlowCalls csc,
+    	@Named("ruby.slow.call.buffer.size") int bufferSize,
+    	@Named("ruby.slow.call.check.millis") long checkMillis) {
+    	int size = 2;
+    	while (size < bufferSize) {
+    		size <<= 1;
+    	}
+    	ring = new AtomicReferenceArray<SlowCall>(size);
+    	mask = size - 1;
+    	this.checkMillis = Math.max(checkMillis, 1);
+    	configure(csc);
+    }
+    /**
+     * Guice calls this when an IConfigureSlowCalls is bound
+     *
+     * @param icsc An IConfigureSlowCalls
+     */
+    @Inject(optional=true)
+    public void setConfigureSlowCalls(IConfigureSlowCalls icsc) {
+    	configure(icsc);
+    }
+    void configure(IConfigureSlowCalls icsc) {
+    	synchronized (this) {
+    		config = icsc;
+    		thresholds.clear();
+    		scriptThresholdNanos = icsc.scriptThresholdMillis() * 1000000;
+    		enabled = icsc.isEnabled();
+    		if (enabled) {
+    			if (engines > 0) {
+    				startWatchdog();
+    			}
+    			return;
+    		}
+    	}
+    	stop();
+    }
+    /**
+     * a JRuby engine starts using this, the watchdog is started
+     * when logging is enabled
+     */
+    synchronized void attach() {
+    	++engines;
+    	if (enabled) {
+    		startWatchdog();
+    	}
+    }
+    /**
+     * a JRuby engine is terminated, the last stops the watchdog
+     */
+    void detach() {
+    	synchronized (this) {
+    		if (0 != --engines) {
+    			return;
+    		}
+    	}
+    	stop();
+    }
+    // guarded by this
+    void startWatchdog() {
+    	if (null == watchdog) {
+    		watchdog = new Thread("SlowCallLog") {
+    			public void run() {
+    				watch();
+    			}
+    		};
+    		watchdog.setDaemon(true);
+    		watchdog.start();
+    	}
+    }
+    /**
+     * stop the watchdog, if it is running, and log what is
+     * left in the buffer
+     */
+    public void stop() {
+    	Thread t;
+    	synchronized (this) {
+    		t = watchdog;
+    		watchdog = null;
+    	}
+    	if (null == t) {
+    		return;
+    	}
+    	t.interrupt();
+    	try {
+    		t.join();
+    	}
+    	catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    	}
+    	drain();
+    }
+    /**
+     * @return A boolean, true while the watchdog runs
+     */
+    public synchronized boolean isWatching() {
+    	return null != watchdog;
+    }
+    /**
+     * @return A boolean, true when calls are watched
+     */
+    public boolean isEnabled() {
+    	return enabled;
+    }
+    /**
+     * @param method, String, ruby method name
+     * @return long, threshold of a send of method, 0 for never
+     */
+    long thresholdNanos(String method) {
+    	Long l = thresholds.get(method);
+    	if (null == l) {
+    		l = Long.valueOf(config.thresholdMillis(method) * 1000000);
+    		thresholds.put(method, l);
+    	}
+    	return l.longValue();
+    }
+    /**
+     * @return long, threshold of a script, 0 for never
+     */
+    long scriptThresholdNanos() {
+    	return scriptThresholdNanos;
+    }
+    /**
+     * register a call of the current thread, so the watchdog can
+     * take its backtrace, unless the thread is already in a call
+     *
+     * @return InFlight, null for a nested call
+     */
+    InFlight enter(ThreadContext context, long start, long thresholdNanos) {
+    	InFlight f = new InFlight(context, start, thresholdNanos);
+    	return null == inFlight.putIfAbsent(Thread.currentThread(), f) ? f : null;
+    }
+    /**
+     * the call registered by enter has ended
+     *
+     * @param f, InFlight, from enter, may be null
+     */
+    void exit(InFlight f) {
+    	if (null != f) {
+    		inFlight.remove(Thread.currentThread(), f);
+    	}
+    }
+    /**
+     * put a slow call in the ring buffer, never waits
+     *
+     * @param f, InFlight, from enter, may be null
+     */
+    void log(String key, long thresholdNanos, long conversionNanos, long executionNanos,
+    	String[] shapes, InFlight f, boolean isError) {
+    	long startMillis = System.currentTimeMillis() - (conversionNanos + executionNanos) / 1000000;
+    	SlowCall sc = new SlowCall(key, Thread.currentThread().getName(), startMillis,
+    	    thresholdNanos, conversionNanos, executionNanos, shapes,
+    	    null == f ? NO_BACKTRACE : f.backtrace, isError);
+    	long seq = tail.getAndIncrement();
+    	sc.sequence = seq;
+    	ring.set((int)(seq & mask), sc);
+    }
+    void watch() {
+    	while (true) {
+    		drain();
+    		int n = 0;
+    		long now = System.nanoTime();
+    		for (InFlight f : inFlight.values()) {
+    			if (n >= MAX_BACKTRACES) {
+    				break;
+    			}
+    			if (now - f.start > f.thresholdNanos) {
+    				f.backtrace = backtrace(f.context);
+    				++n;
+    			}
+    		}
+    		try {
+    			Thread.sleep(checkMillis);
+    		}
+    		catch (InterruptedException e) {
+    			return;
+    		}
+    	}
+    }
+    static String[] backtrace(ThreadContext context) {
+    	Frame[] frames;
+    	try {
+    		frames = context.createBacktrace(0, false);
+    	}
+    	catch (RuntimeException e) {
+    		// the frames changed while they were read, try next time
+    		return NO_BACKTRACE;
+    	}
+    	if (null == frames) {
+    		return NO_BACKTRACE;
+    	}
+    	List<String> bt = new ArrayList<String>();
+    	for (Frame f : frames) {
+    		if (null != f) {
+    			bt.add(f.getFile() + ":" + f.getLine() + ":in `" + f.getName() + "'");
+    		}
+    	}
+    	return bt.toArray(new String[bt.size()]);
+    }
+    /**
+     * write the buffered SlowCall's to the Logger, done by the
+     * watchdog, may also be called to flush the buffer at once
+     */
+    public synchronized void drain() {
+    	while (true) {
+    		int i = (int)(head & mask);
+    		SlowCall sc = ring.get(i);
+    		if (null == sc || sc.sequence < head) {
+    			// not written yet
+    			return;
+    		}
+    		if (sc.sequence > head) {
+    			// overwritten a lap later
+    			dropped.addAndGet(sc.sequence - head);
+    			head = sc.sequence;
+    		}
+    		ring.compareAndSet(i, sc, null);
+    		++head;
+    		publish(sc);
+    	}
+    }
+    // guarded by this
+    void publish(SlowCall sc) {
+    	logged.incrementAndGet();
+    	recent.addLast(sc);
+    	if (recent.size() > RECENT) {
+    		recent.removeFirst();
+    	}
+    	if (logger.isLoggable(Level.WARNING)) {
+    		logger.warning(sc.toString());
+    	}
+    }
+    /**
+     * @return A List, (of SlowCall's) the last RECENT logged,
+     * oldest first
+     */
+    public synchronized List<SlowCall> recent() {
+    	return new ArrayList<SlowCall>(recent);
+    }
+    /**
+     * @return A long, number of SlowCall's logged
+     */
+    public long logged() {
+    	return logged.get();
+    }
+    /**
+     * @return A long, number of SlowCall's overwritten before
+     * they were logged
+     */
+    public long dropped() {
+    	return dropped.get();
+    }
+} // SlowCallLog
@@ -0,0 +1,165 @@
+package org.bardibardi.jruby;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+/**
+ * The source of the ruby files loaded by RequireHook,
+ * memory mapped once and then shared, read only, by every
+ * JRuby engine in the JVM. A file is mapped again only when
+ * its modification time or size changes.
+ * <p>
+ * "ruby.app.source.cache" (default false) turns the cache on.
+ * Turned off, every get maps (or reads) the file again.
+ * <p>
+ * The mapped bytes are given to the JRuby parser through an
+ * InputStream reading the mapped buffer, (JRuby 1.1 parses
+ * from an InputStream), so there is no intermediate byte[]
+ * of the whole file. Jar entries are compressed and can not
+ * be mapped, so an entry ("file:jar!/entry") is read once
+ * into a direct buffer, which is shared the same way and
+ * read again only when the jar changes.
+ * <p>
+ * NB: the mapped files stay mapped (and on most systems can
+ * not be deleted) until the buffers are garbage collected.
+ * <p>
+ * Thread safe.
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+@Singleton
+public class SourceCache {
+	/**
+	 * the bytes of one file as of its modification time and size
+	 */
+	static class Source {
+		long modified;
+		long size;
+		ByteBuffer bytes;
+		Source(long m, long s, ByteBuffer b) {
+			modified = m;
+			size = s;
+			bytes = b;
+		}
+	} // Source
+
+	// the mapped files are the same for every engine and Injector
+	static ConcurrentHashMap<String, Source> sources = new ConcurrentHashMap<String, Source>();
+
+	boolean isEnabled;
+	AtomicLong hits = new AtomicLong();
+	AtomicLong maps = new AtomicLong();
+	AtomicLong remaps = new AtomicLong();
+
+	/**
+	 * constructor used by Guice Injector
+	 *
+	 * @param enabled, boolean, false to read files every time
+	 */
+    @Inject
+    public SourceCache(@Named("ruby.app.source.cache") boolean enabled) {
+    	isEnabled = enabled;
+    }
+    public boolean isEnabled() {
+    	return isEnabled;
+    }
+    /**
+     * @param path, String, a ruby file or "file:jar!/entry"
+     * @return ByteBuffer, read only, positioned at the start of the source
+     */
+    public ByteBuffer get(String path) throws IOException {
+    	int bang = path.indexOf("!/");
+    	boolean isJarEntry = path.startsWith("file:") && bang > 0;
+    	File file = new File(isJarEntry ? path.substring(5, bang) : path);
+    	long modified = file.lastModified();
+    	long size = file.length();
+    	if (!isEnabled) {
+    		return isJarEntry ? readEntry(file, path.substring(bang + 2)) : map(file);
+    	}
+    	Source s = sources.get(path);
+    	if (null != s && s.modified == modified && s.size == size) {
+    		hits.incrementAndGet();
+    		return s.bytes.duplicate();
+    	}
+    	ByteBuffer bytes = isJarEntry ? readEntry(file, path.substring(bang + 2)) : map(file);
+    	if (null == sources.put(path, new Source(modified, size, bytes))) {
+    		maps.incrementAndGet();
+    	}
+    	else {
+    		remaps.incrementAndGet();
+    	}
+    	return bytes.duplicate();
+    }
+    static ByteBuffer map(File file) throws IOException {
+    	RandomAccessFile raf = new RandomAccessFile(file, "r");
+    	try {
+    		FileChannel fc = raf.getChannel();
+    		// the mapping stays valid after the channel is closed
+    		return fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size()).asReadOnlyBuffer();
+    	}
+    	finally {
+    		raf.close();
+    	}
+    }
+    static ByteBuffer readEntry(File jar, String name) throws IOException {
+    	ZipFile zip = new ZipFile(jar);
+    	try {
+    		ZipEntry ze = zip.getEntry(name);
+    		if (null == ze) {
+    			throw new IOException(name + " not found in " + jar);
+    		}
+    		InputStream in = zip.getInputStream(ze);
+    		try {
+    			ByteBuffer bb = ByteBuffer.allocateDirect((int)ze.getSize());
+    			byte[] chunk = new byte[8192];
+    			int n;
+    			while (bb.hasRemaining() && (n = in.read(chunk, 0, Math.min(chunk.length, bb.remaining()))) > 0) {
+    				bb.put(chunk, 0, n);
+    			}
+    			bb.flip();
+    			return bb.asReadOnlyBuffer();
+    		}
+    		finally {
+    			in.close();
+    		}
+    	}
+    	finally {
+    		zip.close();
+    	}
+    }
+    /**
+     * @return A long, gets served from a mapping already made
+     */
+    public long hits() {
+    	return hits.get();
+    }
+    /**
+     * @return A long, files mapped for the first time
+     */
+    public long maps() {
+    	return maps.get();
+    }
+    /**
+     * @return A long, files mapped again because they changed
+     */
+    public long remaps() {
+    	return remaps.get();
+    }
+    public String toString() {
+    	return "SourceCache files: " + sources.size() + " hits: " + hits() +
+    	    " maps: " + maps() + " remaps: " + remaps();
+    }
+} // SourceCache
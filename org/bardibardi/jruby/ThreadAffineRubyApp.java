@@ -0,0 +1,175 @@
+package org.bardibardi.jruby;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.name.Named;
+
+/**
+ * An IRubyO which gives every thread using it its own
+ * RubyApp, booted by the RubyApp Provider the first time
+ * the thread calls any method. After that the thread always
+ * uses the same (warm) RubyApp, and no other thread uses it,
+ * so script/send never cross threads or contend for one
+ * JRuby engine.
+ * <p>
+ * At most "ruby.app.thread.max.runtimes" RubyApp's exist at
+ * one time. A thread needing a new RubyApp when the maximum
+ * is reached first evicts the RubyApp's of dead threads,
+ * then waits up to "ruby.app.thread.wait.millis" for a
+ * RubyApp to be evicted. The RubyApp's of dead threads
+ * are also evicted every "ruby.app.thread.sweep.millis"
+ * (0 for never) by a daemon Timer.
+ * Evicted RubyApp's are terminated.
+ * <p>
+ * NB: as with IRubyAppPool, the RubyApp's do not share
+ * ruby state, and the IRubyO's a thread gets from this
+ * should not be handed to other threads.
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+public class ThreadAffineRubyApp extends DelegatingRubyO {
+	Provider<RubyApp> rubyApps;
+	int maxRuntimes;
+	long waitMillis;
+	Semaphore permits;
+	ThreadLocal<RubyApp> current = new ThreadLocal<RubyApp>();
+	ConcurrentHashMap<Thread, RubyApp> apps = new ConcurrentHashMap<Thread, RubyApp>();
+	AtomicLong booted = new AtomicLong();
+	AtomicLong evicted = new AtomicLong();
+	Timer sweeper;
+
+	/**
+	 * constructor used by Guice Injector
+	 *
+	 * @param rap, Provider of RubyApp, creates a new RubyApp per get()
+	 * @param max, int, maximum number of RubyApp's
+	 * @param wait, long, milliseconds to wait for a RubyApp to be evicted
+	 * @param sweep, long, milliseconds between evictions of dead threads' RubyApp's
+	 */
+    @Inject
+    public ThreadAffineRubyApp(Provider<RubyApp> rap,
+    		@Named("ruby.app.thread.max.runtimes") int max,
+    		@Named("ruby.app.thread.wait.millis") long wait,
+    		@Named("ruby.app.thread.sweep.millis") long sweep) {
+    	if (max < 1) {
+    		throw new IllegalArgumentException("ruby.app.thread.max.runtimes must be at least 1: " + max);
+    	}
+    	rubyApps = rap;
+    	maxRuntimes = max;
+    	waitMillis = wait;
+    	permits = new Semaphore(max);
+    	if (sweep > 0) {
+    		sweeper = new Timer("ThreadAffineRubyApp sweeper", true);
+    		sweeper.schedule(new TimerTask() {
+    			public void run() {
+    				evictDead();
+    			}
+    		}, sweep, sweep);
+    	}
+    }
+    /**
+     * @return An IRubyO, the current thread's RubyApp
+     * @throws IllegalStateException if the maximum number of
+     * RubyApp's exist and none was evicted in time
+     */
+    protected IRubyO delegate() {
+    	RubyApp app = current.get();
+    	if (null != app) {
+    		return app;
+    	}
+    	return boot();
+    }
+    RubyApp boot() {
+    	if (!permits.tryAcquire()) {
+    		evictDead();
+    		boolean isAcquired = false;
+    		try {
+    		    isAcquired = permits.tryAcquire(waitMillis, TimeUnit.MILLISECONDS);
+    		}
+    		catch (InterruptedException e) {
+    			Thread.currentThread().interrupt();
+    		}
+    		if (!isAcquired) {
+    			throw new IllegalStateException("all " + maxRuntimes +
+    			    " thread RubyApp's in use");
+    		}
+    	}
+    	RubyApp app;
+    	try {
+    		app = rubyApps.get();
+    	}
+    	catch (RuntimeException e) {
+    		permits.release();
+    		throw e;
+    	}
+    	apps.put(Thread.currentThread(), app);
+    	current.set(app);
+    	booted.incrementAndGet();
+    	return app;
+    }
+    /**
+     * evict (terminate) the RubyApp's of threads which have died
+     *
+     * @return An int, the number of RubyApp's evicted
+     */
+    public int evictDead() {
+    	int count = 0;
+    	Iterator<Map.Entry<Thread, RubyApp>> it = apps.entrySet().iterator();
+    	while (it.hasNext()) {
+    		Map.Entry<Thread, RubyApp> e = it.next();
+    		if (e.getKey().isAlive()) {
+    			continue;
+    		}
+    		if (!apps.remove(e.getKey(), e.getValue())) {
+    			continue;
+    		}
+    		try {
+    			e.getValue().terminate();
+    		}
+    		finally {
+    			permits.release();
+    		}
+    		evicted.incrementAndGet();
+    		++count;
+    	}
+    	return count;
+    }
+    /**
+     * @return An int, the number of RubyApp's which exist
+     */
+    public int live() {
+    	return apps.size();
+    }
+    /**
+     * @return An int, the maximum number of RubyApp's
+     */
+    public int maxRuntimes() {
+    	return maxRuntimes;
+    }
+    /**
+     * @return A long, the number of RubyApp's booted
+     */
+    public long booted() {
+    	return booted.get();
+    }
+    /**
+     * @return A long, the number of RubyApp's evicted
+     */
+    public long evicted() {
+    	return evicted.get();
+    }
+    public String toString() {
+    	return "ThreadAffineRubyApp live: " + live() + "/" + maxRuntimes() +
+    	    " booted: " + booted() + " evicted: " + evicted();
+    }
+} // ThreadAffineRubyApp
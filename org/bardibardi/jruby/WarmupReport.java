@@ -0,0 +1,169 @@
+package org.bardibardi.jruby;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What the warmup of a RubyApp did (see IConfigureWarmup):
+ * for every script and send, how often it was run, how long
+ * its first (cold) run took and the mean of its later (warm)
+ * runs.
+ * <p>
+ * A warm run is any run in the second half of the runs, so
+ * the mean is not spoiled by the runs made before JRuby's
+ * JIT compiled the method.
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+public class WarmupReport {
+	/**
+	 * latencies of one script or send
+	 */
+	public static class Item {
+		String name;
+		boolean isSend;
+		int runs = 0;
+		long coldNanos = 0;
+		long[] nanos;
+		Item(String n, boolean s, int iterations) {
+			name = n;
+			isSend = s;
+			// without an iterations limit, grown as the budget allows
+			nanos = new long[iterations > 0 ? iterations : 64];
+		}
+		void record(long n) {
+			if (0 == runs) {
+				coldNanos = n;
+			}
+			if (runs == nanos.length) {
+				long[] more = new long[2 * runs];
+				System.arraycopy(nanos, 0, more, 0, runs);
+				nanos = more;
+			}
+			nanos[runs++] = n;
+		}
+		/**
+		 * @return A String, the script or the method name sent
+		 */
+		public String name() {
+			return name;
+		}
+		public boolean isSend() {
+			return isSend;
+		}
+		public int runs() {
+			return runs;
+		}
+		/**
+		 * @return A double, milliseconds of the first run
+		 */
+		public double coldMillis() {
+			return coldNanos / 1e6;
+		}
+		/**
+		 * @return A double, mean milliseconds of the second half of
+		 * the runs, the first run if there was only one
+		 */
+		public double warmMillis() {
+			if (runs < 2) {
+				return coldMillis();
+			}
+			long total = 0;
+			for (int i = runs / 2; i < runs; ++i) {
+				total += nanos[i];
+			}
+			return total / 1e6 / (runs - runs / 2);
+		}
+		public String toString() {
+			return (isSend ? "send " : "script ") + name + " runs: " + runs +
+			    " cold ms: " + coldMillis() + " warm ms: " + warmMillis();
+		}
+	} // Item
+
+	List<Item> items = new ArrayList<Item>();
+	int iterations = 0;
+	boolean isBudgetExhausted = false;
+	long millis = 0;
+
+    /**
+     * Run the warmup configured by icw on iro, until its
+     * iterations are run or its budget runs out, whichever
+     * comes first, nothing is run when neither is set.
+     * Exceptions thrown by the scripts and sends are not caught.
+     *
+     * @param iro, IRubyO, scripts run by, methods sent to
+     * @param icw, IConfigureWarmup
+     * @return WarmupReport
+     */
+    static WarmupReport run(IRubyO iro, IConfigureWarmup icw) {
+    	WarmupReport wr = new WarmupReport();
+    	int iterations = icw.iterations();
+    	long budget = icw.budgetMillis();
+    	if (iterations <= 0 && budget <= 0) {
+    		return wr;
+    	}
+    	for (Object o : icw.scripts()) {
+    		wr.items.add(new Item((String)o, false, iterations));
+    	}
+    	for (Object o : icw.sends()) {
+    		wr.items.add(new Item((String)o, true, iterations));
+    	}
+    	if (wr.items.isEmpty()) {
+    		return wr;
+    	}
+    	long start = System.currentTimeMillis();
+    	run:
+    	for (int i = 0; iterations <= 0 || i < iterations; ++i) {
+    		for (Item item : wr.items) {
+    			long t = System.nanoTime();
+    			if (item.isSend) {
+    				iro.send0(item.name);
+    			}
+    			else {
+    				iro.script(item.name);
+    			}
+    			item.record(System.nanoTime() - t);
+    			if (budget > 0 && System.currentTimeMillis() - start >= budget) {
+    				wr.isBudgetExhausted = true;
+    				wr.iterations = i + 1;
+    				break run;
+    			}
+    		}
+    		wr.iterations = i + 1;
+    	}
+    	wr.millis = System.currentTimeMillis() - start;
+    	return wr;
+    }
+    /**
+     * @return List (of Item), one per script and send, in the
+     * order run
+     */
+    public List<Item> items() {
+    	return items;
+    }
+    /**
+     * @return An int, iterations started, (the last one may be
+     * incomplete if the budget ran out)
+     */
+    public int iterations() {
+    	return iterations;
+    }
+    public boolean isBudgetExhausted() {
+    	return isBudgetExhausted;
+    }
+    /**
+     * @return A long, milliseconds the warmup took
+     */
+    public long millis() {
+    	return millis;
+    }
+    public String toString() {
+    	StringBuilder sb = new StringBuilder("WarmupReport iterations: " + iterations +
+    	    " ms: " + millis + (isBudgetExhausted ? " (budget exhausted)" : ""));
+    	for (Item item : items) {
+    		sb.append("\n").append(item);
+    	}
+    	return sb.toString();
+    }
+} // WarmupReport
@@ -0,0 +1,415 @@
+package org.bardibardi.jruby.bench;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.regex.Pattern;
+
+import org.jruby.runtime.builtin.IRubyObject;
+
+import com.google.inject.Guice;
+
+import org.bardibardi.jruby.IRubyO;
+import org.bardibardi.jruby.RubyApp;
+import org.bardibardi.jruby.guice.RubyAppGuiceModule;
+
+/**
+ * Benchmarks of the IRubyO embedding layer, so a JRuby,
+ * Guice or RubyO change can be compared with the numbers
+ * from before it:
+ * <p>
+ * script.small, script.large: RubyO.script
+ * <p>
+ * send.arity0 ... send.arity3: send0 ... send3
+ * <p>
+ * javaObject.String ... javaObject.Object: javaObject for
+ * each java type JRubyTest converts to
+ * <p>
+ * javaGlobal.set, javaGlobal.get: javaGlobalSet, javaGlobal
+ * <p>
+ * rubyO.wrap: rubyO of an IRubyObject
+ * <p>
+ * boot: a RubyApp from a new RubyAppGuiceModule Injector,
+ * single shot, milliseconds per boot
+ * <p>
+ * Run as a java application with the same classpath as
+ * org.bardibardi.jruby.test.JRubyTest. The options are
+ * named as those of JMH:
+ * <p>
+ * -wi n, warmup iterations (default 3)
+ * <p>
+ * -i n, measured iterations (default 5)
+ * <p>
+ * -r millis, time of an iteration (default 1000)
+ * <p>
+ * -t n,m,..., thread counts (default 1 and the number of processors),
+ * the threads share one RubyApp, as in the SHARED runtime mode
+ * <p>
+ * -rff file, JSON results (default bench-result.json), in the
+ * layout of JMH's JSON results, so the same tools can read them
+ * <p>
+ * a last argument is a regular expression, only the benchmarks
+ * whose names it finds are run.
+ * <p>
+ * Throughput is ops/s, summed over the threads. The score error
+ * is the half width of an (approximate, normal) 99.9% confidence
+ * interval over the measured iterations.
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+public class EmbeddingBenchmarks {
+	static int warmupIterations = 3;
+	static int iterations = 5;
+	static long iterationMillis = 1000;
+	static int[] threadCounts = Runtime.getRuntime().availableProcessors() > 1 ?
+		new int[] {1, Runtime.getRuntime().availableProcessors()} : new int[] {1};
+	static String resultFile = "bench-result.json";
+	static Pattern include = Pattern.compile("");
+	// 99.9% two sided, normal approximation
+	static double Z = 3.29;
+	// results are stored here, so no op can be optimized away
+	static volatile Object sink;
+
+	static String BENCH_METHODS =
+		"def bench0\n" +
+		    "0\n" +
+		"end\n" +
+		"def bench1(a)\n" +
+		    "a\n" +
+		"end\n" +
+		"def bench2(a, b)\n" +
+		    "a + b\n" +
+		"end\n" +
+		"def bench3(a, b, c)\n" +
+		    "a + b + c\n" +
+		"end";
+	static String SMALL_SCRIPT = "1 + 2";
+	static String LARGE_SCRIPT;
+	static {
+		StringBuilder sb = new StringBuilder("x = 0\n");
+		for (int i = 0; i < 100; ++i) {
+			sb.append("x = x + " + i + " * 2 - (x / 3)\n");
+		}
+		sb.append("x\n");
+		LARGE_SCRIPT = sb.toString();
+	}
+	static Long ONE = Long.valueOf(1);
+
+	/**
+	 * One benchmark: setUp is run once, op over and over
+	 */
+	abstract static class Bench {
+		String name;
+		Bench(String n) {
+			name = n;
+		}
+		void setUp(IRubyO ro) {
+		}
+		abstract Object op(IRubyO ro);
+	} // Bench
+
+	/**
+	 * javaObject of one ruby value to one java type
+	 */
+	static class JavaObjectBench extends Bench {
+		Class clazz;
+		String script;
+		IRubyObject value;
+		JavaObjectBench(Class c, String s) {
+			super("javaObject." + c.getSimpleName());
+			clazz = c;
+			script = s;
+		}
+		void setUp(IRubyO ro) {
+			value = ro.script(script);
+		}
+		Object op(IRubyO ro) {
+			return ro.javaObject(clazz, value);
+		}
+	} // JavaObjectBench
+
+	/**
+	 * Set by the main thread when an iteration is over
+	 */
+	static class Flag {
+		volatile boolean isSet = false;
+	} // Flag
+
+	/**
+	 * The results of one benchmark at one thread count
+	 */
+	static class Result {
+		String name;
+		String mode;
+		String unit;
+		int threads;
+		double[] scores;
+		Result(String n, String m, String u, int t, double[] s) {
+			name = n;
+			mode = m;
+			unit = u;
+			threads = t;
+			scores = s;
+		}
+		double score() {
+			double sum = 0;
+			for (double s : scores) {
+				sum += s;
+			}
+			return sum / scores.length;
+		}
+		double error() {
+			if (scores.length < 2) {
+				return Double.NaN;
+			}
+			double mean = score();
+			double sq = 0;
+			for (double s : scores) {
+				sq += (s - mean) * (s - mean);
+			}
+			return Z * Math.sqrt(sq / (scores.length - 1)) / Math.sqrt(scores.length);
+		}
+	} // Result
+
+	static List<Bench> benchmarks() {
+		List<Bench> l = new ArrayList<Bench>();
+		l.add(new Bench("script.small") {
+			Object op(IRubyO ro) {
+				return ro.script(SMALL_SCRIPT);
+			}
+		});
+		l.add(new Bench("script.large") {
+			Object op(IRubyO ro) {
+				return ro.script(LARGE_SCRIPT);
+			}
+		});
+		l.add(new Bench("send.arity0") {
+			Object op(IRubyO ro) {
+				return ro.send0("bench0");
+			}
+		});
+		l.add(new Bench("send.arity1") {
+			Object op(IRubyO ro) {
+				return ro.send1("bench1", ONE);
+			}
+		});
+		l.add(new Bench("send.arity2") {
+			Object op(IRubyO ro) {
+				return ro.send2("bench2", ONE, ONE);
+			}
+		});
+		l.add(new Bench("send.arity3") {
+			Object op(IRubyO ro) {
+				return ro.send3("bench3", ONE, ONE, ONE);
+			}
+		});
+		l.add(new JavaObjectBench(String.class, "'forty two'"));
+		l.add(new JavaObjectBench(Integer.class, "42"));
+		l.add(new JavaObjectBench(Long.class, "42"));
+		l.add(new JavaObjectBench(Double.class, "4.2"));
+		l.add(new JavaObjectBench(Float.class, "4.2"));
+		l.add(new JavaObjectBench(Boolean.class, "true"));
+		l.add(new JavaObjectBench(Object.class, "nil"));
+		l.add(new JavaObjectBench(BigDecimal.class, "java_global('bench_decimal')") {
+			void setUp(IRubyO ro) {
+				ro.javaGlobalSet("bench_decimal", new BigDecimal("4.2"));
+				super.setUp(ro);
+			}
+		});
+		l.add(new Bench("javaGlobal.set") {
+			Object op(IRubyO ro) {
+				return ro.javaGlobalSet("bench_set", ONE);
+			}
+		});
+		l.add(new Bench("javaGlobal.get") {
+			void setUp(IRubyO ro) {
+				ro.javaGlobalSet("bench_get", "value");
+			}
+			Object op(IRubyO ro) {
+				return ro.javaGlobal(String.class, "bench_get");
+			}
+		});
+		l.add(new Bench("rubyO.wrap") {
+			IRubyObject value;
+			void setUp(IRubyO ro) {
+				value = ro.script("'wrapped'");
+			}
+			Object op(IRubyO ro) {
+				return ro.rubyO(value);
+			}
+		});
+		return l;
+	}
+
+    public static void main(String[] args) throws Exception {
+    	parse(args);
+    	List<Result> results = new ArrayList<Result>();
+    	if (include.matcher("boot").find()) {
+    		results.add(boot());
+    	}
+    	RubyApp ra = Guice.createInjector(new RubyAppGuiceModule()).getInstance(RubyApp.class);
+    	try {
+    		ra.script(BENCH_METHODS);
+    		for (Bench b : benchmarks()) {
+    			if (!include.matcher(b.name).find()) {
+    				continue;
+    			}
+    			b.setUp(ra);
+    			for (int t : threadCounts) {
+    				results.add(throughput(ra, b, t));
+    			}
+    		}
+    	}
+    	finally {
+    		ra.terminate();
+    	}
+    	write(results);
+    }
+    static void parse(String[] args) {
+    	for (int i = 0; i < args.length; ++i) {
+    		String a = args[i];
+    		if ("-wi".equals(a)) {
+    			warmupIterations = Integer.parseInt(args[++i]);
+    		}
+    		else if ("-i".equals(a)) {
+    			iterations = Integer.parseInt(args[++i]);
+    		}
+    		else if ("-r".equals(a)) {
+    			iterationMillis = Long.parseLong(args[++i]);
+    		}
+    		else if ("-t".equals(a)) {
+    			String[] ts = args[++i].split(",");
+    			threadCounts = new int[ts.length];
+    			for (int j = 0; j < ts.length; ++j) {
+    				threadCounts[j] = Integer.parseInt(ts[j].trim());
+    			}
+    		}
+    		else if ("-rff".equals(a)) {
+    			resultFile = args[++i];
+    		}
+    		else {
+    			include = Pattern.compile(a);
+    		}
+    	}
+    }
+    /**
+     * @return Result, milliseconds per RubyApp boot
+     */
+    static Result boot() {
+    	double[] scores = new double[iterations];
+    	for (int i = -warmupIterations; i < iterations; ++i) {
+    		long start = System.nanoTime();
+    		RubyApp ra = Guice.createInjector(new RubyAppGuiceModule()).getInstance(RubyApp.class);
+    		long nanos = System.nanoTime() - start;
+    		ra.terminate();
+    		if (i >= 0) {
+    			scores[i] = nanos / 1e6;
+    		}
+    	}
+    	Result r = new Result("boot", "ss", "ms/op", 1, scores);
+    	print(r);
+    	return r;
+    }
+    /**
+     * @return Result, ops/s of b run by threads threads at once
+     */
+    static Result throughput(final IRubyO ro, final Bench b, int threads) throws InterruptedException {
+    	double[] scores = new double[iterations];
+    	for (int i = -warmupIterations; i < iterations; ++i) {
+    		final long[] ops = new long[threads];
+    		final CountDownLatch start = new CountDownLatch(1);
+    		final Flag done = new Flag();
+    		Thread[] ts = new Thread[threads];
+    		for (int t = 0; t < threads; ++t) {
+    			final int index = t;
+    			ts[t] = new Thread(b.name + "-" + t) {
+    				public void run() {
+    					try {
+    						start.await();
+    					}
+    					catch (InterruptedException e) {
+    						return;
+    					}
+    					long n = 0;
+    					Object last = null;
+    					while (true) {
+    						// check the clock every 64 ops, ops are 100 ns and up
+    						for (int k = 0; k < 64; ++k) {
+    							last = b.op(ro);
+    						}
+    						n += 64;
+    						if (done.isSet) {
+    							break;
+    						}
+    					}
+    					ops[index] = n;
+    					sink = last;
+    				}
+    			};
+    			ts[t].start();
+    		}
+    		long begin = System.nanoTime();
+    		start.countDown();
+    		Thread.sleep(iterationMillis);
+    		done.isSet = true;
+    		for (Thread t : ts) {
+    			t.join();
+    		}
+    		double seconds = (System.nanoTime() - begin) / 1e9;
+    		long total = 0;
+    		for (long n : ops) {
+    			total += n;
+    		}
+    		if (i >= 0) {
+    			scores[i] = total / seconds;
+    		}
+    	}
+    	Result r = new Result(b.name, "thrpt", "ops/s", threads, scores);
+    	print(r);
+    	return r;
+    }
+    static void print(Result r) {
+    	System.out.println(r.name + " threads=" + r.threads + " " + r.mode +
+    	    " " + r.score() + " +- " + r.error() + " " + r.unit);
+    }
+    static String number(double d) {
+    	return Double.isNaN(d) || Double.isInfinite(d) ? "\"NaN\"" : String.valueOf(d);
+    }
+    static void write(List<Result> results) throws IOException {
+    	Writer w = new FileWriter(resultFile);
+    	try {
+    		w.write("[\n");
+    		for (int i = 0; i < results.size(); ++i) {
+    			Result r = results.get(i);
+    			w.write("    {\n");
+    			w.write("        \"benchmark\" : \"" + EmbeddingBenchmarks.class.getName() + "." + r.name + "\",\n");
+    			w.write("        \"mode\" : \"" + r.mode + "\",\n");
+    			w.write("        \"threads\" : " + r.threads + ",\n");
+    			w.write("        \"warmupIterations\" : " + warmupIterations + ",\n");
+    			w.write("        \"measurementIterations\" : " + iterations + ",\n");
+    			w.write("        \"measurementTime\" : \"" + iterationMillis + " ms\",\n");
+    			w.write("        \"primaryMetric\" : {\n");
+    			w.write("            \"score\" : " + number(r.score()) + ",\n");
+    			w.write("            \"scoreError\" : " + number(r.error()) + ",\n");
+    			w.write("            \"scoreUnit\" : \"" + r.unit + "\",\n");
+    			w.write("            \"rawData\" : [\n                [");
+    			for (int j = 0; j < r.scores.length; ++j) {
+    				w.write((j > 0 ? ", " : "") + number(r.scores[j]));
+    			}
+    			w.write("]\n            ]\n");
+    			w.write("        }\n");
+    			w.write("    }" + (i < results.size() - 1 ? "," : "") + "\n");
+    		}
+    		w.write("]\n");
+    	}
+    	finally {
+    		w.close();
+    	}
+    	System.out.println("results written to " + resultFile);
+    }
+} // EmbeddingBenchmarks
@@ -0,0 +1,64 @@
+package org.bardibardi.jruby.bench;
+
+import org.jruby.Ruby;
+import org.jruby.javasupport.JavaEmbedUtils;
+import org.jruby.runtime.builtin.IRubyObject;
+
+import com.google.inject.Guice;
+
+import org.bardibardi.jruby.IRubyO;
+import org.bardibardi.jruby.guice.RubyAppGuiceModule;
+
+/**
+ * Microbenchmark of RubyO.send, which uses the inline
+ * caches of org.bardibardi.jruby.CallSiteCache, against
+ * JavaEmbedUtils.invokeMethod, which looks the method up
+ * by name for every call (what RubyO.send used to do).
+ * <p>
+ * Run as a java application with the same classpath as
+ * org.bardibardi.jruby.test.JRubyTest. Optional arguments
+ * are the number of timed calls and the number of rounds.
+ * Each round prints nanoseconds per call for both paths.
+ *
+ * @author Bardi Einarsson, bardibardi.org
+ *
+ */
+public class SendBenchmark {
+	static int times = 1000000;
+	static int rounds = 5;
+	static String BENCH_ADD =
+		"def bench_add(a, b)\n" +
+		    "a + b\n" +
+		"end";
+
+    public static void main(String[] args) {
+    	if (args.length > 0) {
+    		times = Integer.parseInt(args[0]);
+    	}
+    	if (args.length > 1) {
+    		rounds = Integer.parseInt(args[1]);
+    	}
+    	IRubyO rubyApp = Guice.createInjector(new RubyAppGuiceModule()).getInstance(IRubyO.class);
+    	rubyApp.script(BENCH_ADD);
+    	IRubyObject robj = rubyApp.unwrap();
+    	Ruby ruby = robj.getRuntime();
+    	IRubyObject one = rubyApp.rubyObject(1);
+    	IRubyObject two = rubyApp.rubyObject(2);
+    	for (int round = 0; round < rounds; ++round) {
+    		long start = System.nanoTime();
+    		for (int i = 0; i < times; ++i) {
+    			rubyApp.send("bench_add", one, two);
+    		}
+    		long cached = System.nanoTime() - start;
+    		start = System.nanoTime();
+    		for (int i = 0; i < times; ++i) {
+    			JavaEmbedUtils.invokeMethod(ruby, robj, "bench_add",
+    			    new Object[] {one, two}, IRubyObject.class);
+    		}
+    		long uncached = System.nanoTime() - start;
+    		System.out.println("round " + round +
+    		    ": RubyO.send " + (cached / times) + " ns/call" +
+    		    ", JavaEmbedUtils.invokeMethod " + (uncached / times) + " ns/call");
+    	}
+    }
+} // SendBenchmark
@@ -1,13 +1,28 @@
 package org.bardibardi.jruby.guice;
 
+import java.util.ArrayList;
+
 import com.google.inject.Module;
 import com.google.inject.Binder;
+import com.google.inject.Provider;
+import com.google.inject.Scopes;
+import com.google.inject.name.Names;
 import org.bardibardi.guice.SystemProperty;
 
+import org.bardibardi.jruby.AsyncRubyO;
+import org.bardibardi.jruby.BackgroundRubyApp;
 import org.bardibardi.jruby.ConfigureRubyApp;
+import org.bardibardi.jruby.ConfigureWarmup;
+import org.bardibardi.jruby.IAsyncRubyO;
 import org.bardibardi.jruby.IConfigureRubyApp;
+import org.bardibardi.jruby.IConfigureWarmup;
+import org.bardibardi.jruby.IRubyAppPool;
 import org.bardibardi.jruby.IRubyO;
+import org.bardibardi.jruby.JavaGlobalCache;
+import org.bardibardi.jruby.NamedRubyAppProvider;
 import org.bardibardi.jruby.RubyApp;
+import org.bardibardi.jruby.RubyAppPool;
+import org.bardibardi.jruby.ThreadAffineRubyApp;
 
 /**
  * set up Guice injection of all configuration necessary to
@@ -19,12 +34,158 @@ import org.bardibardi.jruby.RubyApp;
  */
 public class RubyAppGuiceModule implements Module {
 	/**
+	 * runtime mode: IRubyO is one RubyApp shared by all threads
+	 */
+	public static final String SHARED = "shared";
+	/**
+	 * runtime mode: IRubyO is a ThreadAffineRubyApp, a RubyApp per thread
+	 */
+	public static final String THREAD = "thread";
+	/**
+	 * runtime mode: IRubyO is a BackgroundRubyApp, one RubyApp
+	 * shared by all threads, booted on a background thread
+	 */
+	public static final String BACKGROUND = "background";
+	String runtimeMode;
+	String[] appNames;
+	/**
+	 * runtime mode from java property "ruby.app.runtime.mode",
+	 * SHARED if the property is not set, names of the ruby apps
+	 * from java property "ruby.app.names", separated by commas
+	 */
+	public RubyAppGuiceModule() {
+		this(System.getProperty("ruby.app.runtime.mode", SHARED),
+		    names(System.getProperty("ruby.app.names")));
+	}
+	/**
+	 * @param mode, String, runtime mode, SHARED, THREAD or BACKGROUND
+	 */
+	public RubyAppGuiceModule(String mode) {
+		this(mode, new String[0]);
+	}
+	/**
+	 * @param mode, String, runtime mode, SHARED, THREAD or BACKGROUND
+	 * @param names, String..., names of the ruby apps bound as
+	 * &#64;Named(name) IRubyO, besides the unnamed one
+	 */
+	public RubyAppGuiceModule(String mode, String... names) {
+		if (!SHARED.equals(mode) && !THREAD.equals(mode) && !BACKGROUND.equals(mode)) {
+			throw new IllegalArgumentException("unknown ruby.app.runtime.mode: " + mode);
+		}
+		for (String name : names) {
+			if (null == name || 0 == name.trim().length()) {
+				throw new IllegalArgumentException("empty ruby app name");
+			}
+		}
+		runtimeMode = mode;
+		appNames = names;
+	}
+	static String[] names(String property) {
+		ArrayList<String> al = new ArrayList<String>();
+		if (null != property) {
+			for (String name : property.split(",")) {
+				if (name.trim().length() > 0) {
+					al.add(name.trim());
+				}
+			}
+		}
+		return al.toArray(new String[al.size()]);
+	}
+	/**
      * set up Guice injection of all configuration necessary to
      * use JRuby from java with a designated ruby application
      * script.
 	 * <p>
 	 * Look at the javadoc of org.bardibardi.jruby.ConfigureRubyApp to see
 	 * precisely how the ruby.app... java properties are used.
+	 * <p>
+	 * "ruby.app.aot.cache.directory" (default "", off) and
+	 * "ruby.app.aot.compile.stale" (default true) configure
+	 * org.bardibardi.jruby.AotCache, which loads the ruby app
+	 * files compiled to JVM class files.
+	 * <p>
+	 * "ruby.app.load.path.index" (default false) and
+	 * "ruby.app.load.path.index.check.millis" (default 2000)
+	 * configure org.bardibardi.jruby.LoadPathIndex, which resolves
+	 * require without probing every load path entry.
+	 * <p>
+	 * "ruby.app.source.cache" (default false) turns on
+	 * org.bardibardi.jruby.SourceCache, which memory maps the
+	 * required ruby files once for every RubyApp.
+	 * <p>
+	 * Look at the javadoc of org.bardibardi.jruby.ConfigureWarmup to see
+	 * how the ruby.app.warmup... java properties are used. By default
+	 * a RubyApp does no warmup.
+	 * <p>
+	 * "ruby.script.cache.size" is the maximum number of parsed
+	 * scripts kept by org.bardibardi.jruby.ScriptCache
+	 * (default 256, 0 turns the cache off).
+	 * <p>
+	 * "ruby.java.global.max.entries", "ruby.java.global.max.weight",
+	 * "ruby.java.global.expire.after.write.millis",
+	 * "ruby.java.global.expire.after.access.millis" (default 0 each,
+	 * meaning no bound or expiry) and "ruby.java.global.values"
+	 * (default "strong") configure org.bardibardi.jruby.JavaGlobalCache,
+	 * which makes the javaGlobal... store a cache.
+	 * <p>
+	 * "ruby.rubyo.cache" (default false) turns on
+	 * org.bardibardi.jruby.RubyOCache, so rubyO... return the same
+	 * IRubyO for the same ruby object.
+	 * <p>
+	 * "ruby.metrics" (default false) starts timing the calls
+	 * of every RubyApp, see org.bardibardi.jruby.RubyOMetrics,
+	 * which is also a JMX MBean.
+	 * <p>
+	 * "ruby.profiler" (default false), "ruby.profiler.interval.millis"
+	 * (default 10), "ruby.profiler.max.threads" (default 16) and
+	 * "ruby.profiler.max.depth" (default 64) configure
+	 * org.bardibardi.jruby.RubyProfiler, which samples the ruby
+	 * stacks of the calls into flame graph input.
+	 * <p>
+	 * Look at the javadoc of org.bardibardi.jruby.ConfigureSlowCalls to
+	 * see how "ruby.slow.call.millis" (default 0, off) and
+	 * "ruby.slow.call.method.millis" set the thresholds of
+	 * org.bardibardi.jruby.SlowCallLog, or bind an IConfigureSlowCalls.
+	 * "ruby.slow.call.buffer.size" (default 1024) and
+	 * "ruby.slow.call.check.millis" (default 10) configure its ring
+	 * buffer and watchdog.
+	 * <p>
+	 * "ruby.reload.millis" (default 0, off) is how often
+	 * org.bardibardi.jruby.HotReload checks the ruby files loaded
+	 * from "ruby.app.file.directory" and "ruby.app.load.path.additions"
+	 * and loads the changed ones again into the running engines.
+	 * <p>
+	 * In SHARED runtime mode IRubyO is bound to a singleton RubyApp.
+	 * In THREAD runtime mode IRubyO is bound to a singleton
+	 * ThreadAffineRubyApp, configured by "ruby.app.thread.max.runtimes"
+	 * (default 16), "ruby.app.thread.wait.millis" (default 30000)
+	 * and "ruby.app.thread.sweep.millis" (default 60000).
+	 * In BACKGROUND runtime mode IRubyO is bound to a singleton
+	 * BackgroundRubyApp, which returns at once and boots its
+	 * RubyApp on a background thread.
+	 * <p>
+	 * Each named ruby app, see the constructors, is bound as
+	 * &#64;Named(name) RubyApp to a NamedRubyAppProvider, which
+	 * creates RubyApp's configured by the java properties prefixed
+	 * with the name, e.g. "blog.ruby.app.file.directory" (see
+	 * ConfigureRubyApp). &#64;Named(name) IRubyO is bound, by the
+	 * runtime mode as the unnamed IRubyO, to a singleton RubyApp,
+	 * ThreadAffineRubyApp or BackgroundRubyApp of those, and
+	 * &#64;Named(name) IRubyAppPool to a singleton RubyAppPool of
+	 * them. Each RubyApp has its own JRuby engine, independent of
+	 * the unnamed IRubyO and of the other named ones.
+	 * <p>
+	 * IRubyAppPool is bound to a singleton RubyAppPool of
+	 * "ruby.app.pool.size" RubyApp's (default: number of
+	 * processors), created when the pool is first injected.
+	 * "ruby.app.pool.checkout.timeout.millis" (default 30000)
+	 * is how long IRubyAppPool.checkout() waits.
+	 * <p>
+	 * IAsyncRubyO is bound to a singleton AsyncRubyO for IRubyO
+	 * with "ruby.async.threads" threads (default: number of
+	 * processors), a queue of "ruby.async.queue.capacity" calls
+	 * (default 1000) and "ruby.async.backpressure" (default
+	 * "caller-runs").
 	 * 
 	 * @param b, Binder, Guice Binder
 	 */
@@ -34,7 +195,85 @@ public class RubyAppGuiceModule implements Module {
 		SystemProperty.bind(b, "ruby.app.file.name.without.rb.extension");
 		SystemProperty.bind(b, "ruby.app.class.name");
 		SystemProperty.bind(b, "ruby.app.load.path.additions");
+		SystemProperty.bind(b, "ruby.script.cache.size", "256");
+		SystemProperty.bind(b, "ruby.java.global.max.entries", "0");
+		SystemProperty.bind(b, "ruby.java.global.max.weight", "0");
+		SystemProperty.bind(b, "ruby.java.global.expire.after.write.millis", "0");
+		SystemProperty.bind(b, "ruby.java.global.expire.after.access.millis", "0");
+		SystemProperty.bind(b, "ruby.java.global.values", JavaGlobalCache.STRONG);
+		SystemProperty.bind(b, "ruby.rubyo.cache", "false");
+		SystemProperty.bind(b, "ruby.metrics", "false");
+		SystemProperty.bind(b, "ruby.profiler", "false");
+		SystemProperty.bind(b, "ruby.profiler.interval.millis", "10");
+		SystemProperty.bind(b, "ruby.profiler.max.threads", "16");
+		SystemProperty.bind(b, "ruby.profiler.max.depth", "64");
+		SystemProperty.bind(b, "ruby.slow.call.millis", "0");
+		SystemProperty.bind(b, "ruby.slow.call.method.millis");
+		SystemProperty.bind(b, "ruby.slow.call.buffer.size", "1024");
+		SystemProperty.bind(b, "ruby.slow.call.check.millis", "10");
+		SystemProperty.bind(b, "ruby.reload.millis", "0");
 		b.bind(IConfigureRubyApp.class).to(ConfigureRubyApp.class);
-		b.bind(IRubyO.class).to(RubyApp.class);
+		SystemProperty.bind(b, "ruby.app.aot.cache.directory");
+		SystemProperty.bind(b, "ruby.app.aot.compile.stale", "true");
+		SystemProperty.bind(b, "ruby.app.load.path.index", "false");
+		SystemProperty.bind(b, "ruby.app.load.path.index.check.millis", "2000");
+		SystemProperty.bind(b, "ruby.app.source.cache", "false");
+		SystemProperty.bind(b, "ruby.app.warmup.scripts");
+		SystemProperty.bind(b, "ruby.app.warmup.sends");
+		SystemProperty.bind(b, "ruby.app.warmup.iterations", "0");
+		SystemProperty.bind(b, "ruby.app.warmup.millis", "0");
+		b.bind(IConfigureWarmup.class).to(ConfigureWarmup.class);
+		SystemProperty.bind(b, "ruby.app.pool.size",
+		    String.valueOf(Runtime.getRuntime().availableProcessors()));
+		SystemProperty.bind(b, "ruby.app.pool.checkout.timeout.millis", "30000");
+		SystemProperty.bind(b, "ruby.app.thread.max.runtimes", "16");
+		SystemProperty.bind(b, "ruby.app.thread.wait.millis", "30000");
+		SystemProperty.bind(b, "ruby.app.thread.sweep.millis", "60000");
+		if (THREAD.equals(runtimeMode)) {
+			b.bind(IRubyO.class).to(ThreadAffineRubyApp.class).in(Scopes.SINGLETON);
+		}
+		else if (BACKGROUND.equals(runtimeMode)) {
+			b.bind(IRubyO.class).to(BackgroundRubyApp.class).in(Scopes.SINGLETON);
+		}
+		else {
+			b.bind(IRubyO.class).to(RubyApp.class).in(Scopes.SINGLETON);
+		}
+		for (String name : appNames) {
+			bindNamed(b, name.trim());
+		}
+		b.bind(IRubyAppPool.class).to(RubyAppPool.class).in(Scopes.SINGLETON);
+		SystemProperty.bind(b, "ruby.async.threads",
+		    String.valueOf(Runtime.getRuntime().availableProcessors()));
+		SystemProperty.bind(b, "ruby.async.queue.capacity", "1000");
+		SystemProperty.bind(b, "ruby.async.backpressure", AsyncRubyO.CALLER_RUNS);
+		b.bind(IAsyncRubyO.class).to(AsyncRubyO.class).in(Scopes.SINGLETON);
+    }
+    /**
+     * bind &#64;Named(name) RubyApp, IRubyO and IRubyAppPool
+     * of a named ruby app
+     *
+     * @param b, Binder, Guice Binder
+     * @param name, String, name of the ruby app
+     */
+    void bindNamed(Binder b, String name) {
+    	final NamedRubyAppProvider rap = new NamedRubyAppProvider(name);
+    	b.bind(RubyApp.class).annotatedWith(Names.named(name)).toProvider(rap);
+    	b.bind(IRubyO.class).annotatedWith(Names.named(name)).toProvider(new Provider<IRubyO>() {
+    		public IRubyO get() {
+    			if (THREAD.equals(runtimeMode)) {
+    				return rap.threadAffine();
+    			}
+    			if (BACKGROUND.equals(runtimeMode)) {
+    				return rap.background();
+    			}
+    			return rap.get();
+    		}
+    	}).in(Scopes.SINGLETON);
+    	b.bind(IRubyAppPool.class).annotatedWith(Names.named(name)).toProvider(
+    	    new Provider<IRubyAppPool>() {
+    			public IRubyAppPool get() {
+    				return rap.pool();
+    			}
+    		}).in(Scopes.SINGLETON);
     }
 }
@@ -7,15 +7,61 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertNotSame;
+import com.google.inject.Binder;
+import com.google.inject.Guice;
 import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Module;
+import com.google.inject.Provider;
+import com.google.inject.name.Names;
+import org.jruby.Ruby;
+import org.jruby.exceptions.RaiseException;
 import org.jruby.runtime.builtin.IRubyObject;
 
 import org.bardibardi.guice.GetInjectorFactory;
 
+import org.bardibardi.jruby.AotCache;
+import org.bardibardi.jruby.BackgroundRubyApp;
+import org.bardibardi.jruby.BatchResult;
+import org.bardibardi.jruby.HotReload;
+import org.bardibardi.jruby.ConfigureSlowCalls;
+import org.bardibardi.jruby.ConverterRegistry;
+import org.bardibardi.jruby.IAsyncRubyO;
+import org.bardibardi.jruby.IConfigureSlowCalls;
+import org.bardibardi.jruby.IJavaToRuby;
+import org.bardibardi.jruby.IRegisterConverters;
+import org.bardibardi.jruby.IRubyAppPool;
+import org.bardibardi.jruby.IRubyToJava;
+import org.bardibardi.jruby.JavaGlobalCache;
+import org.bardibardi.jruby.LoadPathIndex;
+import org.bardibardi.jruby.RubyApp;
+import org.bardibardi.jruby.RubyFuture;
 import org.bardibardi.jruby.IRubyO;
+import org.bardibardi.jruby.RubyAppLease;
+import org.bardibardi.jruby.RubyOCache;
+import org.bardibardi.jruby.RubyOMetrics;
+import org.bardibardi.jruby.RubyProfiler;
+import org.bardibardi.jruby.SlowCall;
+import org.bardibardi.jruby.SlowCallLog;
+import org.bardibardi.jruby.SourceCache;
+import org.bardibardi.jruby.ThreadAffineRubyApp;
+import org.bardibardi.jruby.WarmupReport;
+import org.bardibardi.jruby.guice.RubyAppGuiceModule;
 
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.io.File;
+import java.io.FileWriter;
+import java.lang.management.ManagementFactory;
+
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 /**
  * Test the package org.bardibardi.jruby -- primarily test the implementation
@@ -44,18 +90,104 @@ import java.io.File;
  * <p>
  * org.bardibardi.guice.SystemProperty.java - not used here yet
  * <p>
+ * org.bardibardi.jruby.AotCache.java
+ * <p>
+ * org.bardibardi.jruby.AsyncRubyO.java
+ * <p>
+ * org.bardibardi.jruby.BackgroundRubyApp.java
+ * <p>
+ * org.bardibardi.jruby.BatchResult.java
+ * <p>
+ * org.bardibardi.jruby.ByteBufferInputStream.java
+ * <p>
+ * org.bardibardi.jruby.CallSiteCache.java
+ * <p>
  * org.bardibardi.jruby.ConfigureJRuby.java
  * <p>
  * org.bardibardi.jruby.ConfigureRubyApp.java
  * <p>
+ * org.bardibardi.jruby.ConfigureSlowCalls.java
+ * <p>
+ * org.bardibardi.jruby.ConfigureWarmup.java
+ * <p>
+ * org.bardibardi.jruby.ConverterRegistry.java
+ * <p>
+ * org.bardibardi.jruby.Converters.java
+ * <p>
+ * org.bardibardi.jruby.DelegatingRubyO.java
+ * <p>
+ * org.bardibardi.jruby.DoubleArrayView.java
+ * <p>
+ * org.bardibardi.jruby.HotReload.java
+ * <p>
+ * org.bardibardi.jruby.HotReloadMBean.java
+ * <p>
+ * org.bardibardi.jruby.IAsyncRubyO.java
+ * <p>
  * org.bardibardi.jruby.IConfigureRubyApp.java
  * <p>
+ * org.bardibardi.jruby.IConfigureSlowCalls.java
+ * <p>
+ * org.bardibardi.jruby.IConfigureWarmup.java
+ * <p>
+ * org.bardibardi.jruby.IJavaGlobalWeigher.java
+ * <p>
+ * org.bardibardi.jruby.IJavaToRuby.java
+ * <p>
+ * org.bardibardi.jruby.IRegisterConverters.java
+ * <p>
+ * org.bardibardi.jruby.IRubyAppPool.java
+ * <p>
  * org.bardibardi.jruby.IRubyO.java
  * <p>
+ * org.bardibardi.jruby.IRubyToJava.java
+ * <p>
+ * org.bardibardi.jruby.IntArrayView.java
+ * <p>
+ * org.bardibardi.jruby.JavaGlobalCache.java
+ * <p>
+ * org.bardibardi.jruby.JavaGlobals.java
+ * <p>
+ * org.bardibardi.jruby.LoadPathIndex.java
+ * <p>
+ * org.bardibardi.jruby.LongArrayView.java
+ * <p>
+ * org.bardibardi.jruby.NamedRubyAppProvider.java
+ * <p>
+ * org.bardibardi.jruby.RequireHook.java
+ * <p>
  * org.bardibardi.jruby.RubyApp.java
  * <p>
+ * org.bardibardi.jruby.RubyAppFeatures.java
+ * <p>
+ * org.bardibardi.jruby.RubyAppLease.java
+ * <p>
+ * org.bardibardi.jruby.RubyAppPool.java
+ * <p>
+ * org.bardibardi.jruby.RubyEngine.java
+ * <p>
+ * org.bardibardi.jruby.RubyFuture.java
+ * <p>
  * org.bardibardi.jruby.RubyO.java
  * <p>
+ * org.bardibardi.jruby.RubyOCache.java
+ * <p>
+ * org.bardibardi.jruby.RubyOMetrics.java
+ * <p>
+ * org.bardibardi.jruby.RubyProfiler.java
+ * <p>
+ * org.bardibardi.jruby.ScriptCache.java
+ * <p>
+ * org.bardibardi.jruby.SlowCall.java
+ * <p>
+ * org.bardibardi.jruby.SlowCallLog.java
+ * <p>
+ * org.bardibardi.jruby.SourceCache.java
+ * <p>
+ * org.bardibardi.jruby.ThreadAffineRubyApp.java
+ * <p>
+ * org.bardibardi.jruby.WarmupReport.java
+ * <p>
  * org.bardibardi.jruby.guice.JRubyCompleteModule.java
  * <p>
  * org.bardibardi.jruby.guice.RubyAppGuiceModule.java
@@ -81,6 +213,7 @@ public class JRubyTest {
     @BeforeClass
     public static void initializeJRuby() {
         System.setProperty("jruby.test.injector.factory", "org.bardibardi.jruby.test.JRubyTestInjectorFactory");
+        System.setProperty("ruby.app.pool.size", "2");
         injector = GetInjectorFactory.fromProperty("jruby.test.injector.factory").getInjector();
     	rubyApp = injector.getInstance(IRubyO.class);
     }
@@ -145,6 +278,52 @@ public class JRubyTest {
     	String hello = rubyApp.stringFromSend("hello_world");
     	assertEquals("Hello World!", hello);
     }
+    /**
+     * Redefining a ruby method must invalidate
+     * the cached method.
+     * Test RubyO.script(String) and
+     * RubyO.stringFromSend(String)
+     */
+    @Test
+    public void redefineMethod() {
+    	rubyApp.script("def redefined\n'before'\nend");
+    	assertEquals("before", rubyApp.stringFromSend("redefined"));
+    	rubyApp.script("def redefined\n'after'\nend");
+    	assertEquals("after", rubyApp.stringFromSend("redefined"));
+    }
+    /**
+     * A method defined in a subclass, shadowing the inherited
+     * method, must invalidate the cached inherited method.
+     * Test RubyO.stringFromSend(String)
+     */
+    @Test
+    public void shadowMethod() {
+    	rubyApp.script("class ShadowParent\ndef who\n'par'\nend\nend\n" +
+    	    "class ShadowKid < ShadowParent\nend");
+    	IRubyO kid = rubyApp.rubyOFromScript("ShadowKid.new");
+    	assertEquals("par", kid.stringFromSend("who"));
+    	assertEquals("par", kid.stringFromSend("who"));
+    	rubyApp.script("class ShadowKid\ndef who\n'kid'\nend\nend");
+    	assertEquals("kid", kid.stringFromSend("who"));
+    	assertEquals("kid", kid.stringFromSend("who", new Object[0]));
+    }
+    /**
+     * The arity specific sends must convert parameters
+     * like send does.
+     * Test RubyO.send0, RubyO.send1, RubyO.send2
+     * and RubyO.send3
+     */
+    @Test
+    public void sendN() {
+    	rubyApp.script("def join3(a, b, c)\n[a, b, c].join(' ')\nend");
+    	rubyApp.script("def join2(a, b)\njoin3(a, b, nil)\nend");
+    	rubyApp.script("def join1(a)\njoin2(a, nil)\nend");
+    	rubyApp.script("def join0\njoin1(nil)\nend");
+    	assertEquals("a b c", rubyApp.send3(String.class, "join3", "a", "b", "c"));
+    	assertEquals("a 2 ", rubyApp.send2(String.class, "join2", "a", 2));
+    	assertEquals("a  ", rubyApp.send1(String.class, "join1", rubyApp.rubyOFromScript("'a'")));
+    	assertEquals("  ", rubyApp.send0(String.class, "join0"));
+    }
     /**
      * JRuby method should accept null parameter
      * and be able to return null.
@@ -410,6 +589,40 @@ public class JRubyTest {
     	}
     	assertNull(irobj);
     }
+    /**
+     * A cached parsed script must not hide a local
+     * variable defined after the script was first run.
+     * Test RubyO.script(String) and RubyO.stringFromScript
+     */
+    @Test 
+    public void scriptCacheLocalVariable() {
+    	try {
+    	    rubyApp.script("w");
+    	}
+    	catch (Exception e) {
+    		;
+    	}
+    	rubyApp.script("w = 'Hello World!'");
+    	assertEquals("Hello World!", rubyApp.stringFromScript("w"));
+    }
+    /**
+     * A top level return or break in a cached parsed script
+     * must raise a ruby LocalJumpError, as ruby.evalScriptlet does.
+     * Test RubyO.script(String)
+     */
+    @Test 
+    public void scriptCacheLocalJump() {
+    	String[] scripts = {"return 1", "break", "return 1"};
+    	for (String script : scripts) {
+    		try {
+    			rubyApp.script(script);
+    			assertTrue(false);
+    		}
+    		catch (RaiseException e) {
+    			assertEquals("LocalJumpError", e.getException().getMetaClass().getName());
+    		}
+    	}
+    }
     /**
      * JRuby local variables must be convertable to
      * IRubyO's that give access to engine methods.
@@ -525,4 +738,893 @@ public class JRubyTest {
     		rubyString();
     	}
     }
+    /**
+     * RubyApp's of a pool must have their own JRuby engines,
+     * which must not disturb rubyApp.
+     * Test RubyAppPool.lease, RubyAppPool.checkout and
+     * RubyAppPool.checkin
+     */
+    @Test
+    public void pool() {
+    	IRubyAppPool pool = injector.getInstance(IRubyAppPool.class);
+    	assertEquals(2, pool.size());
+    	RubyAppLease lease = pool.lease();
+    	try {
+    		IRubyO iro1 = lease.rubyO();
+    		IRubyO iro2 = pool.checkout();
+    		assertNotSame(iro1, iro2);
+    		iro1.script("$pool_member = 1");
+    		assertSame(iro2.nil(), iro2.script("$pool_member"));
+    		assertSame(rubyApp.nil(), rubyApp.script("$pool_member"));
+    		assertEquals(0, pool.available());
+    		pool.checkin(iro2);
+    	}
+    	finally {
+    		lease.close();
+    	}
+    	assertEquals(2, pool.available());
+    	assertSame(rubyApp, rubyApp.topSelf());
+    }
+    /**
+     * Each thread must get its own RubyApp, which is evicted
+     * when the thread dies.
+     * Test ThreadAffineRubyApp
+     */
+    @Test
+    public void threadAffine() throws InterruptedException {
+    	final IRubyO iro = Guice.createInjector(
+    	    new RubyAppGuiceModule(RubyAppGuiceModule.THREAD)).getInstance(IRubyO.class);
+    	iro.script("$thread_affine = 'main'");
+    	final String[] seen = new String[] {"not run"};
+    	Thread t = new Thread() {
+    		public void run() {
+    			seen[0] = iro.stringFromScript("$thread_affine");
+    		}
+    	};
+    	t.start();
+    	t.join();
+    	assertNull(seen[0]);
+    	assertEquals("main", iro.stringFromScript("$thread_affine"));
+    	ThreadAffineRubyApp tara = (ThreadAffineRubyApp)iro;
+    	assertTrue(2 == tara.booted());
+    	tara.evictDead();
+    	assertEquals(1, tara.live());
+    }
+    /**
+     * Asynchronous calls must return the same results
+     * as the synchronous ones.
+     * Test AsyncRubyO.scriptAsync and AsyncRubyO.sendAsync
+     */
+    @Test
+    public void async() throws Exception {
+    	IAsyncRubyO async = injector.getInstance(IAsyncRubyO.class);
+    	assertSame(rubyApp, async.rubyO());
+    	RubyFuture<Object> f1 = async.scriptAsync(Integer.class, "3+4");
+    	async.rubyO().script("def async_twice(s)\ns + s\nend");
+    	RubyFuture<Object> f2 = async.sendAsync(String.class, "async_twice", "ab");
+    	assertEquals(Integer.valueOf(7), f1.get());
+    	assertEquals("abab", f2.get());
+    	assertTrue(f2.completionNanos() >= f2.queueNanos());
+    }
+    /**
+     * A failing call must not stop the batch.
+     * Test RubyO.sendBatch
+     */
+    @Test
+    public void sendBatch() {
+    	rubyApp.script("def batch_div(a, b)\na / b\nend");
+    	List tuples = new ArrayList();
+    	tuples.add(new Object[] {6, 3});
+    	tuples.add(new Object[] {1, 0});
+    	tuples.add(new Object[] {9, 3});
+    	BatchResult br = rubyApp.sendBatch(Integer.class, "batch_div", tuples);
+    	assertEquals(3, br.size());
+    	assertEquals(1, br.failures());
+    	assertEquals(Integer.valueOf(2), br.result(0));
+    	assertTrue(br.isFailure(1));
+    	assertNull(br.result(1));
+    	assertEquals(Integer.valueOf(3), br.result(2));
+    }
+    /**
+     * Registered converters are used by send, script and
+     * javaObject. Other conversions are unchanged.
+     * Test ConverterRegistry
+     */
+    @Test
+    public void converters() {
+    	ConverterRegistry cr = injector.getInstance(ConverterRegistry.class);
+    	rubyApp.script("class ConvPoint\nattr_reader :x, :y\n" +
+    	    "def initialize(x, y)\n@x = x\n@y = y\nend\nend");
+    	cr.register("ConvPoint", String.class, new IRubyToJava() {
+    		public Object convert(Ruby ruby, IRubyObject irobj) {
+    			IRubyO iro = rubyApp.rubyO(irobj);
+    			return iro.send(Long.class, "x") + "," + iro.send(Long.class, "y");
+    		}
+    	});
+    	cr.register(StringBuilder.class, new IJavaToRuby() {
+    		public IRubyObject convert(Ruby ruby, Object obj) {
+    			return rubyApp.script("ConvPoint.new(" + obj + ")");
+    		}
+    	});
+    	assertEquals("1,2", rubyApp.script(String.class, "ConvPoint.new(1, 2)"));
+    	IRubyObject p = rubyApp.rubyObject(new StringBuilder("3, 4"));
+    	assertEquals("3,4", rubyApp.javaObject(String.class, p));
+    	assertEquals(7, rubyApp.script(Integer.class, "7"));
+    	assertEquals("seven", rubyApp.script(String.class, "'seven'"));
+    	assertEquals(Boolean.TRUE, rubyApp.script(Boolean.class, "true"));
+    	assertNull(rubyApp.script(String.class, "nil"));
+    }
+    /**
+     * A java BigDecimal must be left to JRuby unless
+     * BIG_DECIMAL_TO_RUBY is registered, a ruby BigDecimal
+     * must convert to its java value.
+     * Test ConverterRegistry and IRegisterConverters
+     */
+    @Test
+    public void bigDecimalConverters() {
+    	IRubyObject d = rubyApp.rubyObject(new BigDecimal("2.25"));
+    	assertTrue(!"BigDecimal".equals(d.getMetaClass().getName()));
+    	Injector i = Guice.createInjector(new RubyAppGuiceModule(), new Module() {
+    		public void configure(Binder b) {
+    			b.bind(IRegisterConverters.class).toInstance(new IRegisterConverters() {
+    				public void register(ConverterRegistry cr) {
+    					cr.register(BigDecimal.class, ConverterRegistry.BIG_DECIMAL_TO_RUBY);
+    				}
+    			});
+    		}
+    	});
+    	RubyApp ra = i.getInstance(RubyApp.class);
+    	try {
+    		d = ra.rubyObject(new BigDecimal("2.25"));
+    		assertEquals("BigDecimal", d.getMetaClass().getName());
+    		assertEquals(new BigDecimal("4.50"), ra.rubyO(d).send(BigDecimal.class, "*", 2));
+    		assertEquals(new BigDecimal("1.5"), ra.script(BigDecimal.class, "BigDecimal('1.5')"));
+    		try {
+    			ra.script(BigDecimal.class, "BigDecimal('NaN')");
+    			assertTrue(false);
+    		}
+    		catch (ArithmeticException e) {
+    			// no java BigDecimal for NaN
+    		}
+    	}
+    	finally {
+    		ra.terminate();
+    	}
+    }
+    /**
+     * Primitive results must be read without conversion
+     * and type mismatches must throw.
+     * Test RubyO.longFromSend, intFromSend, doubleFromSend,
+     * booleanFromSend and the matching ...FromScript
+     */
+    @Test
+    public void primitives() {
+    	rubyApp.script("def prim_add(a, b)\na + b\nend");
+    	assertTrue(5L == rubyApp.longFromSend("prim_add", 2, 3));
+    	assertTrue(5 == rubyApp.intFromSend("prim_add", 2, 3));
+    	assertTrue(2.5 == rubyApp.doubleFromSend("prim_add", 2, 0.5));
+    	assertTrue(!rubyApp.booleanFromSend("nil?"));
+    	assertTrue(1L << 40 == rubyApp.longFromScript("1 << 40"));
+    	assertTrue(7 == rubyApp.intFromScript("7"));
+    	assertTrue(3.0 == rubyApp.doubleFromScript("3"));
+    	assertTrue(!rubyApp.booleanFromScript("1 == 2"));
+    	try {
+    		rubyApp.longFromScript("'seven'");
+    		assertTrue(false);
+    	}
+    	catch (ClassCastException e) {
+    	}
+    	try {
+    		rubyApp.intFromScript("1 << 40");
+    		assertTrue(false);
+    	}
+    	catch (ArithmeticException e) {
+    	}
+    }
+    /**
+     * Primitive arrays must go to ruby Arrays and back.
+     * Test RubyO.rubyArray, RubyO.fill and RubyO.rubyView
+     */
+    @Test
+    public void primitiveArrays() {
+    	rubyApp.script("def arr_double(a)\na.map { |x| x * 2 }\nend");
+    	IRubyObject ra = rubyApp.send("arr_double", rubyApp.rubyArray(new long[] {1, 2, 3}));
+    	long[] l = new long[4];
+    	assertTrue(3 == rubyApp.fill(l, ra));
+    	assertTrue(6L == l[2]);
+    	double[] d = new double[2];
+    	assertTrue(2 == rubyApp.fill(d, rubyApp.send("arr_double", rubyApp.rubyArray(new double[] {0.25, 1.5, 2}))));
+    	assertTrue(3.0 == d[1]);
+    	int[] i = new int[3];
+    	rubyApp.fill(i, rubyApp.rubyArray(new int[] {7, 8, 9}));
+    	assertTrue(9 == i[2]);
+    	rubyApp.script("def view_sum(v)\ns = 0\nv.length.times { |j| s += v.get(j) }\ns\nend");
+    	assertTrue(24L == rubyApp.longFromSend("view_sum", rubyApp.rubyView(i)));
+    }
+    /**
+     * UTF-8 bytes must pass to and from ruby unchanged.
+     * Test RubyO.rubyString, RubyO.bytesFromSend, RubyO.bytes
+     * and RubyO.byteBuffer
+     */
+    @Test
+    public void utf8bytes() throws Exception {
+    	byte[] utf8 = ICELANDIC.getBytes("UTF-8");
+    	rubyApp.script("def bytes_echo(s)\ns + ''\nend");
+    	rubyApp.script("def bytes_len(s)\ns.length\nend");
+    	assertTrue(utf8.length == rubyApp.intFromSend("bytes_len", rubyApp.rubyString(utf8)));
+    	byte[] back = rubyApp.bytesFromSend("bytes_echo", rubyApp.rubyString(ByteBuffer.wrap(utf8)));
+    	assertEquals(ICELANDIC, new String(back, "UTF-8"));
+    	ByteBuffer bb = rubyApp.byteBuffer(rubyApp.script("'abc'"));
+    	assertTrue(3 == bb.remaining());
+    	assertTrue('b' == bb.get(1));
+    }
+    /**
+     * java and ruby must share the java global store, which
+     * supports compare and set and bulk access, and is a
+     * native ruby module in ruby.
+     * Test RubyO.javaGlobalPut, RubyO.javaGlobalReplace,
+     * RubyO.javaGlobalGetAll and RubyO.javaGlobalPutAll
+     */
+    @Test
+    public void javaGlobalStore() {
+    	rubyApp.script("java_global_set('jgs_ruby', 'from ruby')");
+    	assertEquals("from ruby", rubyApp.javaGlobal(String.class, "jgs_ruby"));
+    	IRubyObject first = rubyApp.javaGlobalPut("jgs_count", 1);
+    	assertTrue(rubyApp.isNil(first));
+    	IRubyObject one = rubyApp.javaGlobal("jgs_count");
+    	assertTrue(rubyApp.javaGlobalReplace("jgs_count", one, 2));
+    	assertTrue(!rubyApp.javaGlobalReplace("jgs_count", one, 3));
+    	assertTrue(2 == rubyApp.intFromScript("java_global('jgs_count')"));
+    	Map<String, Object> m = new HashMap<String, Object>();
+    	m.put("jgs_a", "a");
+    	m.put("jgs_b", "b");
+    	rubyApp.javaGlobalPutAll(m);
+    	List<String> keys = new ArrayList<String>();
+    	keys.add("jgs_a");
+    	keys.add("jgs_b");
+    	keys.add("jgs_none");
+    	Map<String, IRubyObject> all = rubyApp.javaGlobalGetAll(keys);
+    	assertTrue(2 == all.size());
+    	assertEquals("b", rubyApp.javaObject(String.class, all.get("jgs_b")));
+    	assertEquals("jgs_a", rubyApp.stringFromScript("java_global_remove('jgs_a')"));
+    	assertNull(rubyApp.javaGlobalRemove("jgs_a"));
+    	// native ruby methods, ruby values are stored as they are
+    	assertTrue(rubyApp.booleanFromScript("$java_global.instance_of?(Module)"));
+    	assertTrue(2 == rubyApp.intFromScript("$java_global.get('jgs_count')"));
+    	assertTrue(rubyApp.booleanFromScript(
+    	    "s = 'same'\njava_global_set('jgs_same', s)\njava_global('jgs_same').equal?(s)"));
+    }
+    /**
+     * A bounded java global store must evict, values used
+     * often must survive a burst of new values.
+     * Test JavaGlobalCache
+     */
+    @Test
+    public void javaGlobalCache() {
+    	System.setProperty("ruby.java.global.max.entries", "100");
+    	RubyApp ra;
+    	try {
+    		ra = Guice.createInjector(new RubyAppGuiceModule()).getInstance(RubyApp.class);
+    	}
+    	finally {
+    		System.clearProperty("ruby.java.global.max.entries");
+    	}
+    	try {
+    		ra.javaGlobalSet("popular", "p");
+    		for (int i = 0; i < 1000; ++i) {
+    			ra.javaGlobalSet("once" + i, i);
+    			assertEquals("p", ra.javaGlobal(String.class, "popular"));
+    		}
+    		JavaGlobalCache jgc = ra.javaGlobalCache();
+    		assertTrue(jgc.evictions() >= 900);
+    		assertTrue(jgc.hitRatio() == 1.0);
+    		// once500 was used less than the values already cached
+    		assertTrue(ra.isNil(ra.javaGlobal("once500")));
+    		assertTrue(jgc.misses() == 1);
+    	}
+    	finally {
+    		ra.terminate();
+    	}
+    }
+    /**
+     * A background booted RubyApp must work once ready, and
+     * a failed boot must fail every call the same way.
+     * Test BackgroundRubyApp
+     */
+    @Test
+    public void backgroundBoot() throws Exception {
+    	BackgroundRubyApp bra = (BackgroundRubyApp)Guice.createInjector(
+    	    new RubyAppGuiceModule(RubyAppGuiceModule.BACKGROUND)).getInstance(IRubyO.class);
+    	assertTrue(4 == bra.intFromScript("2+2"));
+    	assertTrue(bra.isReady());
+    	assertSame(bra.ready().get(), bra.topSelf());
+    	bra.terminate();
+    	BackgroundRubyApp failed = new BackgroundRubyApp(new Provider<RubyApp>() {
+    		public RubyApp get() {
+    			throw new IllegalArgumentException("no ruby");
+    		}
+    	});
+    	for (int i = 0; i < 2; ++i) {
+    		try {
+    			failed.script("1");
+    			assertTrue(false);
+    		}
+    		catch (IllegalStateException e) {
+    			assertEquals("no ruby", e.getCause().getMessage());
+    		}
+    	}
+    }
+    /**
+     * The warmup must run the configured scripts and sends
+     * and report on them.
+     * Test WarmupReport and ConfigureWarmup
+     */
+    @Test
+    public void warmup() {
+    	System.setProperty("ruby.app.warmup.scripts", "def warm(x); x * 2; end\n$warm = warm($warm || 1)");
+    	System.setProperty("ruby.app.warmup.sends", "object_id");
+    	System.setProperty("ruby.app.warmup.iterations", "10");
+    	RubyApp ra;
+    	try {
+    		ra = Guice.createInjector(new RubyAppGuiceModule()).getInstance(RubyApp.class);
+    	}
+    	finally {
+    		System.clearProperty("ruby.app.warmup.scripts");
+    		System.clearProperty("ruby.app.warmup.sends");
+    		System.clearProperty("ruby.app.warmup.iterations");
+    	}
+    	try {
+    		WarmupReport wr = ra.warmupReport();
+    		assertEquals(10, wr.iterations());
+    		assertEquals(3, wr.items().size());
+    		assertEquals(10, wr.items().get(2).runs());
+    		assertTrue(wr.items().get(2).isSend());
+    		assertTrue(1024 == ra.intFromScript("$warm"));
+    	}
+    	finally {
+    		ra.terminate();
+    	}
+    }
+    /**
+     * With a time budget and no iterations the warmup must
+     * run until the budget runs out.
+     * Test WarmupReport and ConfigureWarmup
+     */
+    @Test
+    public void warmupBudget() {
+    	System.setProperty("ruby.app.warmup.scripts", "$budget = ($budget || 0) + 1");
+    	System.setProperty("ruby.app.warmup.millis", "100");
+    	RubyApp ra;
+    	try {
+    		ra = Guice.createInjector(new RubyAppGuiceModule()).getInstance(RubyApp.class);
+    	}
+    	finally {
+    		System.clearProperty("ruby.app.warmup.scripts");
+    		System.clearProperty("ruby.app.warmup.millis");
+    	}
+    	try {
+    		WarmupReport wr = ra.warmupReport();
+    		assertTrue(wr.isBudgetExhausted());
+    		assertTrue(wr.millis() >= 100);
+    		assertTrue(wr.iterations() == ra.intFromScript("$budget"));
+    		assertTrue(wr.iterations() == wr.items().get(0).runs());
+    	}
+    	finally {
+    		ra.terminate();
+    	}
+    }
+    /**
+     * A required ruby file must be compiled once and then
+     * loaded compiled by the next RubyApp.
+     * Test AotCache and RequireHook
+     */
+    @Test
+    public void aot() throws Exception {
+    	File tmp = File.createTempFile("aot", "");
+    	tmp.delete();
+    	File src = new File(tmp, "src");
+    	src.mkdirs();
+    	FileWriter fw = new FileWriter(new File(src, "aot_test.rb"));
+    	fw.write("def aot_test\n'compiled'\nend\n");
+    	fw.close();
+    	fw = new FileWriter(new File(src, "aot_broken.rb"));
+    	fw.write("def aot_broken(\n");
+    	fw.close();
+    	String additions = System.getProperty("ruby.app.load.path.additions");
+    	System.setProperty("ruby.app.load.path.additions", src.getPath());
+    	System.setProperty("ruby.app.aot.cache.directory", new File(tmp, "cache").getPath());
+    	Injector i;
+    	try {
+    		i = Guice.createInjector(new RubyAppGuiceModule());
+    	}
+    	finally {
+    		if (null == additions) {
+    			System.clearProperty("ruby.app.load.path.additions");
+    		}
+    		else {
+    			System.setProperty("ruby.app.load.path.additions", additions);
+    		}
+    		System.clearProperty("ruby.app.aot.cache.directory");
+    	}
+    	AotCache aot = i.getInstance(AotCache.class);
+    	for (int n = 1; n <= 2; ++n) {
+    		RubyApp ra = i.getInstance(RubyApp.class);
+    		try {
+    			ra.script("require 'aot_test'");
+    			assertEquals("compiled", ra.stringFromSend("aot_test"));
+    			assertTrue(1 == aot.compiled());
+    			assertTrue(n == aot.loaded());
+    			assertTrue(ra.booleanFromScript("Object.private_method_defined?(:aot_test)"));
+    			try {
+    				ra.script("require 'aot_broken'");
+    				assertTrue(false);
+    			}
+    			catch (RaiseException e) {
+    				assertEquals("SyntaxError", e.getException().getMetaClass().getName());
+    			}
+    			assertTrue(n == aot.fallbacks());
+    		}
+    		finally {
+    			ra.terminate();
+    		}
+    	}
+    }
+    /**
+     * require must resolve through the index, and see files
+     * added after the index was built. The java.class.path
+     * must not be indexed.
+     * Test LoadPathIndex and RequireHook
+     */
+    @Test
+    public void loadPathIndex() throws Exception {
+    	File src = File.createTempFile("lpi", "");
+    	src.delete();
+    	new File(src, "lpi").mkdirs();
+    	FileWriter fw = new FileWriter(new File(src, "lpi/one.rb"));
+    	fw.write("def lpi_one\n1\nend\n");
+    	fw.close();
+    	String additions = System.getProperty("ruby.app.load.path.additions");
+    	System.setProperty("ruby.app.load.path.additions", src.getPath());
+    	System.setProperty("ruby.app.load.path.index", "true");
+    	System.setProperty("ruby.app.load.path.index.check.millis", "0");
+    	Injector i;
+    	try {
+    		i = Guice.createInjector(new RubyAppGuiceModule());
+    	}
+    	finally {
+    		if (null == additions) {
+    			System.clearProperty("ruby.app.load.path.additions");
+    		}
+    		else {
+    			System.setProperty("ruby.app.load.path.additions", additions);
+    		}
+    		System.clearProperty("ruby.app.load.path.index");
+    		System.clearProperty("ruby.app.load.path.index.check.millis");
+    	}
+    	RubyApp ra = i.getInstance(RubyApp.class);
+    	try {
+    		LoadPathIndex lpi = i.getInstance(LoadPathIndex.class);
+    		ra.script("require 'lpi/one'");
+    		assertTrue(1 == ra.intFromSend("lpi_one"));
+    		assertTrue(1 == lpi.hits());
+    		fw = new FileWriter(new File(src, "lpi/two.rb"));
+    		fw.write("def lpi_two\n2\nend\n");
+    		fw.close();
+    		// make sure the directory's modification time changes
+    		new File(src, "lpi").setLastModified(System.currentTimeMillis() + 2000);
+    		ra.script("require 'lpi/two'");
+    		assertTrue(2 == ra.intFromSend("lpi_two"));
+    		assertTrue(2 == lpi.hits());
+    		assertTrue(1 == lpi.rebuilds());
+    		// the standard library is left to JRuby's require
+    		ra.script("require 'set'");
+    		assertTrue(ra.booleanFromScript("$\".include?('set.rb')"));
+    		assertTrue(2 == lpi.hits());
+    	}
+    	finally {
+    		ra.terminate();
+    	}
+    }
+    /**
+     * A required file must be mapped once, shared by the next
+     * RubyApp and mapped again when it changes.
+     * Test SourceCache and RequireHook
+     */
+    @Test
+    public void sourceCache() throws Exception {
+    	File src = File.createTempFile("src", "");
+    	src.delete();
+    	src.mkdirs();
+    	File rb = new File(src, "mapped.rb");
+    	FileWriter fw = new FileWriter(rb);
+    	fw.write("def mapped\n'first'\nend\n");
+    	fw.close();
+    	String additions = System.getProperty("ruby.app.load.path.additions");
+    	System.setProperty("ruby.app.load.path.additions", src.getPath());
+    	System.setProperty("ruby.app.source.cache", "true");
+    	Injector i;
+    	try {
+    		i = Guice.createInjector(new RubyAppGuiceModule());
+    	}
+    	finally {
+    		if (null == additions) {
+    			System.clearProperty("ruby.app.load.path.additions");
+    		}
+    		else {
+    			System.setProperty("ruby.app.load.path.additions", additions);
+    		}
+    		System.clearProperty("ruby.app.source.cache");
+    	}
+    	SourceCache sc = i.getInstance(SourceCache.class);
+    	String[] expected = {"first", "first", "second"};
+    	for (int n = 0; n < expected.length; ++n) {
+    		if (2 == n) {
+    			fw = new FileWriter(rb);
+    			fw.write("def mapped\n'second'\nend\n");
+    			fw.close();
+    			rb.setLastModified(rb.lastModified() + 2000);
+    		}
+    		RubyApp ra = i.getInstance(RubyApp.class);
+    		try {
+    			ra.script("require 'mapped'");
+    			assertEquals(expected[n], ra.stringFromSend("mapped"));
+    		}
+    		finally {
+    			ra.terminate();
+    		}
+    	}
+    	assertTrue(1 == sc.maps());
+    	assertTrue(1 == sc.hits());
+    	assertTrue(1 == sc.remaps());
+    }
+    /**
+     * The same ruby object must give the same IRubyO, small
+     * Fixnums, nil, true and false must be flyweights.
+     * Test RubyOCache
+     */
+    @Test
+    public void rubyOCache() {
+    	System.setProperty("ruby.rubyo.cache", "true");
+    	RubyApp ra;
+    	try {
+    		ra = Guice.createInjector(new RubyAppGuiceModule()).getInstance(RubyApp.class);
+    	}
+    	finally {
+    		System.clearProperty("ruby.rubyo.cache");
+    	}
+    	try {
+    		ra.script("$cached = 'cached'");
+    		IRubyO first = ra.rubyOFromScript("$cached");
+    		assertSame(first, ra.rubyOFromScript("$cached"));
+    		assertSame(first, ra.rubyO(first.unwrap()));
+    		assertSame(ra.rubyOFromScript("1 + 2"), ra.rubyOFromScript("6 / 2"));
+    		assertSame(ra.rubyOFromScript("nil"), ra.rubyO(ra.nil()));
+    		assertSame(ra.rubyOFromScript("1 == 1"), ra.rubyOFromScript("2 == 2"));
+    		assertSame(ra.topSelf(), ra.rubyOFromScript("self"));
+    		RubyOCache roc = ra.rubyOCache();
+    		assertTrue(3 == roc.hits());
+    		assertTrue(3 == roc.flyweightHits());
+    	}
+    	finally {
+    		ra.terminate();
+    	}
+    }
+    /**
+     * Enabled metrics must count sends, scripts and conversions
+     * per key, and be visible over JMX.
+     * Test RubyOMetrics
+     */
+    @Test
+    public void metrics() throws Exception {
+    	RubyApp ra = Guice.createInjector(new RubyAppGuiceModule()).getInstance(RubyApp.class);
+    	RubyOMetrics rom = ra.metrics();
+    	try {
+    		ra.script("def metered(x); x * 2; end");
+    		assertTrue(rom.snapshot().isEmpty());
+    		ManagementFactory.getPlatformMBeanServer().setAttribute(rom.objectName(),
+    		    new Attribute("Enabled", Boolean.TRUE));
+    		for (int i = 0; i < 10; ++i) {
+    			assertTrue(2 * i == ra.intFromSend("metered", i));
+    			assertEquals("x", ra.stringFromScript("'x'"));
+    		}
+    		ra.send1(String.class, "metered", "y");
+    		try {
+    			ra.send0("no_such_method");
+    		}
+    		catch (RaiseException e) {
+    			// counted as an error
+    		}
+    		List tuples = new ArrayList();
+    		tuples.add(new Object[] {1});
+    		tuples.add(new Object[] {2});
+    		assertTrue(0 == ra.sendBatch(Integer.class, "metered", tuples).failures());
+    		Map<String, RubyOMetrics.Snapshot> m = rom.snapshot();
+    		RubyOMetrics.Snapshot metered = m.get("send metered");
+    		assertTrue(11 == metered.calls());
+    		assertTrue(metered.conversionNanos() > 0);
+    		assertTrue(metered.dispatchPercentileNanos(0.99) >= metered.dispatchPercentileNanos(0.5));
+    		assertTrue(1 == m.get("send no_such_method").errors());
+    		assertTrue(1 == m.get("send java_send_batch").calls());
+    		assertTrue(10 == m.get("script 3:" + Integer.toHexString("'x'".hashCode())).calls());
+    		assertTrue(10 == m.get("javaObject java.lang.String").calls());
+    		String[] lines = (String[])ManagementFactory.getPlatformMBeanServer().getAttribute(
+    		    rom.objectName(), "Snapshot");
+    		assertTrue(lines.length == m.size());
+    		rom.reset();
+    		assertTrue(rom.snapshot().isEmpty());
+    	}
+    	finally {
+    		rom.setEnabled(false);
+    		rom.unregister();
+    		ra.terminate();
+    	}
+    }
+    /**
+     * The RubyOMetrics and RubyProfiler MBeans must be registered
+     * while a RubyApp of their Injector runs, and unregistered
+     * when the last one is terminated.
+     * Test RubyOMetrics and RubyProfiler
+     */
+    @Test
+    public void mbeansUnregistered() throws Exception {
+    	Injector i = Guice.createInjector(new RubyAppGuiceModule());
+    	RubyApp ra = i.getInstance(RubyApp.class);
+    	RubyApp ra2 = i.getInstance(RubyApp.class);
+    	RubyOMetrics rom = ra.metrics();
+    	RubyProfiler rp = ra.profiler();
+    	ObjectName m = rom.objectName();
+    	ObjectName p = rp.objectName();
+    	MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+    	assertTrue(mbs.isRegistered(m));
+    	assertTrue(mbs.isRegistered(p));
+    	ra.terminate();
+    	assertTrue(mbs.isRegistered(m));
+    	ra2.terminate();
+    	assertNull(rom.objectName());
+    	assertNull(rp.objectName());
+    	assertTrue(!mbs.isRegistered(m));
+    	assertTrue(!mbs.isRegistered(p));
+    }
+    /**
+     * A running profiler must sample the ruby stacks of a send
+     * into collapsed stacks, rooted at the send.
+     * Test RubyProfiler
+     */
+    @Test
+    public void profiler() throws Exception {
+    	RubyApp ra = Guice.createInjector(new RubyAppGuiceModule()).getInstance(RubyApp.class);
+    	RubyProfiler rp = ra.profiler();
+    	try {
+    		ra.script("def profiled_inner(n); x = 0; n.times { |i| x += i }; x; end");
+    		ra.script("def profiled(ms); t = Time.now; profiled_inner(1000) while (Time.now - t) * 1000 < ms; 1; end");
+    		assertTrue(!rp.isRunning());
+    		rp.start();
+    		assertTrue(1 == ra.intFromSend("profiled", 300));
+    		rp.stop();
+    		assertTrue(rp.getSamples() > 0);
+    		String collapsed = rp.collapsed();
+    		assertTrue(collapsed.startsWith("send profiled;"));
+    		assertTrue(collapsed.indexOf("profiled_inner") > 0);
+    		File f = File.createTempFile("profile", ".collapsed");
+    		rp.writeCollapsed(f.getPath());
+    		assertTrue(f.length() == collapsed.length());
+    		f.delete();
+    		rp.reset();
+    		assertTrue(0 == rp.getSamples());
+    	}
+    	finally {
+    		rp.unregister();
+    		ra.terminate();
+    	}
+    }
+    /**
+     * A send past the threshold bound with Guice for its method
+     * must be logged with its argument shapes and backtrace,
+     * other calls must not.
+     * Test SlowCallLog
+     */
+    @Test
+    public void slowCallLog() throws Exception {
+    	Injector i = Guice.createInjector(new RubyAppGuiceModule(), new Module() {
+    		public void configure(Binder b) {
+    			b.bind(IConfigureSlowCalls.class).toInstance(new IConfigureSlowCalls() {
+    				public long thresholdMillis(String method) {
+    					return "sleepy".equals(method) ? 50 : 0;
+    				}
+    				public long scriptThresholdMillis() {
+    					return 0;
+    				}
+    				public boolean isEnabled() {
+    					return true;
+    				}
+    			});
+    		}
+    	});
+    	RubyApp ra = i.getInstance(RubyApp.class);
+    	try {
+    		ra.script("def sleepy(s, a); sleep 0.2; s; end");
+    		ra.script("def quick(s); s; end");
+    		assertEquals("hello", ra.stringFromSend("quick", "hello"));
+    		assertEquals("hello", ra.stringFromSend("sleepy", "hello", new int[3]));
+    		SlowCallLog scl = ra.slowCallLog();
+    		scl.drain();
+    		assertTrue(1 == scl.logged());
+    		SlowCall sc = scl.recent().get(0);
+    		assertEquals("send sleepy", sc.key());
+    		assertEquals("java.lang.String[5]", sc.argumentShapes()[0]);
+    		assertEquals("int[3]", sc.argumentShapes()[1]);
+    		assertTrue(sc.executionNanos() >= 150000000L);
+    		assertTrue(sc.backtrace().length > 0);
+    		assertTrue(!sc.isError());
+    		assertTrue(scl.isWatching());
+    		scl.setConfigureSlowCalls(new ConfigureSlowCalls(0, ""));
+    		assertTrue(!scl.isEnabled());
+    		assertTrue(!scl.isWatching());
+    	}
+    	finally {
+    		ra.terminate();
+    	}
+    	assertTrue(!ra.slowCallLog().isWatching());
+    }
+    /**
+     * Named ruby apps must each be a singleton with its own
+     * engine, isolated from the other ruby apps.
+     * Test NamedRubyAppProvider
+     */
+    @Test
+    public void namedRubyApps() {
+    	Injector i = Guice.createInjector(
+    	    new RubyAppGuiceModule(RubyAppGuiceModule.SHARED, "blog", "shop"));
+    	IRubyO blog = i.getInstance(Key.get(IRubyO.class, Names.named("blog")));
+    	IRubyO shop = i.getInstance(Key.get(IRubyO.class, Names.named("shop")));
+    	try {
+    		assertTrue(blog == i.getInstance(Key.get(IRubyO.class, Names.named("blog"))));
+    		assertTrue(blog != shop);
+    		blog.script("def app_name; 'blog'; end; $shared = 1");
+    		shop.script("def app_name; 'shop'; end");
+    		assertEquals("blog", blog.stringFromSend("app_name"));
+    		assertEquals("shop", shop.stringFromSend("app_name"));
+    		assertTrue(!shop.booleanFromScript("!!defined?($shared)"));
+    		blog.javaGlobalSet("app", "blog");
+    		assertNull(shop.javaGlobal(String.class, "app"));
+    	}
+    	finally {
+    		((RubyApp)blog).terminate();
+    		((RubyApp)shop).terminate();
+    	}
+    }
+    /**
+     * Named ruby apps must each resolve require through the
+     * index of their own load path.
+     * Test LoadPathIndex and NamedRubyAppProvider
+     */
+    @Test
+    public void namedLoadPathIndex() throws Exception {
+    	File src = File.createTempFile("nlpi", "");
+    	src.delete();
+    	String additions = System.getProperty("ruby.app.load.path.additions");
+    	String[] names = {"", "blog", "shop"};
+    	for (String name : names) {
+    		File dir = new File(src, "app" + name);
+    		dir.mkdirs();
+    		FileWriter fw = new FileWriter(new File(dir, "which_app.rb"));
+    		fw.write("def which_app\n'app" + name + "'\nend\n");
+    		fw.close();
+    		System.setProperty((0 == name.length() ? "" : name + ".") +
+    		    "ruby.app.load.path.additions", dir.getPath());
+    	}
+    	System.setProperty("ruby.app.load.path.index", "true");
+    	IRubyO[] apps = new IRubyO[names.length];
+    	try {
+    		Injector i = Guice.createInjector(
+    		    new RubyAppGuiceModule(RubyAppGuiceModule.SHARED, "blog", "shop"));
+    		apps[0] = i.getInstance(IRubyO.class);
+    		apps[1] = i.getInstance(Key.get(IRubyO.class, Names.named("blog")));
+    		apps[2] = i.getInstance(Key.get(IRubyO.class, Names.named("shop")));
+    	}
+    	finally {
+    		if (null == additions) {
+    			System.clearProperty("ruby.app.load.path.additions");
+    		}
+    		else {
+    			System.setProperty("ruby.app.load.path.additions", additions);
+    		}
+    		System.clearProperty("blog.ruby.app.load.path.additions");
+    		System.clearProperty("shop.ruby.app.load.path.additions");
+    		System.clearProperty("ruby.app.load.path.index");
+    	}
+    	try {
+    		for (int n = 0; n < names.length; ++n) {
+    			apps[n].script("require 'which_app'");
+    			assertEquals("app" + names[n], apps[n].stringFromSend("which_app"));
+    		}
+    	}
+    	finally {
+    		for (IRubyO app : apps) {
+    			if (null != app) {
+    				((RubyApp)app).terminate();
+    			}
+    		}
+    	}
+    }
+    /**
+     * A named ruby app must follow the runtime mode.
+     * Test NamedRubyAppProvider and RubyAppGuiceModule
+     */
+    @Test
+    public void namedRubyAppMode() throws InterruptedException {
+    	Injector i = Guice.createInjector(
+    	    new RubyAppGuiceModule(RubyAppGuiceModule.THREAD, "blog"));
+    	final IRubyO blog = i.getInstance(Key.get(IRubyO.class, Names.named("blog")));
+    	assertTrue(blog instanceof ThreadAffineRubyApp);
+    	blog.script("$named_mode = 'main'");
+    	final String[] seen = new String[] {"not run"};
+    	Thread t = new Thread() {
+    		public void run() {
+    			seen[0] = blog.stringFromScript("$named_mode");
+    		}
+    	};
+    	t.start();
+    	t.join();
+    	assertNull(seen[0]);
+    	RubyApp ra = i.getInstance(Key.get(RubyApp.class, Names.named("blog")));
+    	assertTrue(ra != i.getInstance(Key.get(RubyApp.class, Names.named("blog"))));
+    	ra.terminate();
+    	((ThreadAffineRubyApp)blog).evictDead();
+    }
+    /**
+     * A changed ruby file must be loaded again into the running
+     * engine, files which did not change must not be.
+     * Test HotReload and RequireHook
+     */
+    @Test
+    public void hotReload() throws Exception {
+    	File src = File.createTempFile("reload", "");
+    	src.delete();
+    	src.mkdirs();
+    	File app = new File(src, "reload_app.rb");
+    	FileWriter fw = new FileWriter(app);
+    	fw.write("require 'reload_helper'\ndef greeting\n'hello ' + helper\nend\n");
+    	fw.close();
+    	File helper = new File(src, "reload_helper.rb");
+    	fw = new FileWriter(helper);
+    	fw.write("def helper\n'one'\nend\n");
+    	fw.close();
+    	System.setProperty("ruby.app.file.directory", src.getPath());
+    	System.setProperty("ruby.app.file.name.without.rb.extension", "reload_app");
+    	// checked by hand below
+    	System.setProperty("ruby.reload.millis", "3600000");
+    	RubyApp ra;
+    	try {
+    		ra = Guice.createInjector(new RubyAppGuiceModule()).getInstance(RubyApp.class);
+    	}
+    	finally {
+    		System.clearProperty("ruby.app.file.directory");
+    		System.clearProperty("ruby.app.file.name.without.rb.extension");
+    		System.clearProperty("ruby.reload.millis");
+    	}
+    	HotReload hr = ra.hotReload();
+    	try {
+    		assertEquals("hello one", ra.stringFromSend("greeting"));
+    		List<String> features = ra.requireHook().features();
+    		assertTrue(2 == features.size());
+    		assertEquals(helper.getAbsolutePath(), new File(features.get(0)).getAbsolutePath());
+    		assertTrue(ra.requireHook().requiredBy(features.get(0)).contains(features.get(1)));
+    		assertTrue(0 == hr.check());
+    		fw = new FileWriter(helper);
+    		fw.write("def helper\n'two'\nend\n");
+    		fw.close();
+    		helper.setLastModified(helper.lastModified() + 2000);
+    		assertTrue(1 == hr.check());
+    		assertEquals("hello two", ra.stringFromSend("greeting"));
+    		assertTrue(1 == hr.getReloads());
+    		assertTrue(1 == hr.getFilesReloaded());
+    		assertTrue(0 == hr.getFailures());
+    		assertTrue(0 == hr.check());
+    	}
+    	finally {
+    		hr.unregister();
+    		ra.terminate();
+    	}
+    }
 }